@@ -22,6 +22,7 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import de.sg_o.lib.tagy.data.DataManager;
 import de.sg_o.lib.tagy.data.DataManager_;
 import de.sg_o.lib.tagy.data.MetaData;
+import de.sg_o.lib.tagy.data.TagIndexEntry;
 import de.sg_o.lib.tagy.db.DB;
 import de.sg_o.lib.tagy.db.QueryBoxSpec;
 import de.sg_o.lib.tagy.def.StructureDefinition;
@@ -52,14 +53,16 @@ public class Project {
     private final String projectName;
     @NotNull
     private final ToOne<User> user = new ToOne<>(this, Project_.user);
+    private int tagIndexVersion;
 
     @Transient
     transient BoxStore __boxStore = null;
 
-    public Project(Long id, @NotNull String projectName, long userId) {
+    public Project(Long id, @NotNull String projectName, long userId, int tagIndexVersion) {
         this.id = id;
         this.projectName = projectName;
         this.user.setTargetId(userId);
+        this.tagIndexVersion = tagIndexVersion;
     }
 
 
@@ -70,6 +73,8 @@ public class Project {
         }
         this.projectName = projectName.trim();
         this.user.setTarget(user);
+        // A new project has no meta data, so its index is complete
+        this.tagIndexVersion = TagIndexEntry.VERSION;
     }
 
     public Project(@NotNull ProjectProto.Project proto, @NotNull User user) {
@@ -80,6 +85,7 @@ public class Project {
         }
         this.projectName = projectName;
         this.user.setTarget(user);
+        this.tagIndexVersion = TagIndexEntry.VERSION;
         StructureDefinition structureDefinition = this.resolveStructureDefinition();
         structureDefinition.setTagDefinitions(proto.getStructureDefinition());
         if (proto.hasDataManager()) {
@@ -172,6 +178,17 @@ public class Project {
         return user;
     }
 
+    /**
+     * @return The version of the tag index the meta data of this project was indexed with, see {@link TagIndexEntry}
+     */
+    public int getTagIndexVersion() {
+        return tagIndexVersion;
+    }
+
+    public void setTagIndexVersion(int tagIndexVersion) {
+        this.tagIndexVersion = tagIndexVersion;
+    }
+
     @SuppressWarnings("UnusedReturnValue")
     public boolean save() {
         BoxStore db = DB.getDb();
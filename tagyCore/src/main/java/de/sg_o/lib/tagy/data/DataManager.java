@@ -23,6 +23,7 @@ import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import de.sg_o.lib.tagy.Project;
 import de.sg_o.lib.tagy.db.DB;
 import de.sg_o.lib.tagy.db.QueryBoxSpec;
+import de.sg_o.lib.tagy.util.IngestCallBack;
 import de.sg_o.lib.tagy.util.PagedList;
 import de.sg_o.proto.tagy.DataManagerProto;
 import de.sg_o.proto.tagy.DataSourceProto;
@@ -38,9 +39,7 @@ import org.jetbrains.annotations.NotNull;
 
 import javax.swing.table.AbstractTableModel;
 import java.io.File;
-import java.net.URL;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicReference;
 
 import static de.sg_o.lib.tagy.util.MessageLoader.getMessageFromBundle;
 
@@ -48,7 +47,6 @@ import static de.sg_o.lib.tagy.util.MessageLoader.getMessageFromBundle;
 @JsonIgnoreProperties({ "listenerList", "project"})
 @Uid(937091544225069295L)
 public class DataManager extends AbstractTableModel {
-    private static final HashMap<Long, Long> locks = new HashMap<>();
 
     @Id
     @Uid(1977117253415533500L)
@@ -131,27 +129,44 @@ public class DataManager extends AbstractTableModel {
     }
 
     public boolean ingest() {
-        BoxStore db = DB.getDb();
-        Project resolvedProject = resolveProject();
-        if (db == null || resolvedProject == null) return false;
-        db.runInTx(() -> {
-            for (DataSource directory : dataSources) {
-                ArrayList<URL> urls = directory.getFiles();
-                for (URL url : urls) {
-                    if (url == null) continue;
-                    FileInfo fileInfo;
-                    fileInfo = FileInfo.openOrCreate(url, resolveProject());
-                    MetaData metaData = MetaData.queryFirst(fileInfo, resolvedProject);
-                    fileInfo.setAnnotated(metaData != null);
-                    fileInfo.save();
-                }
-            }
-        });
-        return true;
+        return new Ingest(this).run();
+    }
+
+    /**
+     * Ingests all data sources in the background.
+     *
+     * @param callBack Receives the progress and the result of the ingest
+     */
+    public void ingest(IngestCallBack callBack) {
+        Ingest ingest = new Ingest(this);
+        ingest.setCallBack(callBack);
+        ingest.start();
+    }
+
+    /**
+     * Ingests only the directories that changed since the last incremental ingest and purges removed files.
+     *
+     * @return true if all data sources were ingested
+     */
+    public boolean ingestIncremental() {
+        return new IncrementalIngest(this).run();
+    }
+
+    /**
+     * Ingests only the changed directories in the background.
+     *
+     * @param callBack Receives the progress and the result of the ingest
+     */
+    public void ingestIncremental(IngestCallBack callBack) {
+        IncrementalIngest ingest = new IncrementalIngest(this);
+        ingest.setCallBack(callBack);
+        ingest.start();
     }
 
     public boolean clear() {
-        return FileInfo.deleteAll(resolveProject(), false);
+        boolean cleared = FileInfo.deleteAll(resolveProject(), false);
+        // Without the files the snapshots would hide every directory from the next incremental ingest
+        return ScanSnapshot.deleteAll(resolveProject()) && cleared;
     }
 
     public FileInfoList getFileInfoList(int pageSize) {
@@ -168,36 +183,58 @@ public class DataManager extends AbstractTableModel {
         return FileInfo.query(resolveProject(), nonAnnotatedOnly, pageLength);
     }
 
+    /**
+     * @return The files of the project of a type, see {@link FileInfo#query(Project, FileType, boolean, int)}
+     */
+    public @NotNull PagedList<FileInfo> getFiles(@NotNull FileType fileType, boolean nonAnnotatedOnly, int pageLength) {
+        return FileInfo.query(resolveProject(), fileType, nonAnnotatedOnly, pageLength);
+    }
+
     public FileInfo getNextFile() {
         return FileInfo.queryFirst(project.getTarget());
     }
 
+    /**
+     * Checks out files of the project, see {@link FileInfo#checkOut(Project, boolean, int, long)}.
+     *
+     * @param nonAnnotatedOnly If true, annotated files are not checked out
+     * @param count            The maximum number of files to check out
+     * @param checkoutFor      The length of the lease in milliseconds
+     * @return The checked out files
+     */
     public @NotNull List<FileInfo> checkOutFiles(boolean nonAnnotatedOnly, int count, long checkoutFor) {
-        Long lock = getLock(this.id);
-        QueryBoxSpec<FileInfo> qbs = qb -> {
-            if (nonAnnotatedOnly) {
-                qb = qb.apply(FileInfo_.annotated.equal(false));
-            }
-            return qb.apply(FileInfo_.checkedOutUntil.isNull().or(FileInfo_.checkedOutUntil.less(new Date())));
-        };
-        AtomicReference<List<FileInfo>> fileInfos = new AtomicReference<>(new ArrayList<>());
-        BoxStore db = DB.getDb();
-        if (db == null) return fileInfos.get();
-        synchronized (lock) {
-            Date endDate = new Date(new Date().getTime() + checkoutFor);
-            db.runInTx(() -> {
-                PagedList<FileInfo> foundFileInfos = FileInfo.query(project.getTarget(), qbs, count);
-                for (FileInfo fileInfo : foundFileInfos) {
-                    if (fileInfo.checkOut(endDate)) {
-                        fileInfos.get().add(fileInfo);
-                    } else {
-                        continue;
-                    }
-                    fileInfo.save();
-                }
-            });
-            return fileInfos.get();
-        }
+        Project project = this.project.getTarget();
+        if (project == null) return new ArrayList<>();
+        return FileInfo.checkOut(project, nonAnnotatedOnly, count, checkoutFor);
+    }
+
+    /**
+     * Extends the leases of checked out files, see {@link FileInfo#renewLeases(Collection, long)}.
+     *
+     * @return The files whose lease was extended
+     */
+    public @NotNull List<FileInfo> renewLeases(@NotNull Collection<FileInfo> files, long checkoutFor) {
+        return FileInfo.renewLeases(files, checkoutFor);
+    }
+
+    /**
+     * Ends the leases of checked out files, see {@link FileInfo#releaseLeases(Collection)}.
+     *
+     * @return The files whose lease was ended
+     */
+    public @NotNull List<FileInfo> releaseLeases(@NotNull Collection<FileInfo> files) {
+        return FileInfo.releaseLeases(files);
+    }
+
+    /**
+     * Removes the ended leases of the files of the project.
+     *
+     * @return The number of files whose lease was removed
+     */
+    public int releaseExpiredLeases() {
+        Project project = this.project.getTarget();
+        if (project == null) return 0;
+        return FileInfo.releaseExpiredLeases(project);
     }
 
     public boolean save() {
@@ -223,13 +260,6 @@ public class DataManager extends AbstractTableModel {
                 + "}";
     }
 
-    private static Long getLock(Long id) {
-        if (!locks.containsKey(id)) {
-            locks.put(id, id);
-        }
-        return locks.get(id);
-    }
-
     @Override
     public String getColumnName(int column)
     {
@@ -29,6 +29,7 @@ import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.file.Files;
@@ -37,12 +38,15 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
 @Entity
 @Uid(2718146996373471930L)
 public class DataSource {
+    public static final int MAX_DEPTH = 999;
+
     @Id
     @Uid(7262970591174364797L)
     private Long id;
@@ -146,6 +150,18 @@ public class DataSource {
     }
 
     public @NotNull ArrayList<URL> getFiles() {
+        ArrayList<URL> urls = new ArrayList<>();
+        forEachFile(urls::add);
+        return urls;
+    }
+
+    /**
+     * Builds the pattern used to match the file names (or list entries) of this source
+     * against the allowed file extensions.
+     *
+     * @return The compiled file name pattern
+     */
+    public @NotNull Pattern getFileNamePattern() {
         StringBuilder regex = new StringBuilder();
         if (fileExtensions.isEmpty()) {
             regex.append(".*");
@@ -155,50 +171,64 @@ public class DataSource {
             regex.append(".*\\.").append(fileExtension);
             if (i < fileExtensions.size() - 1) regex.append("|");
         }
+        return Pattern.compile(regex.toString());
+    }
+
+    /**
+     * Streams every file of this source to the consumer without collecting them first.
+     *
+     * @param consumer Receives every matching file
+     * @return false if the source is a file list that could not be read
+     */
+    public boolean forEachFile(@NotNull Consumer<URL> consumer) {
+        Pattern pattern = getFileNamePattern();
         File locator = new File(source);
         if (locator.isDirectory()) {
-            return getFilesInDirectory(regex.toString());
-        } else {
-            return getFilesFromList(regex.toString());
+            walkDirectory(Paths.get(source), recursive ? MAX_DEPTH : 1, pattern, consumer);
+            return true;
         }
+        return readFileList(pattern, consumer);
     }
 
-    private @NotNull ArrayList<URL> getFilesInDirectory(String regex) {
-        int maxDepth = recursive ? 999 : 1;
-
+    /**
+     * Walks a directory tree and streams every regular file matching the pattern to the consumer.
+     *
+     * @param start    The directory to start at
+     * @param maxDepth The maximum number of directory levels to visit
+     * @param pattern  The file name pattern
+     * @param consumer Receives every matching file
+     */
+    public static void walkDirectory(@NotNull Path start, int maxDepth, @NotNull Pattern pattern, @NotNull Consumer<URL> consumer) {
         try (Stream<Path> files = Files.find(
-                Paths.get(source), maxDepth,
+                start, maxDepth,
                 (p, bfa) -> bfa.isRegularFile()
-                        && p.getFileName().toString().matches(regex)))
+                        && pattern.matcher(p.getFileName().toString()).matches()))
         {
-            return files.map(Path::toUri).map(uri -> {
+            files.map(Path::toUri).map(uri -> {
                 try {
                     return uri.toURL();
                 } catch (MalformedURLException e) {
                     return null;
                 }
-            }).collect(Collectors.toCollection(ArrayList::new));
-        } catch (IOException e) {
-            return new ArrayList<>();
+            }).forEach(url -> {
+                if (url != null) consumer.accept(url);
+            });
+        } catch (IOException | UncheckedIOException ignored) {
         }
     }
 
-    private @NotNull ArrayList<URL> getFilesFromList(String regex) {
-        ArrayList<URL> urls = new ArrayList<>();
-        try {
-            List<String> lines = Files.readAllLines(Paths.get(source));
-            for (String line : lines) {
-                if (line.matches(regex)) {
-                    try {
-                        urls.add(new URL(line));
-                    } catch (MalformedURLException ignored) {
-                    }
+    private boolean readFileList(Pattern pattern, Consumer<URL> consumer) {
+        try (Stream<String> lines = Files.lines(Paths.get(source))) {
+            lines.filter(line -> pattern.matcher(line).matches()).forEach(line -> {
+                try {
+                    consumer.accept(new URL(line));
+                } catch (MalformedURLException ignored) {
                 }
-            }
-        } catch (IOException e) {
-            return urls;
+            });
+        } catch (IOException | UncheckedIOException e) {
+            return false;
         }
-        return urls;
+        return true;
     }
 
     public boolean save() {
@@ -20,6 +20,7 @@ package de.sg_o.lib.tagy.data;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import de.sg_o.lib.tagy.Project;
+import de.sg_o.lib.tagy.db.CompiledQuery;
 import de.sg_o.lib.tagy.db.DB;
 import de.sg_o.lib.tagy.db.QueryBoxSpec;
 import de.sg_o.lib.tagy.util.PagedList;
@@ -28,6 +29,9 @@ import de.sg_o.proto.tagy.FileInfoProto;
 import io.objectbox.Box;
 import io.objectbox.BoxStore;
 import io.objectbox.annotation.*;
+import io.objectbox.query.Query;
+import io.objectbox.query.QueryBuilder;
+import io.objectbox.query.QueryCondition;
 import io.objectbox.relation.ToOne;
 import org.apache.tika.Tika;
 import org.jetbrains.annotations.NotNull;
@@ -35,14 +39,25 @@ import org.jetbrains.annotations.NotNull;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
-import java.util.Date;
-import java.util.Objects;
+import java.util.*;
+import java.util.stream.Stream;
 
 @JsonIgnoreProperties({"checkedOut"})
 @Entity
 public class FileInfo {
+    public static final int BULK_QUERY_SIZE = 1000;
+    public static final String UNKNOWN_MIME_TYPE = "application/octet-stream";
+
+    private static final int QUEUE_TIME_BITS = 42;
+    private static final long QUEUE_TIME_MASK = (1L << QUEUE_TIME_BITS) - 1;
+    private static final long QUEUE_PROJECT_LIMIT = 1L << (Long.SIZE - QUEUE_TIME_BITS - 2);
+
     private static final Tika tika = new Tika();
+    private static final FileTypeConverter fileTypeConverter = new FileTypeConverter();
     private static final UrlConverter urlConverter = new UrlConverter();
+    private static final QueryBoxSpec<FileInfo> openQuery = qb -> qb
+            .apply(FileInfo_.absolutePath.equal("", io.objectbox.query.QueryBuilder.StringOrder.CASE_SENSITIVE).alias("url")
+            .and(FileInfo_.projectId.equal(0).alias("project")));
 
     @Id
     private Long id;
@@ -52,22 +67,44 @@ public class FileInfo {
     private boolean annotated;
     private Date checkedOutUntil;
     private final ToOne<Project> project = new ToOne<>(this, FileInfo_.project);
+    private long modified;
+    private long size;
+    private final ToOne<ScanSnapshot> scanSnapshot = new ToOne<>(this, FileInfo_.scanSnapshot);
+    /**
+     * The position of the file in the checkout queue of its project, see {@link #queueKey(long, boolean, long)}
+     */
+    @Index
+    private long queueKey;
+    /**
+     * The MIME type detected at ingest, null if the file was not inspected yet
+     */
+    private String mimeType;
+    @Index
+    @Convert(converter = FileTypeConverter.class, dbType = Integer.class)
+    private FileType fileType = FileType.UNKNOWN;
 
     @Transient
     transient BoxStore __boxStore = null;
 
-    public FileInfo(Long id, @NotNull URL absolutePath, boolean annotated, Date checkedOutUntil, long projectId) {
+    public FileInfo(Long id, @NotNull URL absolutePath, boolean annotated, Date checkedOutUntil, long projectId, long modified, long size, long scanSnapshotId, long queueKey, String mimeType, FileType fileType) {
         this.id = id;
         this.absolutePath = absolutePath;
         this.annotated = annotated;
         this.checkedOutUntil = checkedOutUntil;
         this.project.setTargetId(projectId);
+        this.modified = modified;
+        this.size = size;
+        this.scanSnapshot.setTargetId(scanSnapshotId);
+        this.queueKey = queueKey;
+        this.mimeType = mimeType;
+        this.fileType = fileType;
     }
 
     public FileInfo(@NotNull URL fileReference, @NotNull Project project) {
         this.absolutePath = fileReference;
         this.project.setTarget(project);
         annotated = false;
+        updateQueueKey();
     }
 
     public FileInfo(@NotNull FileInfoProto.FileInfo proto, @NotNull Project project) {
@@ -80,14 +117,42 @@ public class FileInfo {
             throw new IllegalArgumentException("Invalid encoded TagDefinition");
         }
         this.project.setTarget(project);
+        updateQueueKey();
     }
 
-    public static @NotNull FileInfo openOrCreate(@NotNull URL url, @NotNull Project project) {
-        UrlConverter urlConverter = new UrlConverter();
+    public static FileInfo open(@NotNull URL url, @NotNull Project project) {
+        CompiledQuery<FileInfo> compiled = DB.compile(FileInfo.class, openQuery);
+        if (compiled == null) return null;
         String urlString = urlConverter.convertToDatabaseValue(url);
-        QueryBoxSpec<FileInfo> qbs = qb -> qb
-                .apply(FileInfo_.absolutePath.equal(urlString, io.objectbox.query.QueryBuilder.StringOrder.CASE_SENSITIVE));
-        FileInfo found = queryFirst(project, qbs);
+        return compiled.findFirst(q -> q
+                .setParameter("url", urlString)
+                .setParameter("project", project.getId()));
+    }
+
+    /**
+     * Resolves all existing entries of a batch of files. At most {@value #BULK_QUERY_SIZE} files are looked up per query.
+     *
+     * @param urls    The files in their database representation, see {@link #getUrlAsString()}
+     * @param project The project the files belong to
+     * @return The existing entries by their URL, files without an entry are missing
+     */
+    public static @NotNull Map<String, FileInfo> openAll(@NotNull Collection<String> urls, @NotNull Project project) {
+        Map<String, FileInfo> found = new HashMap<>();
+        List<String> remaining = new ArrayList<>(urls);
+        for (int start = 0; start < remaining.size(); start += BULK_QUERY_SIZE) {
+            String[] chunk = remaining.subList(start, Math.min(remaining.size(), start + BULK_QUERY_SIZE)).toArray(new String[0]);
+            QueryBoxSpec<FileInfo> qbs = qb -> qb
+                    .apply(FileInfo_.absolutePath.oneOf(chunk, io.objectbox.query.QueryBuilder.StringOrder.CASE_SENSITIVE)
+                    .and(FileInfo_.projectId.equal(project.getId())));
+            for (FileInfo fileInfo : DB.query(FileInfo.class, qbs, 0, 0)) {
+                found.putIfAbsent(fileInfo.getUrlAsString(), fileInfo);
+            }
+        }
+        return found;
+    }
+
+    public static @NotNull FileInfo openOrCreate(@NotNull URL url, @NotNull Project project) {
+        FileInfo found = open(url, project);
         if (found == null) {
             found = new FileInfo(url, project);
             found.save();
@@ -111,6 +176,38 @@ public class FileInfo {
         return query(project, qbs, pageLength);
     }
 
+    /**
+     * Queries the files of a project by the file type detected at ingest.
+     *
+     * @param project          The project
+     * @param fileType         The file type
+     * @param nonAnnotatedOnly If true, annotated files are left out
+     * @param pageLength       The length of the pages of the result
+     * @return The files of the type
+     */
+    public static PagedList<FileInfo> query(@NotNull Project project, @NotNull FileType fileType, boolean nonAnnotatedOnly, int pageLength) {
+        int fileTypeId = fileTypeConverter.convertToDatabaseValue(fileType);
+        QueryBoxSpec<FileInfo> qbs = qb -> {
+            qb = qb.apply(FileInfo_.fileType.equal(fileTypeId).and(FileInfo_.mimeType.notNull()));
+            if (nonAnnotatedOnly) {
+                qb = qb.apply(FileInfo_.annotated.equal(false));
+            }
+            return qb;
+        };
+        return query(project, qbs, pageLength);
+    }
+
+    /**
+     * Streams all files of a project in chunks, see {@link DB#stream(Class, QueryBoxSpec)}.
+     *
+     * @param project The project
+     * @return The files, the stream should be closed after use
+     */
+    public static Stream<FileInfo> stream(@NotNull Project project) {
+        QueryBoxSpec<FileInfo> qbs = qb -> qb.apply(FileInfo_.projectId.equal(project.getId()));
+        return DB.stream(FileInfo.class, qbs);
+    }
+
     public static FileInfo queryFirst(@NotNull Project project, @NotNull QueryBoxSpec<FileInfo> queryBoxSpec) {
         QueryBoxSpec<FileInfo> qbs = qb -> queryBoxSpec.buildQuery(qb)
                 .apply(FileInfo_.projectId.equal(project.getId()));
@@ -122,6 +219,271 @@ public class FileInfo {
         return queryFirst(project, qbs);
     }
 
+    public static @NotNull List<FileInfo> queryAll(@NotNull ScanSnapshot scanSnapshot) {
+        if (scanSnapshot.getId() == null) return new ArrayList<>();
+        QueryBoxSpec<FileInfo> qbs = qb -> qb.apply(FileInfo_.scanSnapshotId.equal(scanSnapshot.getId()));
+        return new ArrayList<>(DB.query(FileInfo.class, qbs, 0, 0));
+    }
+
+    /**
+     * Checks out files of a project in a single transaction, so concurrent callers never get the same file.
+     * Files that were never checked out come first, then the files whose lease ended first. Files that are not
+     * annotated come before annotated files. The files are read from the checkout queue, so the cost depends
+     * on the number of files checked out, not on the size of the project.
+     *
+     * @param project          The project
+     * @param nonAnnotatedOnly If true, annotated files are not checked out
+     * @param count            The maximum number of files to check out
+     * @param checkoutFor      The length of the lease in milliseconds
+     * @return The checked out files
+     */
+    public static @NotNull List<FileInfo> checkOut(@NotNull Project project, boolean nonAnnotatedOnly, int count, long checkoutFor) {
+        List<FileInfo> claimed = new ArrayList<>();
+        BoxStore db = DB.getDb();
+        if (db == null || project.getId() == null || count < 1) return claimed;
+        Box<FileInfo> box = db.boxFor(FileInfo.class);
+        db.runInTx(() -> {
+            long now = System.currentTimeMillis();
+            claimed.addAll(available(box, project.getId(), false, now, count));
+            if (!nonAnnotatedOnly && claimed.size() < count) {
+                claimed.addAll(available(box, project.getId(), true, now, count - claimed.size()));
+            }
+            Date until = new Date(now + checkoutFor);
+            for (FileInfo fileInfo : claimed) {
+                fileInfo.checkedOutUntil = until;
+                fileInfo.updateQueueKey();
+            }
+            box.put(claimed);
+        });
+        DB.dataChanged(FileInfo.class);
+        return claimed;
+    }
+
+    /**
+     * Extends the leases of checked out files. A lease is only extended if the file was not checked out again
+     * after its lease ended, so a file is never held by two callers.
+     *
+     * @param files       The files as they were checked out, they are updated to the new lease
+     * @param checkoutFor The length of the new lease in milliseconds, starting now
+     * @return The files whose lease was extended
+     */
+    public static @NotNull List<FileInfo> renewLeases(@NotNull Collection<FileInfo> files, long checkoutFor) {
+        List<FileInfo> renewed = new ArrayList<>();
+        BoxStore db = DB.getDb();
+        if (db == null || files.isEmpty()) return renewed;
+        Box<FileInfo> box = db.boxFor(FileInfo.class);
+        db.runInTx(() -> {
+            Date until = new Date(System.currentTimeMillis() + checkoutFor);
+            List<FileInfo> stored = new ArrayList<>();
+            for (FileInfo fileInfo : files) {
+                if (fileInfo.id == null || fileInfo.checkedOutUntil == null) continue;
+                FileInfo current = box.get(fileInfo.id);
+                if (current == null || !fileInfo.checkedOutUntil.equals(current.checkedOutUntil)) continue;
+                current.checkedOutUntil = until;
+                current.updateQueueKey();
+                stored.add(current);
+                fileInfo.checkedOutUntil = until;
+                fileInfo.updateQueueKey();
+                renewed.add(fileInfo);
+            }
+            box.put(stored);
+        });
+        DB.dataChanged(FileInfo.class);
+        return renewed;
+    }
+
+    /**
+     * Ends the leases of checked out files. Like {@link #renewLeases(Collection, long)} a lease is only ended if
+     * the file was not checked out again in the meantime.
+     *
+     * @param files The files as they were checked out, they are updated to be no longer checked out
+     * @return The files whose lease was ended
+     */
+    public static @NotNull List<FileInfo> releaseLeases(@NotNull Collection<FileInfo> files) {
+        List<FileInfo> released = new ArrayList<>();
+        BoxStore db = DB.getDb();
+        if (db == null || files.isEmpty()) return released;
+        Box<FileInfo> box = db.boxFor(FileInfo.class);
+        db.runInTx(() -> {
+            List<FileInfo> stored = new ArrayList<>();
+            for (FileInfo fileInfo : files) {
+                if (fileInfo.id == null || fileInfo.checkedOutUntil == null) continue;
+                FileInfo current = box.get(fileInfo.id);
+                if (current == null || !fileInfo.checkedOutUntil.equals(current.checkedOutUntil)) continue;
+                current.checkedOutUntil = null;
+                current.updateQueueKey();
+                stored.add(current);
+                fileInfo.checkedOutUntil = null;
+                fileInfo.updateQueueKey();
+                released.add(fileInfo);
+            }
+            box.put(stored);
+        });
+        DB.dataChanged(FileInfo.class);
+        return released;
+    }
+
+    /**
+     * Removes the ended leases of a project. Files with an ended lease can be checked out without this as well,
+     * it only clears the stored end of their lease.
+     *
+     * @param project The project
+     * @return The number of files whose lease was removed
+     */
+    public static int releaseExpiredLeases(@NotNull Project project) {
+        BoxStore db = DB.getDb();
+        if (db == null || project.getId() == null) return 0;
+        Box<FileInfo> box = db.boxFor(FileInfo.class);
+        int released = db.callInTxNoException(() -> {
+            long now = System.currentTimeMillis();
+            List<FileInfo> expired = new ArrayList<>();
+            for (boolean annotated : new boolean[]{false, true}) {
+                long first = queueKey(project.getId(), annotated, 1);
+                QueryCondition<FileInfo> condition = first == 0
+                        ? FileInfo_.projectId.equal(project.getId()).and(FileInfo_.annotated.equal(annotated))
+                        .and(FileInfo_.checkedOutUntil.less(new Date(now)))
+                        : FileInfo_.queueKey.between(first, queueKey(project.getId(), annotated, now - 1));
+                try (Query<FileInfo> query = box.query(condition).build()) {
+                    expired.addAll(query.find());
+                }
+            }
+            for (FileInfo fileInfo : expired) {
+                fileInfo.checkedOutUntil = null;
+                fileInfo.updateQueueKey();
+            }
+            box.put(expired);
+            return expired.size();
+        });
+        DB.dataChanged(FileInfo.class);
+        return released;
+    }
+
+    /**
+     * Adds the files of a project that were stored before the checkout queue existed to the queue.
+     *
+     * @param project The project
+     * @return The number of added files
+     */
+    public static long rebuildQueue(@NotNull Project project) {
+        BoxStore db = DB.getDb();
+        if (db == null || project.getId() == null) return 0;
+        if (queueKey(project.getId(), false, 0) == 0) return 0;
+        Box<FileInfo> box = db.boxFor(FileInfo.class);
+        long added = 0;
+        try (Query<FileInfo> query = box.query(FileInfo_.projectId.equal(project.getId())
+                .and(FileInfo_.queueKey.equal(0))).build()) {
+            List<FileInfo> found;
+            while (!(found = query.find(0, BULK_QUERY_SIZE)).isEmpty()) {
+                for (FileInfo fileInfo : found) {
+                    fileInfo.updateQueueKey();
+                }
+                List<FileInfo> finalFound = found;
+                db.runInTx(() -> box.put(finalFound));
+                added += found.size();
+            }
+        }
+        DB.dataChanged(FileInfo.class);
+        return added;
+    }
+
+    /**
+     * @return The number of files of a project that are not part of the checkout queue yet
+     */
+    public static long countUnqueued(@NotNull Project project) {
+        BoxStore db = DB.getDb();
+        if (db == null || project.getId() == null) return 0;
+        if (queueKey(project.getId(), false, 0) == 0) return 0;
+        try (Query<FileInfo> query = db.boxFor(FileInfo.class).query(FileInfo_.projectId.equal(project.getId())
+                .and(FileInfo_.queueKey.equal(0))).build()) {
+            return query.count();
+        }
+    }
+
+    /**
+     * Reads the files of a project that can be checked out, in the order of the queue.
+     */
+    private static @NotNull List<FileInfo> available(@NotNull Box<FileInfo> box, long projectId, boolean annotated, long now, int count) {
+        long first = queueKey(projectId, annotated, 0);
+        QueryBuilder<FileInfo> builder;
+        if (first == 0) {
+            // Ids beyond the range of the queue are looked up without it, files never checked out come first
+            builder = box.query(FileInfo_.projectId.equal(projectId).and(FileInfo_.annotated.equal(annotated))
+                    .and(FileInfo_.checkedOutUntil.isNull().or(FileInfo_.checkedOutUntil.less(new Date(now)))))
+                    .order(FileInfo_.checkedOutUntil).order(FileInfo_.id);
+        } else {
+            // The range only holds files whose lease ended
+            builder = box.query(FileInfo_.queueKey.between(first, queueKey(projectId, annotated, now)))
+                    .order(FileInfo_.queueKey).order(FileInfo_.id);
+        }
+        try (Query<FileInfo> query = builder.build()) {
+            return query.find(0, count);
+        }
+    }
+
+    /**
+     * The key orders the files by project, then files that are not annotated before annotated files, then by the
+     * end of their lease. It holds 20 bits of the project id, one bit for annotated files and 42 bits for the end
+     * of the lease in milliseconds, 0 for files that were never checked out.
+     *
+     * @return The key in the checkout queue, 0 if the project id does not fit into the key
+     */
+    static long queueKey(long projectId, boolean annotated, long leaseEnd) {
+        if (projectId < 1 || projectId >= QUEUE_PROJECT_LIMIT) return 0;
+        long time = Math.min(Math.max(leaseEnd, 0), QUEUE_TIME_MASK);
+        return (projectId << (QUEUE_TIME_BITS + 1)) | ((annotated ? 1L : 0L) << QUEUE_TIME_BITS) | time;
+    }
+
+    private void updateQueueKey() {
+        queueKey = queueKey(project.getTargetId(), annotated, checkedOutUntil == null ? 0 : checkedOutUntil.getTime());
+    }
+
+    /**
+     * Detects the types of the files that were not inspected yet. The files are inspected in parallel,
+     * as detecting a type reads the start of the file.
+     *
+     * @param files The files, they are not saved
+     */
+    public static void detectFileTypes(@NotNull Collection<FileInfo> files) {
+        files.parallelStream().filter(fileInfo -> fileInfo.mimeType == null).forEach(FileInfo::detectFileType);
+    }
+
+    /**
+     * Detects and stores the types of the files of a project that were stored before types were detected at ingest.
+     *
+     * @param project The project
+     * @return The number of inspected files
+     */
+    public static long detectFileTypes(@NotNull Project project) {
+        BoxStore db = DB.getDb();
+        if (db == null || project.getId() == null) return 0;
+        Box<FileInfo> box = db.boxFor(FileInfo.class);
+        long detected = 0;
+        try (Query<FileInfo> query = box.query(FileInfo_.projectId.equal(project.getId())
+                .and(FileInfo_.mimeType.isNull())).build()) {
+            List<FileInfo> found;
+            while (!(found = query.find(0, BULK_QUERY_SIZE)).isEmpty()) {
+                detectFileTypes(found);
+                List<FileInfo> finalFound = found;
+                db.runInTx(() -> box.put(finalFound));
+                detected += found.size();
+            }
+        }
+        DB.dataChanged(FileInfo.class);
+        return detected;
+    }
+
+    /**
+     * @return The number of files of a project whose type was not detected yet
+     */
+    public static long countUndetected(@NotNull Project project) {
+        BoxStore db = DB.getDb();
+        if (db == null || project.getId() == null) return 0;
+        try (Query<FileInfo> query = db.boxFor(FileInfo.class).query(FileInfo_.projectId.equal(project.getId())
+                .and(FileInfo_.mimeType.isNull())).build()) {
+            return query.count();
+        }
+    }
+
     public static boolean deleteAll(@NotNull Project project, boolean nonAnnotatedOnly) {
         QueryBoxSpec<FileInfo> qbs = qb -> {
             if (nonAnnotatedOnly) {
@@ -156,6 +518,7 @@ public class FileInfo {
 
     public void setAnnotated(boolean annotated) {
         this.annotated = annotated;
+        updateQueueKey();
     }
 
     @JsonProperty(value = "annotated", index = 1)
@@ -167,12 +530,14 @@ public class FileInfo {
         if (until == null) return false;
         if (isCheckedOut()) return false;
         checkedOutUntil = until;
+        updateQueueKey();
         return true;
     }
 
     public boolean checkIn() {
         if (!isCheckedOut()) return false;
         checkedOutUntil = null;
+        updateQueueKey();
         return true;
     }
 
@@ -191,42 +556,104 @@ public class FileInfo {
         return project;
     }
 
-    public FileType getFileType() {
-        FileType fileType = FileType.UNKNOWN;
-        String fileTypeString = null;
+    /**
+     * @return The modification time of the file when it was last scanned
+     */
+    public long getModified() {
+        return modified;
+    }
+
+    /**
+     * @return The size of the file when it was last scanned
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Updates the scanned state of the file.
+     *
+     * @return true if the state differs from the previously stored one
+     */
+    public boolean updateScanState(long modified, long size) {
+        if (this.modified == modified && this.size == size) return false;
+        this.modified = modified;
+        this.size = size;
+        // The content changed, so its type is detected again
+        this.mimeType = null;
+        return true;
+    }
+
+    public ToOne<ScanSnapshot> getScanSnapshot() {
+        return scanSnapshot;
+    }
+
+    /**
+     * @return The file type detected at ingest. Files that were not inspected yet are inspected now,
+     * without storing the result.
+     */
+    public @NotNull FileType getFileType() {
+        if (mimeType == null) detectFileType();
+        return fileType;
+    }
+
+    /**
+     * @return The MIME type detected at ingest, null if the file was not inspected yet
+     */
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    /**
+     * Detects the MIME type and the file type by reading the start of the file.
+     * Files that can not be read are stored as {@value #UNKNOWN_MIME_TYPE}, so they are not inspected again.
+     */
+    public void detectFileType() {
+        String detected = null;
         try {
-            fileTypeString = tika.detect(absolutePath);
+            detected = tika.detect(absolutePath);
         } catch (IOException ignored) {
         }
+        mimeType = detected == null ? UNKNOWN_MIME_TYPE : detected;
+        fileType = fileTypeOf(mimeType);
+    }
 
-        if (fileTypeString == null) return fileType;
-        String[] split = fileTypeString.split("/");
-        if (split.length < 1) return fileType;
-        fileTypeString = split[0];
+    static @NotNull FileType fileTypeOf(@NotNull String mimeType) {
+        String[] split = mimeType.split("/");
+        if (split.length < 1) return FileType.UNKNOWN;
 
-        switch (fileTypeString) {
+        switch (split[0]) {
             case "image":
-                fileType = FileType.IMAGE;
-                break;
+                return FileType.IMAGE;
             case "audio":
             case "video":
-                fileType = FileType.MEDIA;
-                break;
+                return FileType.MEDIA;
             case "text":
-                fileType = FileType.TEXT;
-                break;
+                return FileType.TEXT;
+            default:
+                return FileType.UNKNOWN;
         }
-        return fileType;
     }
+
     public boolean save() {
         BoxStore db = DB.getDb();
         if (db == null) return false;
         Box<FileInfo> box = db.boxFor(FileInfo.class);
         if (box == null) return false;
+        // The project may have been saved after the file was created
+        if (queueKey == 0) updateQueueKey();
         this.id = box.put(this);
+        DB.dataChanged(FileInfo.class);
         return true;
     }
 
+    /**
+     * @return The position of the file in the checkout queue of its project
+     */
+    public long getQueueKey() {
+        return queueKey;
+    }
+
     public @NotNull FileInfoProto.FileInfo getAsProto() {
         FileInfoProto.FileInfo.Builder builder = FileInfoProto.FileInfo.newBuilder();
         builder.setAbsolutePath(getUrlAsString());
@@ -0,0 +1,39 @@
+/*
+ *
+ *      Copyright (C) 2023 Joerg Bayer (SG-O)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sg_o.lib.tagy.data;
+
+import io.objectbox.converter.PropertyConverter;
+import org.jetbrains.annotations.NotNull;
+
+public class FileTypeConverter implements PropertyConverter<FileType, Integer> {
+    @Override
+    @NotNull
+    public FileType convertToEntityProperty(Integer databaseValue) {
+        if (databaseValue == null) {
+            return FileType.UNKNOWN;
+        }
+        FileType fileType = FileType.getType(databaseValue);
+        if (fileType == null) fileType = FileType.UNKNOWN;
+        return fileType;
+    }
+
+    @Override
+    public Integer convertToDatabaseValue(FileType fileType) {
+        return fileType == null ? FileType.UNKNOWN.getId() : fileType.getId();
+    }
+}
@@ -0,0 +1,605 @@
+/*
+ *
+ *      Copyright (C) 2023 Joerg Bayer (SG-O)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sg_o.lib.tagy.data;
+
+import de.sg_o.lib.tagy.Project;
+import de.sg_o.lib.tagy.db.DB;
+import de.sg_o.lib.tagy.util.IngestCallBack;
+import io.objectbox.Box;
+import io.objectbox.BoxStore;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Incremental ingest of all files of a {@link DataManager}.
+ * <p>
+ * Every directory (or file list) of a data source is stored as a {@link ScanSnapshot}. A directory whose files
+ * match its snapshot is skipped without a single lookup, only new and changed directories are reconciled
+ * against the stored {@link FileInfo} entries. Files that disappeared are purged in bulk once the whole
+ * tree has been walked.
+ * <p>
+ * The stages are the same as for the full {@link Ingest}: parallel walk, lookup and a single batching writer.
+ */
+public class IncrementalIngest {
+    private static final Executor singleThreadExecutor = Executors.newSingleThreadExecutor();
+    private static final Listing END_OF_WALK = new Listing(null, "", 0);
+    private static final Change END_OF_LOOKUP = new Change();
+
+    private final @NotNull DataManager dataManager;
+    private final int walkThreads;
+    private final int lookupThreads;
+    private final int batchSize;
+    private final int queueSize;
+
+    private final AtomicLong discovered = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong added = new AtomicLong();
+    private final AtomicLong updated = new AtomicLong();
+    private final AtomicLong removed = new AtomicLong();
+    private final AtomicBoolean failed = new AtomicBoolean(false);
+    private volatile boolean finished = false;
+
+    private IngestCallBack callBack;
+
+    public IncrementalIngest(@NotNull DataManager dataManager) {
+        this(dataManager,
+                Math.min(4, Runtime.getRuntime().availableProcessors()),
+                Math.max(1, Runtime.getRuntime().availableProcessors() / 2),
+                Ingest.DEFAULT_BATCH_SIZE,
+                Ingest.DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * @param dataManager   The data manager whose data sources should be ingested
+     * @param walkThreads   The number of threads walking the data sources
+     * @param lookupThreads The number of threads reconciling changed directories
+     * @param batchSize     The number of directories stored per transaction
+     * @param queueSize     The capacity of the queues between the stages
+     */
+    public IncrementalIngest(@NotNull DataManager dataManager, int walkThreads, int lookupThreads, int batchSize, int queueSize) {
+        this.dataManager = dataManager;
+        this.walkThreads = Math.max(1, walkThreads);
+        this.lookupThreads = Math.max(1, lookupThreads);
+        this.batchSize = Math.max(1, batchSize);
+        this.queueSize = Math.max(this.batchSize, queueSize);
+    }
+
+    public void setCallBack(IngestCallBack callBack) {
+        this.callBack = callBack;
+    }
+
+    /**
+     * Runs the ingest in the background. Completion is reported through the callback.
+     */
+    public void start() {
+        singleThreadExecutor.execute(this::run);
+    }
+
+    /**
+     * Runs the ingest and blocks until all changes have been written and removed files have been purged.
+     *
+     * @return true if all data sources were ingested
+     */
+    public boolean run() {
+        BoxStore db = DB.getDb();
+        Project project = dataManager.resolveProject();
+        if (db == null || project == null || !dataManager.save()) {
+            finish(false);
+            return false;
+        }
+
+        List<DataSource> dataSources = new ArrayList<>(dataManager.getDataSources());
+        Map<DataSource, Map<String, ScanSnapshot>> snapshots = new IdentityHashMap<>();
+        for (DataSource dataSource : dataSources) {
+            Map<String, ScanSnapshot> byPath = new ConcurrentHashMap<>();
+            for (ScanSnapshot snapshot : ScanSnapshot.queryAll(dataSource)) {
+                byPath.put(snapshot.getPath(), snapshot);
+            }
+            snapshots.put(dataSource, byPath);
+        }
+
+        BlockingQueue<Listing> listingQueue = new ArrayBlockingQueue<>(Math.max(lookupThreads * 2, queueSize / batchSize));
+        BlockingQueue<Change> writeQueue = new ArrayBlockingQueue<>(Math.max(2, queueSize / batchSize));
+        Set<String> seen = ConcurrentHashMap.newKeySet();
+        Set<String> claimed = ConcurrentHashMap.newKeySet();
+        Queue<FileInfo> removalCandidates = new ConcurrentLinkedQueue<>();
+
+        ExecutorService walkers = Executors.newFixedThreadPool(walkThreads);
+        ExecutorService workers = Executors.newFixedThreadPool(lookupThreads + 1);
+        try {
+            List<Future<?>> lookups = new ArrayList<>(lookupThreads);
+            for (int i = 0; i < lookupThreads; i++) {
+                lookups.add(workers.submit(() -> {
+                    Reconciler reconciler = new Reconciler(project, snapshots, claimed, removalCandidates);
+                    lookup(reconciler, listingQueue, writeQueue);
+                }));
+            }
+            Future<?> writer = workers.submit(() -> write(db, writeQueue));
+
+            List<Callable<Void>> walks = new ArrayList<>();
+            for (DataSource dataSource : dataSources) {
+                walks.addAll(createWalks(dataSource, listing -> {
+                    for (Listing.Entry entry : listing.entries) {
+                        if (seen.add(entry.key)) discovered.incrementAndGet();
+                    }
+                    Ingest.put(listingQueue, listing);
+                }));
+            }
+            for (Future<Void> walk : walkers.invokeAll(walks)) {
+                await(walk);
+            }
+            for (int i = 0; i < lookupThreads; i++) {
+                Ingest.put(listingQueue, END_OF_WALK);
+            }
+            for (Future<?> lookup : lookups) {
+                await(lookup);
+            }
+            Ingest.put(writeQueue, END_OF_LOOKUP);
+            await(writer);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed.set(true);
+        } finally {
+            walkers.shutdownNow();
+            workers.shutdownNow();
+        }
+
+        // Never purge after an incomplete walk, the missing files might just not have been looked at
+        if (!failed.get()) {
+            try {
+                purge(db, snapshots, seen, removalCandidates);
+            } catch (RuntimeException e) {
+                failed.set(true);
+            } finally {
+                db.closeThreadResources();
+            }
+        }
+        boolean success = !failed.get();
+        finish(success);
+        return success;
+    }
+
+    public long getDiscovered() {
+        return discovered.get();
+    }
+
+    public long getProcessed() {
+        return processed.get();
+    }
+
+    /**
+     * @return The number of files that were not known before this ingest
+     */
+    public long getAdded() {
+        return added.get();
+    }
+
+    /**
+     * @return The number of known files whose modification time or size changed
+     */
+    public long getUpdated() {
+        return updated.get();
+    }
+
+    /**
+     * @return The number of files that were purged because they no longer exist
+     */
+    public long getRemoved() {
+        return removed.get();
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    private @NotNull List<Callable<Void>> createWalks(@NotNull DataSource dataSource, @NotNull Consumer<Listing> consumer) {
+        List<Callable<Void>> walks = new ArrayList<>();
+        File locator = dataSource.resolveSource();
+        if (!locator.isDirectory()) {
+            // A missing source may just be unmounted, treating it as an empty file list would purge all of its files
+            if (!locator.isFile() || !locator.canRead()) {
+                failed.set(true);
+                return walks;
+            }
+            walks.add(() -> {
+                Listing listing = new Listing(dataSource, locator.getAbsolutePath(), locator.lastModified());
+                if (!dataSource.forEachFile(url -> listing.add(url, stat(url)))) failed.set(true);
+                consumer.accept(listing);
+                return null;
+            });
+            return walks;
+        }
+        Pattern pattern = dataSource.getFileNamePattern();
+        Path root = locator.toPath().toAbsolutePath();
+        walks.add(() -> {
+            walk(dataSource, root, 1, pattern, consumer);
+            return null;
+        });
+        if (!dataSource.isRecursive()) return walks;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(root)) {
+            for (Path entry : entries) {
+                if (!Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) continue;
+                walks.add(() -> {
+                    walk(dataSource, entry, DataSource.MAX_DEPTH - 1, pattern, consumer);
+                    return null;
+                });
+            }
+        } catch (IOException e) {
+            // The subdirectories were not walked, so their files must not be purged
+            failed.set(true);
+        }
+        return walks;
+    }
+
+    private void walk(@NotNull DataSource dataSource, @NotNull Path start, int maxDepth, @NotNull Pattern pattern, @NotNull Consumer<Listing> consumer) {
+        Deque<Listing> open = new ArrayDeque<>();
+        try {
+            Files.walkFileTree(start, EnumSet.noneOf(FileVisitOption.class), maxDepth, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    open.push(new Listing(dataSource, dir.toString(), attrs.lastModifiedTime().toMillis()));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    Listing listing = open.peek();
+                    if (listing == null || !attrs.isRegularFile()) return FileVisitResult.CONTINUE;
+                    if (!pattern.matcher(file.getFileName().toString()).matches()) return FileVisitResult.CONTINUE;
+                    try {
+                        listing.add(file.toUri().toURL(), attrs);
+                    } catch (MalformedURLException ignored) {
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    Listing listing = open.peek();
+                    if (listing != null) {
+                        listing.complete = false;
+                    } else {
+                        // The start directory itself could not be read, none of the directories below were visited
+                        failed.set(true);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+                    Listing listing = open.pop();
+                    if (exc != null) listing.complete = false;
+                    consumer.accept(listing);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            failed.set(true);
+        }
+    }
+
+    private static BasicFileAttributes stat(@NotNull URL url) {
+        try {
+            return Files.readAttributes(Paths.get(url.toURI()), BasicFileAttributes.class);
+        } catch (IOException | URISyntaxException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private void lookup(@NotNull Reconciler reconciler, @NotNull BlockingQueue<Listing> listingQueue, @NotNull BlockingQueue<Change> writeQueue) {
+        try {
+            while (true) {
+                Listing listing = listingQueue.take();
+                if (listing == END_OF_WALK) break;
+                // Keep consuming after a failure so the walkers never block on a full queue
+                if (failed.get()) continue;
+                try {
+                    Ingest.put(writeQueue, reconciler.reconcile(listing));
+                } catch (RuntimeException e) {
+                    failed.set(true);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed.set(true);
+        } finally {
+            BoxStore db = DB.getDb();
+            if (db != null) db.closeThreadResources();
+        }
+    }
+
+    private void write(@NotNull BoxStore db, @NotNull BlockingQueue<Change> writeQueue) {
+        Box<ScanSnapshot> snapshotBox = db.boxFor(ScanSnapshot.class);
+        Box<FileInfo> fileBox = db.boxFor(FileInfo.class);
+        List<Change> changes = new ArrayList<>(batchSize);
+        try {
+            boolean done = false;
+            while (!done) {
+                changes.clear();
+                changes.add(writeQueue.take());
+                writeQueue.drainTo(changes, batchSize - 1);
+                done = changes.remove(END_OF_LOOKUP);
+                // Keep consuming after a failure so the lookup threads never block on a full queue
+                if (failed.get()) continue;
+                List<ScanSnapshot> snapshots = new ArrayList<>();
+                List<FileInfo> files = new ArrayList<>();
+                for (Change change : changes) {
+                    if (change.snapshot != null) snapshots.add(change.snapshot);
+                    files.addAll(change.files);
+                }
+                try {
+                    if (!snapshots.isEmpty()) {
+                        db.runInTx(() -> {
+                            snapshotBox.put(snapshots);
+                            fileBox.put(files);
+                        });
+                        DB.dataChanged(FileInfo.class);
+                    }
+                    long count = 0;
+                    for (Change change : changes) {
+                        count += change.processed;
+                        added.addAndGet(change.added);
+                        updated.addAndGet(change.updated);
+                    }
+                    if (count > 0) progressChanged(processed.addAndGet(count));
+                } catch (RuntimeException e) {
+                    failed.set(true);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed.set(true);
+        } finally {
+            db.closeThreadResources();
+        }
+    }
+
+    private void purge(@NotNull BoxStore db, @NotNull Map<DataSource, Map<String, ScanSnapshot>> snapshots,
+                       @NotNull Set<String> seen, @NotNull Queue<FileInfo> removalCandidates) {
+        // Snapshots that were not visited belong to directories that no longer exist
+        List<ScanSnapshot> vanished = new ArrayList<>();
+        for (Map<String, ScanSnapshot> byPath : snapshots.values()) {
+            for (ScanSnapshot snapshot : byPath.values()) {
+                vanished.add(snapshot);
+                removalCandidates.addAll(FileInfo.queryAll(snapshot));
+            }
+        }
+        // A file may have moved to a directory of another data source, only purge files that were not seen at all
+        Set<Long> ids = new LinkedHashSet<>();
+        for (FileInfo fileInfo : removalCandidates) {
+            if (fileInfo.getId() == null || seen.contains(fileInfo.getUrlAsString())) continue;
+            ids.add(fileInfo.getId());
+        }
+        Box<FileInfo> fileBox = db.boxFor(FileInfo.class);
+        List<Long> batch = new ArrayList<>(batchSize);
+        for (Long id : ids) {
+            batch.add(id);
+            if (batch.size() < batchSize) continue;
+            db.runInTx(() -> fileBox.removeByIds(batch));
+            removed.addAndGet(batch.size());
+            batch.clear();
+        }
+        if (!batch.isEmpty()) {
+            db.runInTx(() -> fileBox.removeByIds(batch));
+            removed.addAndGet(batch.size());
+        }
+        if (!ids.isEmpty()) DB.dataChanged(FileInfo.class);
+        if (!vanished.isEmpty()) {
+            db.boxFor(ScanSnapshot.class).remove(vanished);
+        }
+    }
+
+    private void await(@NotNull Future<?> future) throws InterruptedException {
+        try {
+            future.get();
+        } catch (ExecutionException | CancellationException e) {
+            failed.set(true);
+        }
+    }
+
+    private void progressChanged(long processed) {
+        if (callBack == null) return;
+        callBack.onProgressChanged(processed, discovered.get());
+    }
+
+    private void finish(boolean success) {
+        finished = true;
+        if (callBack == null) return;
+        callBack.onIngestFinished(success);
+    }
+
+    /**
+     * Compares one listing against its snapshot and resolves the entries of changed directories.
+     */
+    private static class Reconciler {
+        private final @NotNull Project project;
+        private final @NotNull Map<DataSource, Map<String, ScanSnapshot>> snapshots;
+        private final @NotNull Set<String> claimed;
+        private final @NotNull Queue<FileInfo> removalCandidates;
+
+        Reconciler(@NotNull Project project, @NotNull Map<DataSource, Map<String, ScanSnapshot>> snapshots,
+                   @NotNull Set<String> claimed, @NotNull Queue<FileInfo> removalCandidates) {
+            this.project = project;
+            this.snapshots = snapshots;
+            this.claimed = claimed;
+            this.removalCandidates = removalCandidates;
+        }
+
+        @NotNull Change reconcile(@NotNull Listing listing) {
+            // Removing the snapshot marks the directory as visited
+            ScanSnapshot snapshot = snapshots.get(listing.dataSource).remove(listing.path);
+            Change change = new Change();
+            if (!listing.complete) return change;
+
+            listing.entries.sort(Comparator.comparing(entry -> entry.key));
+            long digest = listing.digest();
+            long size = listing.size();
+            int fileCount = listing.entries.size();
+            if (snapshot != null && snapshot.matches(fileCount, size, digest)) {
+                for (Listing.Entry entry : listing.entries) {
+                    if (claimed.add(entry.key)) change.processed++;
+                }
+                return change;
+            }
+
+            Map<String, FileInfo> children = new HashMap<>();
+            if (snapshot == null) {
+                snapshot = new ScanSnapshot(listing.path, listing.dataSource, project);
+            } else {
+                for (FileInfo child : FileInfo.queryAll(snapshot)) {
+                    children.put(child.getUrlAsString(), child);
+                }
+            }
+            snapshot.update(listing.modified, fileCount, size, digest);
+            change.snapshot = snapshot;
+
+            List<Listing.Entry> unknown = new ArrayList<>();
+            for (Listing.Entry entry : listing.entries) {
+                FileInfo fileInfo = children.remove(entry.key);
+                // Another data source covering the same file already took care of it
+                if (!claimed.add(entry.key)) continue;
+                change.processed++;
+                if (fileInfo == null) {
+                    unknown.add(entry);
+                } else if (fileInfo.updateScanState(entry.modified, entry.size)) {
+                    change.files.add(fileInfo);
+                    change.updated++;
+                }
+            }
+            if (!unknown.isEmpty()) {
+                List<String> keys = new ArrayList<>(unknown.size());
+                for (Listing.Entry entry : unknown) {
+                    keys.add(entry.key);
+                }
+                Map<String, FileInfo> existing = FileInfo.openAll(keys, project);
+                keys.removeAll(existing.keySet());
+                Map<String, MetaData> metaData = MetaData.queryByFileReferences(keys, project);
+                for (Listing.Entry entry : unknown) {
+                    FileInfo fileInfo = existing.get(entry.key);
+                    if (fileInfo == null) {
+                        fileInfo = new FileInfo(entry.url, project);
+                        fileInfo.setAnnotated(metaData.containsKey(entry.key));
+                        change.added++;
+                    } else if (fileInfo.getModified() != entry.modified || fileInfo.getSize() != entry.size) {
+                        change.updated++;
+                    }
+                    fileInfo.updateScanState(entry.modified, entry.size);
+                    fileInfo.getScanSnapshot().setTarget(snapshot);
+                    change.files.add(fileInfo);
+                }
+            }
+            // New and changed files are inspected again, unchanged directories never reach this point
+            FileInfo.detectFileTypes(change.files);
+            removalCandidates.addAll(children.values());
+            return change;
+        }
+    }
+
+    /**
+     * The matching files of a single directory, or of a file list.
+     */
+    private static class Listing {
+        private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+        private static final long FNV_PRIME = 0x100000001b3L;
+
+        private final DataSource dataSource;
+        private final @NotNull String path;
+        private final long modified;
+        private final @NotNull List<Entry> entries = new ArrayList<>();
+        private boolean complete = true;
+
+        Listing(DataSource dataSource, @NotNull String path, long modified) {
+            this.dataSource = dataSource;
+            this.path = path;
+            this.modified = modified;
+        }
+
+        void add(@NotNull URL url, BasicFileAttributes attrs) {
+            if (attrs == null) {
+                entries.add(new Entry(url, -1, -1));
+            } else {
+                entries.add(new Entry(url, attrs.lastModifiedTime().toMillis(), attrs.size()));
+            }
+        }
+
+        long size() {
+            long size = 0;
+            for (Entry entry : entries) {
+                size += Math.max(0, entry.size);
+            }
+            return size;
+        }
+
+        long digest() {
+            long hash = FNV_OFFSET;
+            for (Entry entry : entries) {
+                for (int i = 0; i < entry.key.length(); i++) {
+                    hash = (hash ^ entry.key.charAt(i)) * FNV_PRIME;
+                }
+                hash = mix(hash, entry.modified);
+                hash = mix(hash, entry.size);
+            }
+            return hash;
+        }
+
+        private static long mix(long hash, long value) {
+            for (int i = 0; i < Long.BYTES; i++) {
+                hash = (hash ^ ((value >>> (i * 8)) & 0xff)) * FNV_PRIME;
+            }
+            return hash;
+        }
+
+        private static class Entry {
+            private final @NotNull URL url;
+            private final @NotNull String key;
+            private final long modified;
+            private final long size;
+
+            Entry(@NotNull URL url, long modified, long size) {
+                this.url = url;
+                this.key = url.toString();
+                this.modified = modified;
+                this.size = size;
+            }
+        }
+    }
+
+    /**
+     * Everything the writer has to store for one listing.
+     */
+    private static class Change {
+        private ScanSnapshot snapshot;
+        private final @NotNull List<FileInfo> files = new ArrayList<>();
+        private long processed;
+        private long added;
+        private long updated;
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ *
+ *      Copyright (C) 2023 Joerg Bayer (SG-O)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sg_o.lib.tagy.data;
+
+import de.sg_o.lib.tagy.Project;
+import de.sg_o.lib.tagy.db.DB;
+import de.sg_o.lib.tagy.util.IngestCallBack;
+import io.objectbox.Box;
+import io.objectbox.BoxStore;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Pipelined ingest of all files of a {@link DataManager}.
+ * <p>
+ * The ingest runs in three stages that are connected by bounded queues:
+ * <ol>
+ *     <li>walk: the data sources are walked in parallel, recursive directories are split by their top level entries</li>
+ *     <li>lookup: existing {@link FileInfo} and {@link MetaData} entries are resolved in bulk for every batch of discovered files
+ *     and the types of files that were not inspected yet are detected</li>
+ *     <li>write: the resolved entries are stored in batches, each batch in its own transaction</li>
+ * </ol>
+ * No write transaction is held while the file system is walked.
+ */
+public class Ingest {
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    public static final int DEFAULT_QUEUE_SIZE = 10000;
+
+    private static final Executor singleThreadExecutor = Executors.newSingleThreadExecutor();
+    private static final URL END_OF_WALK;
+
+    static {
+        try {
+            END_OF_WALK = new URL("file:/");
+        } catch (MalformedURLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private final @NotNull DataManager dataManager;
+    private final int walkThreads;
+    private final int lookupThreads;
+    private final int batchSize;
+    private final int queueSize;
+
+    private final AtomicLong discovered = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicBoolean failed = new AtomicBoolean(false);
+    private volatile boolean finished = false;
+
+    private IngestCallBack callBack;
+
+    public Ingest(@NotNull DataManager dataManager) {
+        this(dataManager,
+                Math.min(4, Runtime.getRuntime().availableProcessors()),
+                Math.max(1, Runtime.getRuntime().availableProcessors() / 2),
+                DEFAULT_BATCH_SIZE,
+                DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * @param dataManager   The data manager whose data sources should be ingested
+     * @param walkThreads   The number of threads walking the data sources
+     * @param lookupThreads The number of threads resolving existing entries
+     * @param batchSize     The number of files stored per transaction
+     * @param queueSize     The capacity of the queues between the stages
+     */
+    public Ingest(@NotNull DataManager dataManager, int walkThreads, int lookupThreads, int batchSize, int queueSize) {
+        this.dataManager = dataManager;
+        this.walkThreads = Math.max(1, walkThreads);
+        this.lookupThreads = Math.max(1, lookupThreads);
+        this.batchSize = Math.max(1, batchSize);
+        this.queueSize = Math.max(this.batchSize, queueSize);
+    }
+
+    public void setCallBack(IngestCallBack callBack) {
+        this.callBack = callBack;
+    }
+
+    /**
+     * Runs the ingest in the background. Completion is reported through the callback.
+     */
+    public void start() {
+        singleThreadExecutor.execute(this::run);
+    }
+
+    /**
+     * Runs the ingest and blocks until all files have been written.
+     *
+     * @return true if all files were ingested
+     */
+    public boolean run() {
+        BoxStore db = DB.getDb();
+        Project project = dataManager.resolveProject();
+        if (db == null || project == null) {
+            finish(false);
+            return false;
+        }
+
+        BlockingQueue<URL> urlQueue = new ArrayBlockingQueue<>(queueSize);
+        BlockingQueue<List<FileInfo>> writeQueue = new ArrayBlockingQueue<>(Math.max(2, queueSize / batchSize));
+        Set<String> seen = ConcurrentHashMap.newKeySet();
+
+        ExecutorService walkers = Executors.newFixedThreadPool(walkThreads);
+        ExecutorService workers = Executors.newFixedThreadPool(lookupThreads + 1);
+        try {
+            List<Future<?>> lookups = new ArrayList<>(lookupThreads);
+            for (int i = 0; i < lookupThreads; i++) {
+                lookups.add(workers.submit(() -> lookup(project, urlQueue, writeQueue)));
+            }
+            Future<?> writer = workers.submit(() -> write(db, writeQueue));
+
+            List<Callable<Void>> walks = new ArrayList<>();
+            for (DataSource dataSource : dataManager.getDataSources()) {
+                walks.addAll(createWalks(dataSource, url -> {
+                    if (!seen.add(url.toString())) return;
+                    discovered.incrementAndGet();
+                    put(urlQueue, url);
+                }));
+            }
+            for (Future<Void> walk : walkers.invokeAll(walks)) {
+                await(walk);
+            }
+            for (int i = 0; i < lookupThreads; i++) {
+                put(urlQueue, END_OF_WALK);
+            }
+            for (Future<?> lookup : lookups) {
+                await(lookup);
+            }
+            put(writeQueue, new ArrayList<>());
+            await(writer);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed.set(true);
+        } finally {
+            walkers.shutdownNow();
+            workers.shutdownNow();
+        }
+        boolean success = !failed.get();
+        finish(success);
+        return success;
+    }
+
+    public long getDiscovered() {
+        return discovered.get();
+    }
+
+    public long getProcessed() {
+        return processed.get();
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    private @NotNull List<Callable<Void>> createWalks(@NotNull DataSource dataSource, @NotNull Consumer<URL> consumer) {
+        List<Callable<Void>> walks = new ArrayList<>();
+        File locator = dataSource.resolveSource();
+        if (!locator.isDirectory() || !dataSource.isRecursive()) {
+            walks.add(() -> {
+                dataSource.forEachFile(consumer);
+                return null;
+            });
+            return walks;
+        }
+        Pattern pattern = dataSource.getFileNamePattern();
+        Path root = locator.toPath();
+        walks.add(() -> {
+            DataSource.walkDirectory(root, 1, pattern, consumer);
+            return null;
+        });
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(root)) {
+            for (Path entry : entries) {
+                if (!Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) continue;
+                walks.add(() -> {
+                    DataSource.walkDirectory(entry, DataSource.MAX_DEPTH - 1, pattern, consumer);
+                    return null;
+                });
+            }
+        } catch (IOException ignored) {
+        }
+        return walks;
+    }
+
+    private void lookup(@NotNull Project project, @NotNull BlockingQueue<URL> urlQueue, @NotNull BlockingQueue<List<FileInfo>> writeQueue) {
+        List<URL> urls = new ArrayList<>(batchSize);
+        boolean done = false;
+        try {
+            while (!done) {
+                urls.clear();
+                urls.add(urlQueue.take());
+                urlQueue.drainTo(urls, batchSize - 1);
+                int endMarkers = countEndMarkers(urls);
+                if (endMarkers > 0) {
+                    done = true;
+                    // Hand back the end markers meant for the other lookup threads
+                    for (int i = 1; i < endMarkers; i++) {
+                        put(urlQueue, END_OF_WALK);
+                    }
+                }
+                // Keep consuming after a failure so the walkers never block on a full queue
+                if (failed.get()) continue;
+                try {
+                    List<FileInfo> batch = resolve(project, urls);
+                    if (!batch.isEmpty()) put(writeQueue, batch);
+                } catch (RuntimeException e) {
+                    failed.set(true);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed.set(true);
+        }
+    }
+
+    private @NotNull List<FileInfo> resolve(@NotNull Project project, @NotNull List<URL> urls) {
+        List<String> keys = new ArrayList<>(urls.size());
+        for (URL url : urls) {
+            if (url == END_OF_WALK) continue;
+            keys.add(url.toString());
+        }
+        Map<String, FileInfo> existing = FileInfo.openAll(keys, project);
+        Map<String, MetaData> metaData = MetaData.queryByFileReferences(keys, project);
+        List<FileInfo> batch = new ArrayList<>(keys.size());
+        for (URL url : urls) {
+            if (url == END_OF_WALK) continue;
+            FileInfo fileInfo = existing.get(url.toString());
+            if (fileInfo == null) fileInfo = new FileInfo(url, project);
+            fileInfo.setAnnotated(metaData.containsKey(fileInfo.getUrlAsString()));
+            batch.add(fileInfo);
+        }
+        FileInfo.detectFileTypes(batch);
+        return batch;
+    }
+
+    private void write(@NotNull BoxStore db, @NotNull BlockingQueue<List<FileInfo>> writeQueue) {
+        Box<FileInfo> box = db.boxFor(FileInfo.class);
+        try {
+            while (true) {
+                List<FileInfo> batch = writeQueue.take();
+                if (batch.isEmpty()) break;
+                // Keep consuming after a failure so the lookup threads never block on a full queue
+                if (failed.get()) continue;
+                try {
+                    db.runInTx(() -> box.put(batch));
+                    DB.dataChanged(FileInfo.class);
+                    progressChanged(processed.addAndGet(batch.size()));
+                } catch (RuntimeException e) {
+                    failed.set(true);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed.set(true);
+        } finally {
+            db.closeThreadResources();
+        }
+    }
+
+    private static int countEndMarkers(@NotNull List<URL> urls) {
+        int count = 0;
+        for (URL url : urls) {
+            if (url == END_OF_WALK) count++;
+        }
+        return count;
+    }
+
+    static <E> void put(@NotNull BlockingQueue<E> queue, @NotNull E element) {
+        try {
+            queue.put(element);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Ingest interrupted");
+        }
+    }
+
+    private void await(@NotNull Future<?> future) throws InterruptedException {
+        try {
+            future.get();
+        } catch (ExecutionException | CancellationException e) {
+            failed.set(true);
+        }
+    }
+
+    private void progressChanged(long processed) {
+        if (callBack == null) return;
+        callBack.onProgressChanged(processed, discovered.get());
+    }
+
+    private void finish(boolean success) {
+        finished = true;
+        if (callBack == null) return;
+        callBack.onIngestFinished(success);
+    }
+}
@@ -20,6 +20,7 @@ package de.sg_o.lib.tagy.data;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import de.sg_o.lib.tagy.Project;
+import de.sg_o.lib.tagy.db.CompiledQuery;
 import de.sg_o.lib.tagy.db.DB;
 import de.sg_o.lib.tagy.db.QueryBoxSpec;
 import de.sg_o.lib.tagy.def.StructureDefinition;
@@ -34,7 +35,9 @@ import de.sg_o.proto.tagy.TagContainerProto;
 import de.sg_o.proto.tagy.UserProto;
 import io.objectbox.Box;
 import io.objectbox.BoxStore;
+import io.objectbox.Property;
 import io.objectbox.annotation.*;
+import io.objectbox.query.Query;
 import io.objectbox.query.QueryBuilder;
 import io.objectbox.relation.ToMany;
 import io.objectbox.relation.ToOne;
@@ -42,13 +45,19 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.Serializable;
-import java.util.List;
-import java.util.Map;
-import java.util.Objects;
+import java.util.*;
+import java.util.stream.Stream;
 
 @Entity
 @Uid(131994956946247807L)
 public class MetaData implements Serializable {
+    private static final QueryBoxSpec<MetaData> fileReferenceQuery = qb -> qb.apply(MetaData_.fileReference
+            .equal("", QueryBuilder.StringOrder.CASE_SENSITIVE).alias("fileReference")
+            .and(MetaData_.projectId.equal(0).alias("project")));
+
+    private static BoxStore sequenceStore = null;
+    private static long lastModification = 0;
+
     @Id
     @Uid(5272684610711569869L)
     Long id;
@@ -73,6 +82,9 @@ public class MetaData implements Serializable {
     @Uid(2449724609247634831L)
     @Deprecated//Usage to support upgrades from previous versions.
     private final ToOne<FileInfo> reference = new ToOne<>(this, MetaData_.reference);
+    @Index
+    @Uid(8097237063210895518L)
+    private long modification;
 
     @Transient
     transient BoxStore __boxStore = null;
@@ -81,12 +93,13 @@ public class MetaData implements Serializable {
     @Transient
     private transient FileInfo resolvedFileReference = null;
 
-    public MetaData(Long id, String fileReference, Map<String, String> tags, long projectId, long referenceId) {
+    public MetaData(Long id, String fileReference, Map<String, String> tags, long projectId, long referenceId, long modification) {
         this.id = id;
         this.tags = tags;
         this.fileReference = fileReference;
         this.project.setTargetId(projectId);
         this.reference.setTargetId(referenceId);
+        this.modification = modification;
     }
 
     public MetaData(@NotNull FileInfo reference, @NotNull Project project) {
@@ -121,6 +134,31 @@ public class MetaData implements Serializable {
         return query(qbs, pageLength);
     }
 
+    /**
+     * Streams all meta data of a project in chunks, see {@link DB#stream(Class, QueryBoxSpec)}.
+     *
+     * @param project The project
+     * @return The meta data, the stream should be closed after use
+     */
+    public static Stream<MetaData> stream(@NotNull Project project) {
+        QueryBoxSpec<MetaData> qbs = qb -> qb.apply(MetaData_.projectId.equal(project.getId()));
+        return DB.stream(MetaData.class, qbs);
+    }
+
+    /**
+     * Streams the meta data of a project saved after a watermark, see {@link #reserveModification()}.
+     *
+     * @param project The project
+     * @param since   The watermark of the last export, meta data saved at or before it is skipped
+     * @param until   The last modification to include
+     * @return The meta data, the stream should be closed after use
+     */
+    public static Stream<MetaData> streamChanges(@NotNull Project project, long since, long until) {
+        QueryBoxSpec<MetaData> qbs = qb -> qb.apply(MetaData_.projectId.equal(project.getId())
+                .and(MetaData_.modification.between(since + 1, until)));
+        return DB.stream(MetaData.class, qbs);
+    }
+
     public static MetaData queryFirst(QueryBoxSpec<MetaData> queryBoxSpec) {
         return DB.queryFirst(MetaData.class, queryBoxSpec);
     }
@@ -128,10 +166,15 @@ public class MetaData implements Serializable {
     public static MetaData queryFirst(FileInfo reference, Project project) {
         if (reference == null) return null;
         if (reference.getId() == null) return null;
-        QueryBoxSpec<MetaData> qbs = qb -> qb.apply(MetaData_.fileReference
-                .equal(reference.getUrlAsString(), QueryBuilder.StringOrder.CASE_SENSITIVE)
-                .and(MetaData_.projectId.equal(project.getId())));
-        MetaData found = queryFirst(qbs);
+        return queryFirst(reference.getUrlAsString(), project);
+    }
+
+    public static MetaData queryFirst(@NotNull String fileReference, @NotNull Project project) {
+        CompiledQuery<MetaData> compiled = DB.compile(MetaData.class, fileReferenceQuery);
+        if (compiled == null) return null;
+        MetaData found = compiled.findFirst(q -> q
+                .setParameter("fileReference", fileReference)
+                .setParameter("project", project.getId()));
         if (found == null) return null;
         if(found.getTagContainers().isEmpty() && found.getEditHistory().isEmpty()) {
             return null;
@@ -139,6 +182,49 @@ public class MetaData implements Serializable {
         return found;
     }
 
+    /**
+     * Resolves the meta data of a batch of files, mirroring {@link #queryFirst(String, Project)} for every file.
+     * At most {@value FileInfo#BULK_QUERY_SIZE} files are looked up per query.
+     *
+     * @param fileReferences The files in their database representation
+     * @param project        The project the files belong to
+     * @return The meta data by file reference, files without meta data are missing
+     */
+    public static @NotNull Map<String, MetaData> queryByFileReferences(@NotNull Collection<String> fileReferences, @NotNull Project project) {
+        Map<String, MetaData> found = new HashMap<>();
+        List<String> remaining = new ArrayList<>(fileReferences);
+        for (int start = 0; start < remaining.size(); start += FileInfo.BULK_QUERY_SIZE) {
+            String[] chunk = remaining.subList(start, Math.min(remaining.size(), start + FileInfo.BULK_QUERY_SIZE)).toArray(new String[0]);
+            QueryBoxSpec<MetaData> qbs = qb -> qb.apply(MetaData_.fileReference
+                    .oneOf(chunk, QueryBuilder.StringOrder.CASE_SENSITIVE)
+                    .and(MetaData_.projectId.equal(project.getId())));
+            for (MetaData metaData : DB.query(MetaData.class, qbs, 0, 0)) {
+                if (metaData.getTagContainers().isEmpty() && metaData.getEditHistory().isEmpty()) continue;
+                found.putIfAbsent(metaData.getFileReference(), metaData);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Resolves the file references of a batch of meta data with bulk queries instead of one query per entry.
+     *
+     * @param metaData The meta data to resolve
+     * @param project  The project the meta data belongs to
+     */
+    public static void resolveFileReferences(@NotNull List<MetaData> metaData, @NotNull Project project) {
+        Set<String> fileReferences = new HashSet<>();
+        for (MetaData md : metaData) {
+            if (md.resolvedFileReference == null) fileReferences.add(md.getFileReference());
+        }
+        if (fileReferences.isEmpty()) return;
+        Map<String, FileInfo> found = FileInfo.openAll(fileReferences, project);
+        for (MetaData md : metaData) {
+            if (md.resolvedFileReference != null) continue;
+            md.resolvedFileReference = found.get(md.getFileReference());
+        }
+    }
+
     public static MetaData openOrCreate(FileInfo reference, Project project) {
         MetaData found = queryFirst(reference, project);
         if (found == null) {
@@ -148,13 +234,71 @@ public class MetaData implements Serializable {
         return found;
     }
 
+    /**
+     * Deletes all meta data of a project. A {@link MetaDataTombstone} is left for every file, so exports of
+     * changes can tell the deletion apart from meta data that did not change.
+     */
     @SuppressWarnings("UnusedReturnValue")
     public static boolean deleteAll(@NotNull Project project) {
         QueryBoxSpec<MetaData> qbs = qb -> {
             qb = qb.apply(MetaData_.projectId.equal(project.getId()));
             return qb;
         };
-        return DB.delete(MetaData.class, qbs);
+        BoxStore db = DB.getDb();
+        if (db == null) return false;
+        Box<MetaData> box = db.boxFor(MetaData.class);
+        Box<MetaDataTombstone> tombstones = db.boxFor(MetaDataTombstone.class);
+        db.runInTx(() -> {
+            try (Query<MetaData> query = qbs.buildQuery(box.query()).build()) {
+                String[] fileReferences = query.property(MetaData_.fileReference).distinct().findStrings();
+                long deleted = nextModification(db);
+                List<MetaDataTombstone> created = new ArrayList<>(fileReferences.length);
+                for (String fileReference : fileReferences) {
+                    created.add(new MetaDataTombstone(fileReference, deleted, project));
+                }
+                tombstones.put(created);
+                query.remove();
+                TagIndexEntry.removeAll(db, project);
+                TagBitmapIndex.removeAll(db, project);
+            }
+        });
+        TagBitmapIndex.discard(project);
+        db.closeThreadResources();
+        DB.dataChanged(MetaData.class);
+        return true;
+    }
+
+    /**
+     * Reserves a value of the modification sequence. The value is reserved in a write transaction,
+     * so meta data saved before is committed and meta data saved after gets a greater value.
+     *
+     * @return The reserved value or -1 if there is no database
+     */
+    public static long reserveModification() {
+        BoxStore db = DB.getDb();
+        if (db == null) return -1;
+        return db.callInTxNoException(() -> nextModification(db));
+    }
+
+    /**
+     * The sequence follows the clock, but never repeats a value. It continues after the greatest value stored
+     * in the database, so it keeps increasing when the clock is set back between two sessions.
+     * Must be called from a write transaction.
+     */
+    static synchronized long nextModification(@NotNull BoxStore db) {
+        if (sequenceStore != db) {
+            sequenceStore = db;
+            lastModification = Math.max(storedModification(db.boxFor(MetaData.class), MetaData_.modification),
+                    storedModification(db.boxFor(MetaDataTombstone.class), MetaDataTombstone_.deleted));
+        }
+        lastModification = Math.max(lastModification + 1, System.currentTimeMillis());
+        return lastModification;
+    }
+
+    private static <T> long storedModification(@NotNull Box<T> box, @NotNull Property<T> property) {
+        try (Query<T> query = box.query().build()) {
+            return Math.max(0, query.property(property).max());
+        }
     }
 
     public void addTag(@NotNull Tag tag) {
@@ -190,7 +334,12 @@ public class MetaData implements Serializable {
             box.remove(tagContainer.getId());
         }
         tagContainers.clear();
-        save();
+        if (!save() && db != null && this.id != null && this.id != 0L) {
+            // Without tags the meta data is not saved, its tags are not indexed anymore either
+            db.runInTx(() -> TagIndexEntry.removeAll(Collections.singletonList(this.id)));
+            TagBitmapIndex.remove(this);
+            DB.dataChanged(MetaData.class);
+        }
     }
 
     @SuppressWarnings("unused")
@@ -278,6 +427,13 @@ public class MetaData implements Serializable {
         return editHistory;
     }
 
+    /**
+     * @return The modification sequence of the last save, 0 if it was not saved since the sequence was introduced
+     */
+    public long getModification() {
+        return modification;
+    }
+
     @SuppressWarnings("UnusedReturnValue")
     public boolean save() {
         if (this.tags != null) migrateTags();
@@ -291,7 +447,13 @@ public class MetaData implements Serializable {
         if (db == null) return false;
         Box<MetaData> box = db.boxFor(MetaData.class);
         if (box == null) return false;
-        this.id = box.put(this);
+        db.runInTx(() -> {
+            this.modification = nextModification(db);
+            this.id = box.put(this);
+            TagIndexEntry.update(db, this);
+        });
+        TagBitmapIndex.update(this);
+        DB.dataChanged(MetaData.class);
         FileInfo ref = this.resolveFileReference();
         if (ref != null) ref.save();
         return true;
@@ -0,0 +1,107 @@
+/*
+ *
+ *      Copyright (C) 2023 Joerg Bayer (SG-O)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sg_o.lib.tagy.data;
+
+import de.sg_o.lib.tagy.Project;
+import de.sg_o.lib.tagy.db.DB;
+import de.sg_o.lib.tagy.db.QueryBoxSpec;
+import io.objectbox.BoxStore;
+import io.objectbox.annotation.Entity;
+import io.objectbox.annotation.Id;
+import io.objectbox.annotation.Index;
+import io.objectbox.annotation.Transient;
+import io.objectbox.relation.ToOne;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.stream.Stream;
+
+/**
+ * Marks the meta data of a file as deleted. The deletion takes a value of the same modification sequence as
+ * {@link MetaData#save()}, so an export of changes can pass it on.
+ */
+@Entity
+public class MetaDataTombstone {
+    @Id
+    private Long id;
+    @Index
+    private final String fileReference;
+    @Index
+    private final long deleted;
+    private final ToOne<Project> project = new ToOne<>(this, MetaDataTombstone_.project);
+
+    @Transient
+    transient BoxStore __boxStore = null;
+
+    public MetaDataTombstone(Long id, String fileReference, long deleted, long projectId) {
+        this.id = id;
+        this.fileReference = fileReference;
+        this.deleted = deleted;
+        this.project.setTargetId(projectId);
+    }
+
+    MetaDataTombstone(@NotNull String fileReference, long deleted, @NotNull Project project) {
+        this.fileReference = fileReference;
+        this.deleted = deleted;
+        this.project.setTarget(project);
+    }
+
+    /**
+     * Streams the deletions of a project after a watermark, see {@link MetaData#reserveModification()}.
+     *
+     * @param project The project
+     * @param since   The watermark of the last export, deletions at or before it are skipped
+     * @param until   The last modification to include
+     * @return The deletions, the stream should be closed after use
+     */
+    public static Stream<MetaDataTombstone> streamChanges(@NotNull Project project, long since, long until) {
+        QueryBoxSpec<MetaDataTombstone> qbs = qb -> qb.apply(MetaDataTombstone_.projectId.equal(project.getId())
+                .and(MetaDataTombstone_.deleted.between(since + 1, until)));
+        return DB.stream(MetaDataTombstone.class, qbs);
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public @NotNull String getFileReference() {
+        return fileReference;
+    }
+
+    /**
+     * @return The modification sequence of the deletion
+     */
+    public long getDeleted() {
+        return deleted;
+    }
+
+    public ToOne<Project> getProject() {
+        return project;
+    }
+
+    @Override
+    public String toString() {
+        return "{"
+                + "\"fileReference\": \"" + fileReference + "\""
+                + ", \"deleted\": " + deleted
+                + "}";
+    }
+}
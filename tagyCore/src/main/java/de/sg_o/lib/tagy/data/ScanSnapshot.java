@@ -0,0 +1,151 @@
+/*
+ *
+ *      Copyright (C) 2023 Joerg Bayer (SG-O)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sg_o.lib.tagy.data;
+
+import de.sg_o.lib.tagy.Project;
+import de.sg_o.lib.tagy.db.DB;
+import de.sg_o.lib.tagy.db.QueryBoxSpec;
+import io.objectbox.Box;
+import io.objectbox.BoxStore;
+import io.objectbox.annotation.Entity;
+import io.objectbox.annotation.Id;
+import io.objectbox.annotation.Index;
+import io.objectbox.annotation.Transient;
+import io.objectbox.relation.ToOne;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The state of one directory (or file list) of a {@link DataSource} as seen by the last incremental ingest.
+ * <p>
+ * The digest covers the name, modification time and size of every matching file, so an unchanged snapshot
+ * means none of the files of the directory have to be looked at again.
+ */
+@Entity
+public class ScanSnapshot {
+    @Id
+    private Long id;
+    @Index
+    private final String path;
+    private long modified;
+    private long size;
+    private int fileCount;
+    private long digest;
+    private final ToOne<DataSource> dataSource = new ToOne<>(this, ScanSnapshot_.dataSource);
+    private final ToOne<Project> project = new ToOne<>(this, ScanSnapshot_.project);
+
+    @Transient
+    transient BoxStore __boxStore = null;
+
+    public ScanSnapshot(Long id, String path, long modified, long size, int fileCount, long digest, long dataSourceId, long projectId) {
+        this.id = id;
+        this.path = path;
+        this.modified = modified;
+        this.size = size;
+        this.fileCount = fileCount;
+        this.digest = digest;
+        this.dataSource.setTargetId(dataSourceId);
+        this.project.setTargetId(projectId);
+    }
+
+    public ScanSnapshot(@NotNull String path, @NotNull DataSource dataSource, @NotNull Project project) {
+        this.path = path;
+        this.dataSource.setTarget(dataSource);
+        this.project.setTarget(project);
+    }
+
+    public static @NotNull List<ScanSnapshot> queryAll(@NotNull DataSource dataSource) {
+        if (dataSource.getId() == null) return new ArrayList<>();
+        QueryBoxSpec<ScanSnapshot> qbs = qb -> qb.apply(ScanSnapshot_.dataSourceId.equal(dataSource.getId()));
+        return new ArrayList<>(DB.query(ScanSnapshot.class, qbs, 0, 0));
+    }
+
+    public static boolean deleteAll(@NotNull Project project) {
+        QueryBoxSpec<ScanSnapshot> qbs = qb -> qb.apply(ScanSnapshot_.projectId.equal(project.getId()));
+        return DB.delete(ScanSnapshot.class, qbs);
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public @NotNull String getPath() {
+        return path;
+    }
+
+    public long getModified() {
+        return modified;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public int getFileCount() {
+        return fileCount;
+    }
+
+    public long getDigest() {
+        return digest;
+    }
+
+    public ToOne<DataSource> getDataSource() {
+        return dataSource;
+    }
+
+    public ToOne<Project> getProject() {
+        return project;
+    }
+
+    /**
+     * @return true if the files of the directory are unchanged since this snapshot was stored
+     */
+    public boolean matches(int fileCount, long size, long digest) {
+        return this.fileCount == fileCount && this.size == size && this.digest == digest;
+    }
+
+    public void update(long modified, int fileCount, long size, long digest) {
+        this.modified = modified;
+        this.fileCount = fileCount;
+        this.size = size;
+        this.digest = digest;
+    }
+
+    public boolean save() {
+        BoxStore db = DB.getDb();
+        if (db == null) return false;
+        Box<ScanSnapshot> box = db.boxFor(ScanSnapshot.class);
+        if (box == null) return false;
+        this.id = box.put(this);
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "{"
+                + "\"path\": \"" + path + "\""
+                + ", \"fileCount\": " + fileCount
+                + "}";
+    }
+}
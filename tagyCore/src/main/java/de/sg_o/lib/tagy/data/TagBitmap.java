@@ -0,0 +1,111 @@
+/*
+ *
+ *      Copyright (C) 2023 Joerg Bayer (SG-O)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sg_o.lib.tagy.data;
+
+import io.objectbox.BoxStore;
+import io.objectbox.annotation.Entity;
+import io.objectbox.annotation.Id;
+import io.objectbox.annotation.Index;
+import io.objectbox.annotation.Transient;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.BitSet;
+
+/**
+ * The stored snapshot of one posting list of a {@link TagBitmapIndex}: the ids of the meta data of a project
+ * with a tag of the key holding the value.
+ */
+@Entity
+public class TagBitmap {
+    @Id
+    private Long id;
+    @Index
+    private final long projectId;
+    private final String tagKey;
+    private final Long value;
+    private final long modification;
+    private final byte[] bits;
+
+    @Transient
+    transient BoxStore __boxStore = null;
+
+    public TagBitmap(Long id, long projectId, String tagKey, Long value, long modification, byte[] bits) {
+        this.id = id;
+        this.projectId = projectId;
+        this.tagKey = tagKey;
+        this.value = value;
+        this.modification = modification;
+        this.bits = bits;
+    }
+
+    TagBitmap(long projectId, @NotNull String tagKey, Long value, long modification, @NotNull BitSet bits) {
+        this.projectId = projectId;
+        this.tagKey = tagKey;
+        this.value = value;
+        this.modification = modification;
+        this.bits = bits.toByteArray();
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public long getProjectId() {
+        return projectId;
+    }
+
+    public @NotNull String getTagKey() {
+        return tagKey;
+    }
+
+    /**
+     * @return The enumerator index, 1 or 0 for a boolean, or null for tags without a value
+     */
+    public Long getValue() {
+        return value;
+    }
+
+    /**
+     * @return The modification of the meta data the snapshot includes, see {@link MetaData#reserveModification()}
+     */
+    public long getModification() {
+        return modification;
+    }
+
+    public byte[] getBits() {
+        return bits;
+    }
+
+    public @NotNull BitSet toBitSet() {
+        if (bits == null) return new BitSet();
+        return BitSet.valueOf(bits);
+    }
+
+    @Override
+    public String toString() {
+        return "{"
+                + "\"tagKey\": \"" + tagKey + "\""
+                + ", \"value\": " + value
+                + ", \"modification\": " + modification
+                + "}";
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ *
+ *      Copyright (C) 2023 Joerg Bayer (SG-O)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sg_o.lib.tagy.data;
+
+import de.sg_o.lib.tagy.Project;
+import de.sg_o.lib.tagy.db.DB;
+import de.sg_o.lib.tagy.def.TagDefinition;
+import io.objectbox.Box;
+import io.objectbox.BoxStore;
+import io.objectbox.query.Query;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Posting lists of the meta data of a project for every value of its enum and boolean tags, held in memory as
+ * bitmaps of meta data ids. Conditions on these tags are answered with bitmap operations instead of queries.
+ * <p>
+ * The bitmaps of a project are loaded on first use from their stored snapshot ({@link TagBitmap}). Meta data saved
+ * after the snapshot is applied on top, deleted meta data is dropped and the snapshot is stored again.
+ * From then on the bitmaps are updated whenever meta data of the project is saved.
+ * Projects with meta data ids that do not fit into a bitmap are not indexed.
+ */
+public final class TagBitmapIndex {
+    /**
+     * The key of the snapshot holding the ids of all indexed meta data
+     */
+    private static final String ALL = "";
+
+    private static BoxStore store = null;
+    private static final Map<Long, TagBitmapIndex> loaded = new HashMap<>();
+
+    private final long projectId;
+    private final Map<String, Map<Long, BitSet>> postings = new HashMap<>();
+    private final BitSet all = new BitSet();
+    private long modification = -1;
+    private boolean ready = false;
+
+    private TagBitmapIndex(long projectId) {
+        this.projectId = projectId;
+    }
+
+    /**
+     * Returns the bitmaps of a project, loading them on first use.
+     *
+     * @param project The project
+     * @return The bitmaps or null if the project can not be indexed
+     */
+    public static TagBitmapIndex open(@NotNull Project project) {
+        BoxStore db = DB.getDb();
+        if (db == null || project.getId() == null) return null;
+        TagBitmapIndex index;
+        synchronized (loaded) {
+            if (store != db) {
+                store = db;
+                loaded.clear();
+            }
+            index = loaded.computeIfAbsent(project.getId(), TagBitmapIndex::new);
+        }
+        boolean changed;
+        synchronized (index) {
+            if (index.ready) return index;
+            Boolean loadedChanges = index.load(db, project);
+            if (loadedChanges == null) {
+                discard(project.getId());
+                return null;
+            }
+            index.ready = true;
+            changed = loadedChanges;
+        }
+        // The snapshot is written outside the lock, meta data saved meanwhile may hold a write transaction
+        if (changed) index.snapshot();
+        return index;
+    }
+
+    /**
+     * @return true if tags of the definition are held in bitmaps
+     */
+    public static boolean isIndexed(TagDefinition definition) {
+        if (definition == null) return false;
+        switch (definition.getType()) {
+            case ENUM:
+            case BOOLEAN:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Converts the value of a condition to the value of a posting list.
+     *
+     * @param definition   The definition of the tag
+     * @param longValue    The enumerator index of an enum tag
+     * @param booleanValue The value of a boolean tag
+     * @return The value or null if the tags of the definition can not have it
+     */
+    public static Long value(TagDefinition definition, Long longValue, Boolean booleanValue) {
+        if (definition == null) return null;
+        switch (definition.getType()) {
+            case ENUM:
+                return longValue;
+            case BOOLEAN:
+                if (booleanValue == null) return null;
+                return booleanValue ? 1L : 0L;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return The ids set in the bitmap in ascending order
+     */
+    public static long[] toIds(@NotNull BitSet bits) {
+        return bits.stream().asLongStream().toArray();
+    }
+
+    /**
+     * @param tagKey The key of the tag
+     * @param value  The value, see {@link #value(TagDefinition, Long, Boolean)}, null for tags without a value
+     * @return The ids of the meta data with a tag of the key holding the value
+     */
+    public synchronized @NotNull BitSet get(@NotNull String tagKey, Long value) {
+        Map<Long, BitSet> values = postings.get(tagKey);
+        if (values == null) return new BitSet();
+        BitSet bits = values.get(value);
+        if (bits == null) return new BitSet();
+        return (BitSet) bits.clone();
+    }
+
+    /**
+     * @param tagKey The key of the tag
+     * @param value  The value, see {@link #value(TagDefinition, Long, Boolean)}
+     * @return The ids of the meta data with a tag of the key holding a value other than the given one
+     */
+    public synchronized @NotNull BitSet getOther(@NotNull String tagKey, long value) {
+        BitSet bits = new BitSet();
+        Map<Long, BitSet> values = postings.get(tagKey);
+        if (values == null) return bits;
+        for (Map.Entry<Long, BitSet> entry : values.entrySet()) {
+            if (entry.getKey() == null || entry.getKey() == value) continue;
+            bits.or(entry.getValue());
+        }
+        return bits;
+    }
+
+    /**
+     * Stores the current bitmaps as the snapshot of the project.
+     */
+    public void snapshot() {
+        BoxStore db = DB.getDb();
+        if (db == null) return;
+        List<TagBitmap> bitmaps = new ArrayList<>();
+        synchronized (this) {
+            if (!ready) return;
+            bitmaps.add(new TagBitmap(projectId, ALL, null, modification, all));
+            for (Map.Entry<String, Map<Long, BitSet>> key : postings.entrySet()) {
+                for (Map.Entry<Long, BitSet> value : key.getValue().entrySet()) {
+                    if (value.getValue().isEmpty()) continue;
+                    bitmaps.add(new TagBitmap(projectId, key.getKey(), value.getKey(), modification, value.getValue()));
+                }
+            }
+        }
+        Box<TagBitmap> box = db.boxFor(TagBitmap.class);
+        db.runInTx(() -> {
+            removeAll(db, projectId);
+            box.put(bitmaps);
+        });
+    }
+
+    /**
+     * Applies saved meta data to the bitmaps of its project, if they are loaded.
+     */
+    static void update(@NotNull MetaData metaData) {
+        TagBitmapIndex index = loaded(metaData.getProject().getTargetId());
+        if (index == null) return;
+        boolean applied;
+        synchronized (index) {
+            if (!index.ready) return;
+            applied = index.apply(metaData);
+        }
+        if (!applied) discard(index.projectId);
+    }
+
+    /**
+     * Removes meta data whose tags were cleared without saving it from the bitmaps of its project. As the meta data
+     * keeps its modification, the snapshot is stored right away, or dropped if the bitmaps are not loaded.
+     */
+    static void remove(@NotNull MetaData metaData) {
+        BoxStore db = DB.getDb();
+        if (db == null || metaData.getId() == null) return;
+        long projectId = metaData.getProject().getTargetId();
+        TagBitmapIndex index = loaded(projectId);
+        if (index == null || metaData.getId() > Integer.MAX_VALUE) {
+            db.runInTx(() -> removeAll(db, projectId));
+            return;
+        }
+        synchronized (index) {
+            if (index.ready) index.clear((int) (long) metaData.getId());
+        }
+        index.snapshot();
+    }
+
+    /**
+     * Removes the snapshot of a project whose meta data is deleted. Must be called from a write transaction,
+     * the loaded bitmaps are dropped with {@link #discard(Project)} after it was committed.
+     */
+    static void removeAll(@NotNull BoxStore db, @NotNull Project project) {
+        removeAll(db, project.getId());
+    }
+
+    private static void removeAll(@NotNull BoxStore db, long projectId) {
+        try (Query<TagBitmap> query = db.boxFor(TagBitmap.class).query(TagBitmap_.projectId.equal(projectId)).build()) {
+            query.remove();
+        }
+    }
+
+    private static TagBitmapIndex loaded(long projectId) {
+        synchronized (loaded) {
+            if (store != DB.getDb()) return null;
+            return loaded.get(projectId);
+        }
+    }
+
+    /**
+     * Drops the loaded bitmaps of a project after its meta data was removed, they are loaded again on next use.
+     *
+     * @param project The project
+     */
+    public static void discard(@NotNull Project project) {
+        if (project.getId() == null) return;
+        discard(project.getId());
+    }
+
+    private static void discard(long projectId) {
+        synchronized (loaded) {
+            loaded.remove(projectId);
+        }
+    }
+
+    /**
+     * Loads the snapshot and applies the meta data saved or deleted after it.
+     *
+     * @return true if the bitmaps differ from the snapshot, or null if the project can not be indexed
+     */
+    private Boolean load(@NotNull BoxStore db, @NotNull Project project) {
+        List<TagBitmap> snapshot;
+        try (Query<TagBitmap> query = db.boxFor(TagBitmap.class).query(TagBitmap_.projectId.equal(projectId)).build()) {
+            snapshot = query.find();
+        }
+        // Without a snapshot all meta data is applied, including meta data saved before modifications were recorded
+        long since = -1;
+        for (TagBitmap bitmap : snapshot) {
+            since = since < 0 ? bitmap.getModification() : Math.min(since, bitmap.getModification());
+            if (ALL.equals(bitmap.getTagKey())) {
+                all.or(bitmap.toBitSet());
+            } else {
+                postings(bitmap.getTagKey()).put(bitmap.getValue(), bitmap.toBitSet());
+            }
+        }
+        Box<MetaData> box = db.boxFor(MetaData.class);
+        long until;
+        BitSet live = new BitSet();
+        try (Query<MetaData> query = box.query(MetaData_.projectId.equal(projectId)).build()) {
+            // Meta data saved after this is applied by update() once loading finished
+            until = Math.max(0, query.property(MetaData_.modification).max());
+            for (long id : query.findIds()) {
+                if (id > Integer.MAX_VALUE) return null;
+                live.set((int) id);
+            }
+        }
+        boolean changed = snapshot.isEmpty();
+        try (Stream<MetaData> changes = MetaData.streamChanges(project, since, until)) {
+            Iterator<MetaData> iterator = changes.iterator();
+            while (iterator.hasNext()) {
+                if (!apply(iterator.next())) return null;
+                changed = true;
+            }
+        }
+        BitSet deleted = (BitSet) all.clone();
+        deleted.andNot(live);
+        for (int id = deleted.nextSetBit(0); id >= 0; id = deleted.nextSetBit(id + 1)) {
+            clear(id);
+            changed = true;
+        }
+        modification = Math.max(since, until);
+        return changed;
+    }
+
+    private @NotNull Map<Long, BitSet> postings(@NotNull String tagKey) {
+        return postings.computeIfAbsent(tagKey, key -> new HashMap<>());
+    }
+
+    private boolean apply(@NotNull MetaData metaData) {
+        Long id = metaData.getId();
+        if (id == null || id < 1) return true;
+        if (id > Integer.MAX_VALUE) return false;
+        int bit = (int) (long) id;
+        clear(bit);
+        all.set(bit);
+        for (TagContainer tagContainer : metaData.getTagContainers()) {
+            TagDefinition definition = tagContainer.resolveTagDefinition();
+            if (!isIndexed(definition)) continue;
+            Long value = value(definition, tagContainer.getLongValue(), tagContainer.getBooleanValue());
+            postings(definition.getKey()).computeIfAbsent(value, key -> new BitSet()).set(bit);
+        }
+        return true;
+    }
+
+    private void clear(int bit) {
+        all.clear(bit);
+        for (Map<Long, BitSet> values : postings.values()) {
+            for (BitSet bits : values.values()) {
+                bits.clear(bit);
+            }
+        }
+    }
+}
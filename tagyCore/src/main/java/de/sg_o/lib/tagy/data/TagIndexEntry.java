@@ -0,0 +1,253 @@
+/*
+ *
+ *      Copyright (C) 2023 Joerg Bayer (SG-O)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sg_o.lib.tagy.data;
+
+import de.sg_o.lib.tagy.Project;
+import de.sg_o.lib.tagy.db.DB;
+import de.sg_o.lib.tagy.def.TagDefinition;
+import de.sg_o.proto.tagy.TagDefinitionProto;
+import io.objectbox.Box;
+import io.objectbox.BoxStore;
+import io.objectbox.annotation.*;
+import io.objectbox.query.Query;
+import io.objectbox.query.QueryBuilder;
+import io.objectbox.query.QueryCondition;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * One tag of a saved {@link MetaData} with its key and value, so meta data can be looked up by the value of a tag
+ * with a single indexed query. Only tags at the top level of the meta data that hold a single value are indexed.
+ * <p>
+ * The entries of a meta data are replaced whenever it is saved. Projects indexed before the entries were
+ * introduced, or with an older {@link #VERSION}, have to be rebuilt with {@link #rebuild(Project)} before
+ * the index is used for them.
+ */
+@Entity
+public class TagIndexEntry {
+    public static final int VERSION = 1;
+
+    @Id
+    private Long id;
+    @Index
+    private final long projectId;
+    @Index
+    private final String tagKey;
+    private final Boolean booleanValue;
+    @Index
+    private final Long longValue;
+    private final Double doubleValue;
+    @Index(type = IndexType.VALUE)
+    private final String stringValue;
+    @Index
+    private final long metaDataId;
+
+    @Transient
+    transient BoxStore __boxStore = null;
+
+    public TagIndexEntry(Long id, long projectId, String tagKey, Boolean booleanValue, Long longValue, Double doubleValue, String stringValue, long metaDataId) {
+        this.id = id;
+        this.projectId = projectId;
+        this.tagKey = tagKey;
+        this.booleanValue = booleanValue;
+        this.longValue = longValue;
+        this.doubleValue = doubleValue;
+        this.stringValue = stringValue;
+        this.metaDataId = metaDataId;
+    }
+
+    private TagIndexEntry(long projectId, @NotNull String tagKey, @NotNull TagContainer tagContainer, long metaDataId) {
+        this.projectId = projectId;
+        this.tagKey = tagKey;
+        this.booleanValue = tagContainer.getBooleanValue();
+        this.longValue = tagContainer.getLongValue();
+        this.doubleValue = tagContainer.getDoubleValue();
+        this.stringValue = tagContainer.getStringValue();
+        this.metaDataId = metaDataId;
+    }
+
+    /**
+     * @return true if the meta data of the project is completely indexed
+     */
+    public static boolean isCurrent(@NotNull Project project) {
+        return project.getTagIndexVersion() == VERSION;
+    }
+
+    /**
+     * Looks up the meta data with a tag of the key whose value matches the condition.
+     *
+     * @param project   The project of the meta data
+     * @param tagKey    The key of the tag
+     * @param condition The condition on the value properties of the entries
+     * @return The ids of the meta data in ascending order, without duplicates
+     */
+    public static long[] findMetaDataIds(@NotNull Project project, @NotNull String tagKey, @NotNull QueryCondition<TagIndexEntry> condition) {
+        return findMetaDataIds(project, tagKey, condition, null);
+    }
+
+    /**
+     * Looks up the meta data with a tag of the key whose value matches the condition among candidates.
+     *
+     * @param project    The project of the meta data
+     * @param tagKey     The key of the tag
+     * @param condition  The condition on the value properties of the entries
+     * @param candidates The ids of the meta data to look at, null for all meta data of the project
+     * @return The ids of the meta data in ascending order, without duplicates
+     */
+    public static long[] findMetaDataIds(@NotNull Project project, @NotNull String tagKey, @NotNull QueryCondition<TagIndexEntry> condition, long[] candidates) {
+        BoxStore db = DB.getDb();
+        if (db == null || project.getId() == null) return new long[0];
+        if (candidates != null && candidates.length < 1) return new long[0];
+        QueryCondition<TagIndexEntry> restricted = TagIndexEntry_.tagKey.equal(tagKey, QueryBuilder.StringOrder.CASE_SENSITIVE)
+                .and(TagIndexEntry_.projectId.equal(project.getId()))
+                .and(condition);
+        if (candidates != null) restricted = restricted.and(TagIndexEntry_.metaDataId.oneOf(candidates));
+        Box<TagIndexEntry> box = db.boxFor(TagIndexEntry.class);
+        long[] ids;
+        try (Query<TagIndexEntry> query = box.query(restricted).build()) {
+            ids = query.property(TagIndexEntry_.metaDataId).distinct().findLongs();
+        }
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    /**
+     * Replaces the entries of the meta data. Must be called from a write transaction after the meta data was put.
+     */
+    static void update(@NotNull BoxStore db, @NotNull MetaData metaData) {
+        Box<TagIndexEntry> box = db.boxFor(TagIndexEntry.class);
+        remove(box, metaData.getId());
+        Project project = metaData.resolveProject();
+        if (project == null || project.getId() == null) return;
+        List<TagIndexEntry> entries = new ArrayList<>();
+        for (TagContainer tagContainer : metaData.getTagContainers()) {
+            TagDefinition definition = tagContainer.resolveTagDefinition();
+            if (definition == null) continue;
+            if (definition.getType() == TagDefinitionProto.Type.LIST) continue;
+            entries.add(new TagIndexEntry(project.getId(), definition.getKey(), tagContainer, metaData.getId()));
+        }
+        box.put(entries);
+    }
+
+    /**
+     * Removes the entries of meta data that is deleted. Must be called from a write transaction.
+     *
+     * @param metaDataIds The ids of the meta data
+     */
+    public static void removeAll(@NotNull Collection<Long> metaDataIds) {
+        BoxStore db = DB.getDb();
+        if (db == null) return;
+        Box<TagIndexEntry> box = db.boxFor(TagIndexEntry.class);
+        for (Long metaDataId : metaDataIds) {
+            remove(box, metaDataId);
+        }
+    }
+
+    static void removeAll(@NotNull BoxStore db, @NotNull Project project) {
+        try (Query<TagIndexEntry> query = db.boxFor(TagIndexEntry.class)
+                .query(TagIndexEntry_.projectId.equal(project.getId())).build()) {
+            query.remove();
+        }
+    }
+
+    private static void remove(@NotNull Box<TagIndexEntry> box, Long metaDataId) {
+        if (metaDataId == null || metaDataId == 0L) return;
+        try (Query<TagIndexEntry> query = box.query(TagIndexEntry_.metaDataId.equal(metaDataId)).build()) {
+            query.remove();
+        }
+    }
+
+    /**
+     * Indexes all meta data of a project again. Meta data is read in chunks, every chunk is indexed in its own
+     * transaction. The project is marked as indexed with the current {@link #VERSION} afterwards.
+     *
+     * @param project The project
+     * @return The number of meta data indexed or -1 if there is no database
+     */
+    public static long rebuild(@NotNull Project project) {
+        BoxStore db = DB.getDb();
+        if (db == null || project.getId() == null) return -1;
+        db.runInTx(() -> removeAll(db, project));
+        long indexed = 0;
+        try (Stream<MetaData> annotations = MetaData.stream(project)) {
+            Iterator<MetaData> iterator = annotations.iterator();
+            List<MetaData> batch = new ArrayList<>(FileInfo.BULK_QUERY_SIZE);
+            while (iterator.hasNext()) {
+                batch.add(iterator.next());
+                if (batch.size() >= FileInfo.BULK_QUERY_SIZE || !iterator.hasNext()) {
+                    db.runInTx(() -> {
+                        for (MetaData metaData : batch) {
+                            update(db, metaData);
+                        }
+                    });
+                    indexed += batch.size();
+                    batch.clear();
+                }
+            }
+        }
+        project.setTagIndexVersion(VERSION);
+        project.save();
+        return indexed;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public long getProjectId() {
+        return projectId;
+    }
+
+    public @NotNull String getTagKey() {
+        return tagKey;
+    }
+
+    public Boolean getBooleanValue() {
+        return booleanValue;
+    }
+
+    public Long getLongValue() {
+        return longValue;
+    }
+
+    public Double getDoubleValue() {
+        return doubleValue;
+    }
+
+    public String getStringValue() {
+        return stringValue;
+    }
+
+    public long getMetaDataId() {
+        return metaDataId;
+    }
+
+    @Override
+    public String toString() {
+        return "{"
+                + "\"tagKey\": \"" + tagKey + "\""
+                + ", \"metaDataId\": " + metaDataId
+                + "}";
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ *
+ *      Copyright (C) 2023 Joerg Bayer (SG-O)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sg_o.lib.tagy.db;
+
+import io.objectbox.Box;
+import io.objectbox.query.Query;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A query that is built once from its {@link QueryBoxSpec} and reused for every call.
+ * <p>
+ * Values that change between calls should be given an alias in the spec and set through the parameter
+ * consumer of each call, e.g. {@code Entity_.name.equal("").alias("name")} and {@code q -> q.setParameter("name", value)}.
+ * Calls are serialized, a query is never used by two threads at once.
+ *
+ * @param <T> The entity type
+ */
+public class CompiledQuery<T> {
+    private final @NotNull Box<T> box;
+    private final @NotNull QueryBoxSpec<T> queryBoxSpec;
+    private final @NotNull Query<T> query;
+    private boolean closed = false;
+
+    CompiledQuery(@NotNull Box<T> box, @NotNull QueryBoxSpec<T> queryBoxSpec) {
+        this.box = box;
+        this.queryBoxSpec = queryBoxSpec;
+        this.query = queryBoxSpec.buildQuery(box.query()).build();
+    }
+
+    public @NotNull List<T> find(int length, int offset, Consumer<Query<T>> parameters) {
+        return run(parameters, query -> {
+            if (length > 0 && offset > -1) {
+                return query.find(offset, length);
+            }
+            try {
+                return query.findLazyCached();
+            } catch (UnsupportedOperationException e) {
+                return query.find();
+            }
+        });
+    }
+
+    public T findFirst(Consumer<Query<T>> parameters) {
+        return run(parameters, Query::findFirst);
+    }
+
+    public long count(Consumer<Query<T>> parameters) {
+        return run(parameters, Query::count);
+    }
+
+    public long remove(Consumer<Query<T>> parameters) {
+        return run(parameters, Query::remove);
+    }
+
+    /**
+     * Runs an action on the compiled query. If the query was evicted from the cache in the meantime,
+     * a temporary query is built for this call.
+     *
+     * @param parameters Sets the parameters of this call, may be null
+     * @param action     The action to run
+     * @return The result of the action
+     */
+    public synchronized <R> R run(Consumer<Query<T>> parameters, @NotNull Function<Query<T>, R> action) {
+        try {
+            if (!closed) {
+                if (parameters != null) parameters.accept(query);
+                return action.apply(query);
+            }
+            try (Query<T> temporary = queryBoxSpec.buildQuery(box.query()).build()) {
+                if (parameters != null) parameters.accept(temporary);
+                return action.apply(temporary);
+            }
+        } finally {
+            box.getStore().closeThreadResources();
+        }
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    synchronized void close() {
+        if (closed) return;
+        closed = true;
+        query.close();
+    }
+}
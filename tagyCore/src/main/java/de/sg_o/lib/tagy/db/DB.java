@@ -23,19 +23,44 @@ import de.sg_o.lib.tagy.util.PagedList;
 import io.objectbox.Box;
 import io.objectbox.BoxStore;
 import io.objectbox.BoxStoreBuilder;
+import io.objectbox.Property;
 import io.objectbox.query.Query;
+import io.objectbox.reactive.DataSubscription;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class DB {
+    public static final int DEFAULT_QUERY_CACHE_SIZE = 64;
+    public static final int DEFAULT_STREAM_CHUNK_SIZE = 1000;
+
     private static BoxStore database;
     private static @NotNull String name = "";
 
     private static boolean debug = false;
 
+    private static int queryCacheSize = DEFAULT_QUERY_CACHE_SIZE;
+    private static final List<CompiledQuery<?>> evicted = new ArrayList<>();
+    // Queries owned by paged lists, weakly held so lists that are never closed can still be collected
+    private static final Set<CompiledQuery<?>> owned = Collections.newSetFromMap(new WeakHashMap<>());
+    private static final LinkedHashMap<QueryKey, CompiledQuery<?>> queryCache = new LinkedHashMap<QueryKey, CompiledQuery<?>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<QueryKey, CompiledQuery<?>> eldest) {
+            if (size() <= queryCacheSize) return false;
+            evicted.add(eldest.getValue());
+            return true;
+        }
+    };
+
+    private static final AtomicLong dataSequence = new AtomicLong();
+    private static final Map<Class<?>, AtomicLong> dataVersions = new ConcurrentHashMap<>();
+    private static final List<DataSubscription> dataSubscriptions = new ArrayList<>();
+
 
     public static void initDb(File file, boolean allowCreate) {
         if (database != null) return;
@@ -62,6 +87,107 @@ public class DB {
         DB.debug = debug;
     }
 
+    /**
+     * Returns the compiled query for a spec, building and caching it on first use.
+     * The cache is keyed by the identity of the spec, so only specs that are kept and reused benefit from it.
+     * The least recently used queries are closed once more than {@link #setQueryCacheSize(int)} are cached.
+     * The other query methods of this class never use the cache, they build a query of their own for every call.
+     *
+     * @param entityClass  The entity type
+     * @param queryBoxSpec The spec to compile
+     * @return The compiled query or null if no database is open
+     */
+    public static <T> CompiledQuery<T> compile(Class<T> entityClass, QueryBoxSpec<T> queryBoxSpec) {
+        BoxStore db = getDb();
+        if (db == null) return null;
+        QueryKey key = new QueryKey(entityClass, queryBoxSpec);
+        CompiledQuery<T> compiled;
+        synchronized (queryCache) {
+            compiled = getCached(key);
+            if (compiled == null) {
+                Box<T> box = db.boxFor(entityClass);
+                if (box == null) return null;
+                compiled = new CompiledQuery<>(box, queryBoxSpec);
+                queryCache.put(key, compiled);
+            }
+        }
+        closeEvicted();
+        return compiled;
+    }
+
+    /**
+     * Closes all compiled queries, including the queries of the lists returned by
+     * {@link #queryPaged(Class, QueryBoxSpec, int)}. Specs that are used again are compiled anew.
+     */
+    public static void invalidateQueries() {
+        List<CompiledQuery<?>> closing;
+        synchronized (queryCache) {
+            closing = new ArrayList<>(queryCache.values());
+            queryCache.clear();
+            closing.addAll(owned);
+            owned.clear();
+        }
+        for (CompiledQuery<?> compiled : closing) {
+            compiled.close();
+        }
+    }
+
+    public static void setQueryCacheSize(int queryCacheSize) {
+        synchronized (queryCache) {
+            DB.queryCacheSize = Math.max(0, queryCacheSize);
+            Iterator<CompiledQuery<?>> iterator = queryCache.values().iterator();
+            while (queryCache.size() > DB.queryCacheSize && iterator.hasNext()) {
+                evicted.add(iterator.next());
+                iterator.remove();
+            }
+        }
+        closeEvicted();
+    }
+
+    public static int getQueryCacheSize() {
+        return queryCacheSize;
+    }
+
+    /**
+     * Returns a version of the stored entities of a type. The version changes whenever entities of the type
+     * are put or removed, so results derived from them can be cached until it changes.
+     * The write paths of this library update the version through {@link #dataChanged(Class)} right after they
+     * commit, so it changes before they return. Other writes are picked up by a data observer of the store,
+     * which is notified shortly after their transaction is committed.
+     *
+     * @param entityClass The entity type
+     * @return The current version or -1 if no database is open
+     */
+    public static long getDataVersion(Class<?> entityClass) {
+        BoxStore db = getDb();
+        if (db == null) return -1;
+        AtomicLong version = dataVersions.get(entityClass);
+        if (version != null) return version.get();
+        synchronized (dataSubscriptions) {
+            version = dataVersions.get(entityClass);
+            if (version == null) {
+                AtomicLong created = new AtomicLong(dataSequence.incrementAndGet());
+                dataSubscriptions.add(db.subscribe(entityClass).onlyChanges()
+                        .observer(changed -> created.set(dataSequence.incrementAndGet())));
+                dataVersions.put(entityClass, created);
+                version = created;
+            }
+        }
+        return version.get();
+    }
+
+    /**
+     * Marks the stored entities of a type as changed right away, without waiting for the data observer.
+     * Call it after the transaction that changed the entities is committed, a reader could otherwise cache
+     * the data from before the change under the new version.
+     *
+     * @param entityClass The entity type
+     */
+    public static void dataChanged(Class<?> entityClass) {
+        AtomicLong version = dataVersions.get(entityClass);
+        if (version != null) version.set(dataSequence.incrementAndGet());
+    }
+
     public static <T> List<T> query(Class<T> entityClass, QueryBoxSpec<T> queryBoxSpec, int length, int offset) {
         List<T> results = new ArrayList<>();
         BoxStore db = getDb();
@@ -96,16 +222,108 @@ public class DB {
         return count;
     }
 
+    public static <T> Stream<T> stream(Class<T> entityClass, QueryBoxSpec<T> queryBoxSpec) {
+        return stream(entityClass, queryBoxSpec, DEFAULT_STREAM_CHUNK_SIZE, false);
+    }
+
+    /**
+     * Streams the results of a query. The results are read in chunks of at most chunkSize results in the order of
+     * their ids, so memory use does not grow with the number of results. The spec must not order the results.
+     * A parallel stream reads the id ranges of its splits concurrently. The chunks are read while the stream runs,
+     * so it is not a snapshot: results written in the meantime may be included or missed.
+     * The stream should be closed to release the queries of splits that were not read to the end.
+     *
+     * @param entityClass  The entity type
+     * @param queryBoxSpec The query
+     * @param chunkSize    The maximum number of entities read at once
+     * @param parallel     If true, a parallel stream is returned
+     * @return The results, empty if no database is open
+     */
+    public static <T> Stream<T> stream(Class<T> entityClass, QueryBoxSpec<T> queryBoxSpec, int chunkSize, boolean parallel) {
+        BoxStore db = getDb();
+        if (db == null) return Stream.empty();
+        Box<T> box = db.boxFor(entityClass);
+        if (box == null) return Stream.empty();
+        Property<T> id = box.getEntityInfo().getIdProperty();
+        long total;
+        long first;
+        long last;
+        try (Query<T> query = queryBoxSpec.buildQuery(box.query()).build()) {
+            total = query.count();
+            first = total > 0 ? query.property(id).min() : 0;
+            last = total > 0 ? query.property(id).max() : 0;
+        }
+        db.closeThreadResources();
+        if (total < 1) return Stream.empty();
+        List<CompiledQuery<?>> opened = new ArrayList<>();
+        // Chunks continue after the last id read, so the results have to come in the order of their ids
+        QueryBoxSpec<T> ranged = qb -> queryBoxSpec.buildQuery(qb).apply(id.between(0, 0).alias(QuerySpliterator.ID_RANGE)).order(id);
+        QuerySpliterator<T> spliterator = new QuerySpliterator<>(box, ranged, opened, first, last, chunkSize, total);
+        return StreamSupport.stream(spliterator, parallel).onClose(() -> {
+            List<CompiledQuery<?>> closing;
+            synchronized (opened) {
+                closing = new ArrayList<>(opened);
+                opened.clear();
+            }
+            for (CompiledQuery<?> compiled : closing) {
+                compiled.close();
+            }
+        });
+    }
+
+    /**
+     * Queries the results page by page. The list compiles the spec once for all of its pages, the compiled query
+     * belongs to the list and is not shared through the cache of {@link #compile(Class, QueryBoxSpec)}.
+     * It is released by {@link PagedList#close()}. Closing the database or {@link #invalidateQueries()} closes it
+     * as well, the list then compiles the spec again against the current database on its next read.
+     */
     public static <T> PagedList<T> queryPaged(Class<T> entityClass, QueryBoxSpec<T> queryBoxSpec, int pageLength) {
         ChunkGetter<T> chunkGetter = new ChunkGetter<T>() {
+            private CompiledQuery<T> query = null;
+
             @Override
             public List<T> getChunk(int length, int offset) {
-                return DB.query(entityClass, queryBoxSpec, length, offset);
+                CompiledQuery<T> compiled = compiled();
+                if (compiled == null) return new ArrayList<>();
+                return compiled.find(length, offset, null);
             }
 
             @Override
             public int getTotal() {
-                return (int) DB.count(entityClass, queryBoxSpec);
+                CompiledQuery<T> compiled = compiled();
+                if (compiled == null) return 0;
+                return (int) compiled.count(null);
+            }
+
+            @Override
+            public long getVersion() {
+                return getDataVersion(entityClass);
+            }
+
+            @Override
+            public synchronized void close() {
+                if (query == null) return;
+                synchronized (queryCache) {
+                    owned.remove(query);
+                }
+                query.close();
+                query = null;
+            }
+
+            private synchronized CompiledQuery<T> compiled() {
+                // A query closed by the invalidation belongs to a database that may be closed
+                if (query != null && !query.isClosed()) return query;
+                query = null;
+                BoxStore db = getDb();
+                if (db == null) return null;
+                Box<T> box = db.boxFor(entityClass);
+                if (box == null) return null;
+                CompiledQuery<T> compiled = new CompiledQuery<>(box, queryBoxSpec);
+                synchronized (queryCache) {
+                    owned.add(compiled);
+                }
+                query = compiled;
+                return query;
             }
         };
         return new PagedList<>(chunkGetter, pageLength);
@@ -137,17 +355,74 @@ public class DB {
             query.remove();
         }
         db.closeThreadResources();
+        dataChanged(entityClass);
         return true;
     }
 
     public static void closeDb() {
+        invalidateQueries();
+        cancelDataSubscriptions();
         if (database == null) return;
         database.close();
         database = null;
     }
 
     public static void cleanup() {
+        invalidateQueries();
+        cancelDataSubscriptions();
         if (database == null) return;
         database.close();
     }
+
+    private static void cancelDataSubscriptions() {
+        synchronized (dataSubscriptions) {
+            for (DataSubscription subscription : dataSubscriptions) {
+                subscription.cancel();
+            }
+            dataSubscriptions.clear();
+            // Versions of a store opened later start from the sequence, so they never match a cached one
+            dataVersions.clear();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> CompiledQuery<T> getCached(QueryKey key) {
+        return (CompiledQuery<T>) queryCache.get(key);
+    }
+
+    private static void closeEvicted() {
+        List<CompiledQuery<?>> closing;
+        synchronized (queryCache) {
+            if (evicted.isEmpty()) return;
+            closing = new ArrayList<>(evicted);
+            evicted.clear();
+        }
+        // Closed outside the cache lock, a query that is still running finishes first
+        for (CompiledQuery<?> compiled : closing) {
+            compiled.close();
+        }
+    }
+
+    private static final class QueryKey {
+        private final Class<?> entityClass;
+        private final QueryBoxSpec<?> queryBoxSpec;
+
+        QueryKey(Class<?> entityClass, QueryBoxSpec<?> queryBoxSpec) {
+            this.entityClass = entityClass;
+            this.queryBoxSpec = queryBoxSpec;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            QueryKey queryKey = (QueryKey) o;
+            return entityClass == queryKey.entityClass && queryBoxSpec == queryKey.queryBoxSpec;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * entityClass.hashCode() + System.identityHashCode(queryBoxSpec);
+        }
+    }
 }
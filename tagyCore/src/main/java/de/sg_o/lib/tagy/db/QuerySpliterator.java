@@ -0,0 +1,132 @@
+/*
+ *
+ *      Copyright (C) 2023 Joerg Bayer (SG-O)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sg_o.lib.tagy.db;
+
+import io.objectbox.Box;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Reads the results of a query in chunks of a fixed number of results, so only one chunk is held in memory at a time.
+ * The results are read in the order of their ids, each chunk starts after the last id of the previous one.
+ * A range of ids is split in halves, each half reads with its own compiled query and can be processed by another thread.
+ * The chunks are read while the stream runs, so results written in the meantime may be included or missed.
+ * The number of results is counted before and only reported as an estimate.
+ *
+ * @param <T> The entity type
+ */
+final class QuerySpliterator<T> implements Spliterator<T> {
+    static final String ID_RANGE = "idRange";
+
+    private final @NotNull Box<T> box;
+    private final @NotNull QueryBoxSpec<T> rangedSpec;
+    private final @NotNull List<CompiledQuery<?>> opened;
+    private final int chunkSize;
+
+    private long from;
+    private final long to;
+    private long estimate;
+
+    private CompiledQuery<T> query = null;
+    private Iterator<T> chunk = Collections.emptyIterator();
+
+    /**
+     * @param box        The box of the entity type
+     * @param rangedSpec The spec restricted to an id range with the alias {@value #ID_RANGE} and ordered by id
+     * @param opened     Collects the queries opened by this spliterator and its splits, so they can be closed with the stream
+     * @param from       The first id to read
+     * @param to         The last id to read
+     * @param chunkSize  The number of results read at once
+     * @param total      The estimated number of results in the range
+     */
+    QuerySpliterator(@NotNull Box<T> box, @NotNull QueryBoxSpec<T> rangedSpec, @NotNull List<CompiledQuery<?>> opened,
+                     long from, long to, int chunkSize, long total) {
+        this.box = box;
+        this.rangedSpec = rangedSpec;
+        this.opened = opened;
+        this.from = from;
+        this.to = to;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.estimate = total;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        while (!chunk.hasNext()) {
+            if (from > to) {
+                close();
+                return false;
+            }
+            long first = from;
+            List<T> read = query().find(chunkSize, 0, q -> q.setParameters(ID_RANGE, first, to));
+            // A short chunk reached the end of the range, otherwise the next chunk starts after its last id
+            from = read.size() < chunkSize ? to + 1 : box.getId(read.get(read.size() - 1)) + 1;
+            chunk = read.iterator();
+        }
+        if (estimate > 0) estimate--;
+        action.accept(chunk.next());
+        return true;
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        // A chunk that is already read would have to be encountered before the split off prefix
+        if (chunk.hasNext() || to <= from || estimate < chunkSize * 2L) return null;
+        long middle = from + (to - from) / 2;
+        long splitEstimate = estimate / 2;
+        QuerySpliterator<T> prefix = new QuerySpliterator<>(box, rangedSpec, opened, from, middle, chunkSize, splitEstimate);
+        from = middle + 1;
+        estimate -= splitEstimate;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return estimate;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+
+    private @NotNull CompiledQuery<T> query() {
+        if (query == null) {
+            query = new CompiledQuery<>(box, rangedSpec);
+            synchronized (opened) {
+                opened.add(query);
+            }
+        }
+        return query;
+    }
+
+    private void close() {
+        chunk = Collections.emptyIterator();
+        if (query == null) return;
+        query.close();
+        synchronized (opened) {
+            opened.remove(query);
+        }
+        query = null;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ *
+ *      Copyright (C) 2023 Joerg Bayer (SG-O)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sg_o.lib.tagy.query;
+
+import java.util.Arrays;
+
+/**
+ * The distribution of the values of a numeric or date tag, see {@link MetaDataQueryBuilder#histogram}.
+ * The range between the smallest and the largest value is split into buckets of equal width,
+ * the largest value is counted in the last bucket. Dates are given in milliseconds since the epoch.
+ */
+public class Histogram {
+    private final double min;
+    private final double max;
+    private final double sum;
+    private final long[] counts;
+    private final long count;
+
+    Histogram(double[] values, int buckets) {
+        double min = Double.NaN;
+        double max = Double.NaN;
+        double sum = 0;
+        for (double value : values) {
+            if (Double.isNaN(min) || value < min) min = value;
+            if (Double.isNaN(max) || value > max) max = value;
+            sum += value;
+        }
+        this.min = min;
+        this.max = max;
+        this.sum = sum;
+        this.count = values.length;
+        this.counts = new long[values.length < 1 ? 0 : Math.max(buckets, 1)];
+        for (double value : values) {
+            counts[bucket(value)]++;
+        }
+    }
+
+    private int bucket(double value) {
+        double width = (max - min) / counts.length;
+        if (width <= 0) return 0;
+        return (int) Math.min(counts.length - 1, Math.max(0, (long) ((value - min) / width)));
+    }
+
+    /**
+     * @return The smallest value or NaN if there are no values
+     */
+    public double getMin() {
+        return min;
+    }
+
+    /**
+     * @return The largest value or NaN if there are no values
+     */
+    public double getMax() {
+        return max;
+    }
+
+    /**
+     * @return The average value or NaN if there are no values
+     */
+    public double getAverage() {
+        if (count < 1) return Double.NaN;
+        return sum / count;
+    }
+
+    /**
+     * @return The number of values
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return The number of values per bucket, empty if there are no values
+     */
+    public long[] getCounts() {
+        return Arrays.copyOf(counts, counts.length);
+    }
+
+    public double getLowerBound(int bucket) {
+        return min + (max - min) * bucket / counts.length;
+    }
+
+    public double getUpperBound(int bucket) {
+        if (bucket >= counts.length - 1) return max;
+        return getLowerBound(bucket + 1);
+    }
+
+    @Override
+    public String toString() {
+        return "{"
+                + "\"min\": " + min
+                + ", \"max\": " + max
+                + ", \"count\": " + count
+                + ", \"counts\": " + Arrays.toString(counts)
+                + "}";
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ *
+ *      Copyright (C) 2023 Joerg Bayer (SG-O)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sg_o.lib.tagy.query;
+
+import de.sg_o.lib.tagy.data.MetaData;
+import de.sg_o.lib.tagy.db.DB;
+import de.sg_o.lib.tagy.util.ChunkGetter;
+import io.objectbox.BoxStore;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * Loads the chunks of a {@link de.sg_o.lib.tagy.util.PagedList} of query results by continuing after the id of
+ * the last meta data before the chunk.
+ * <p>
+ * The last id before each position a chunk was read from is remembered. A chunk starts at the closest remembered
+ * position before it, only the ids between that position and the chunk are looked up, no meta data is read for them.
+ * The positions are forgotten when the stored meta data changes.
+ */
+final class KeysetChunkGetter implements ChunkGetter<MetaData> {
+    private final @NotNull MetaDataQueryBuilder queryBuilder;
+    private final TreeMap<Integer, Long> lastIds = new TreeMap<>();
+    private long version = Long.MIN_VALUE;
+
+    KeysetChunkGetter(@NotNull MetaDataQueryBuilder queryBuilder) {
+        this.queryBuilder = queryBuilder;
+    }
+
+    @Override
+    public List<MetaData> getChunk(int length, int offset) {
+        List<MetaData> results = new ArrayList<>();
+        BoxStore db = DB.getDb();
+        if (db == null || length < 1 || offset < 0) return results;
+        long currentVersion = getVersion();
+        Map.Entry<Integer, Long> start;
+        synchronized (lastIds) {
+            if (currentVersion != version) {
+                lastIds.clear();
+                version = currentVersion;
+            }
+            lastIds.put(0, 0L);
+            start = lastIds.floorEntry(offset);
+        }
+        int skipped = offset - start.getKey();
+        long[] ids = queryBuilder.idsAfter(start.getValue(), skipped + length);
+        if (ids.length <= skipped) return results;
+        synchronized (lastIds) {
+            // Positions found with an outdated version would be mixed with the ones of the new version
+            if (currentVersion == version) {
+                if (skipped > 0) lastIds.put(offset, ids[skipped - 1]);
+                lastIds.put(start.getKey() + ids.length, ids[ids.length - 1]);
+            }
+        }
+        for (MetaData metaData : db.boxFor(MetaData.class).get(Arrays.copyOfRange(ids, skipped, ids.length))) {
+            if (metaData != null) results.add(metaData);
+        }
+        db.closeThreadResources();
+        return results;
+    }
+
+    @Override
+    public int getTotal() {
+        return (int) Math.min(Integer.MAX_VALUE, queryBuilder.count());
+    }
+
+    @Override
+    public long getVersion() {
+        return DB.getDataVersion(MetaData.class);
+    }
+}
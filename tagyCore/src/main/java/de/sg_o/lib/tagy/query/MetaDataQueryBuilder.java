@@ -21,14 +21,18 @@ import com.google.protobuf.Any;
 import de.sg_o.lib.tagy.Project;
 import de.sg_o.lib.tagy.data.MetaData;
 import de.sg_o.lib.tagy.data.MetaData_;
-import de.sg_o.lib.tagy.data.TagContainer;
+import de.sg_o.lib.tagy.data.TagBitmapIndex;
+import de.sg_o.lib.tagy.data.TagIndexEntry;
 import de.sg_o.lib.tagy.db.DB;
-import de.sg_o.lib.tagy.db.QueryBoxSpec;
+import de.sg_o.lib.tagy.def.TagDefinition;
+import de.sg_o.lib.tagy.util.PagedList;
 import de.sg_o.proto.tagy.query.MetaDataQueryBuilderProto;
+import io.objectbox.BoxStore;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class MetaDataQueryBuilder {
     private final @NotNull Project project;
@@ -53,27 +57,147 @@ public class MetaDataQueryBuilder {
         queryProperties.add(queryProperty);
     }
 
+    /**
+     * Queries the meta data matching all query elements, see {@link QueryPlanner} for the order they are evaluated in.
+     * Conditions on enum and boolean tags are answered from the {@link TagBitmapIndex}. If the tag index of the
+     * project is current, elements that can be answered by the {@link TagIndexEntry} are looked up there as well.
+     * The remaining elements are evaluated by the database, only elements that can not be expressed there
+     * (like lists that must match all entries) are checked on the candidates the database found.
+     *
+     * @param length The maximum number of results, 0 for all
+     * @param offset The number of results to skip
+     * @return The matching meta data in the order of their ids
+     * @see #queryAfter(long, int) Pages far from the start are cheaper to read after the last id of the previous page
+     */
     public List<MetaData> query(int length, int offset) {
-        QueryBoxSpec<MetaData> qbs = qb -> {
-            qb.equal(MetaData_.projectId, project.getId());
-            for (QueryElement queryElement : queryProperties) {
-                io.objectbox.query.QueryBuilder<TagContainer> tcQb = qb.link(MetaData_.tagContainers);
-                queryElement.generateQuerySpec().buildQuery(tcQb);
-            }
-            qb.filter((candidate) -> {
-                for (QueryElement queryElement : queryProperties) {
-                    List<TagContainer> containers = candidate.getTagContainers();
-                    for (TagContainer container : containers) {
-                        if (container.resolveTagDefinition().getKey().equals(queryElement.getKey())) {
-                            if (!queryElement.matches(container)) return false;
-                        }
-                    }
+        List<MetaData> results = new ArrayList<>();
+        BoxStore db = DB.getDb();
+        if (db == null) return results;
+        QueryPlanner planner = new QueryPlanner(project);
+        // A page only needs the ids up to its end, the planner stops there if the database query is the last step
+        long[] ids = length < 1 ? planner.all(queryProperties, null)
+                : planner.page(queryProperties, (int) Math.min(Integer.MAX_VALUE, (long) Math.max(offset, 0) + length));
+        int from = Math.min(Math.max(offset, 0), ids.length);
+        int to = length < 1 ? ids.length : (int) Math.min(ids.length, (long) from + length);
+        for (MetaData metaData : db.boxFor(MetaData.class).get(Arrays.copyOfRange(ids, from, to))) {
+            if (metaData != null) results.add(metaData);
+        }
+        db.closeThreadResources();
+        return results;
+    }
+
+    /**
+     * Queries the page of matching meta data that follows the meta data with the given id. Pages continue after
+     * the last id of the previous page instead of skipping an offset, so later pages cost the same as the first
+     * one and meta data added or removed in front of the page does not shift it.
+     *
+     * @param afterId The id of the last meta data of the previous page, 0 for the first page
+     * @param length  The maximum number of results
+     * @return The matching meta data in the order of their ids
+     */
+    public List<MetaData> queryAfter(long afterId, int length) {
+        List<MetaData> results = new ArrayList<>();
+        BoxStore db = DB.getDb();
+        if (db == null || length < 1) return results;
+        long[] ids = idsAfter(afterId, length);
+        for (MetaData metaData : db.boxFor(MetaData.class).get(ids)) {
+            if (metaData != null) results.add(metaData);
+        }
+        db.closeThreadResources();
+        return results;
+    }
+
+    /**
+     * Streams the matching meta data in the order of their ids. The results are read in pages with
+     * {@link #queryAfter(long, int)}, so only one page is held in memory at a time.
+     *
+     * @param pageLength The number of meta data read at once
+     * @return The matching meta data
+     */
+    public Stream<MetaData> stream(int pageLength) {
+        Iterator<MetaData> iterator = new Iterator<MetaData>() {
+            private Iterator<MetaData> page = Collections.emptyIterator();
+            private long lastId = 0;
+            private boolean exhausted = false;
+
+            @Override
+            public boolean hasNext() {
+                if (!page.hasNext() && !exhausted) {
+                    List<MetaData> read = queryAfter(lastId, Math.max(pageLength, 1));
+                    exhausted = read.size() < Math.max(pageLength, 1);
+                    if (!read.isEmpty()) lastId = read.get(read.size() - 1).getId();
+                    page = read.iterator();
                 }
-                return true;
-            });
-            return qb;
+                return page.hasNext();
+            }
+
+            @Override
+            public MetaData next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return page.next();
+            }
         };
-        return DB.query(MetaData.class, qbs, length, offset);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Lists the matching meta data in the order of their ids. Pages are read with {@link #queryAfter(long, int)},
+     * continuing after the last id of the closest page read before, see {@link KeysetChunkGetter}.
+     *
+     * @param pageLength The length of the pages of the list
+     * @return The matching meta data
+     */
+    public PagedList<MetaData> queryPaged(int pageLength) {
+        return new PagedList<>(new KeysetChunkGetter(this), pageLength);
+    }
+
+    /**
+     * @return The number of meta data matching all query elements
+     */
+    public long count() {
+        long[] matched = matched();
+        if (matched != null) return matched.length;
+        if (project.getId() == null) return 0;
+        return DB.count(MetaData.class, qb -> qb.apply(MetaData_.projectId.equal(project.getId())));
+    }
+
+    /**
+     * Counts the tags of a definition per value over the meta data matching all query elements.
+     * Enumerators and boolean values are listed in their order, including values no tag holds,
+     * other values are ordered by their count. Enumerators are listed by name, dates in ISO 8601.
+     *
+     * @param tagDefinition The definition of the tags to count, lists are not counted
+     * @return The number of tags per value
+     */
+    public @NotNull Map<String, Long> facet(@NotNull TagDefinition tagDefinition) {
+        return new TagAggregation(project, tagDefinition, matched()).facet();
+    }
+
+    /**
+     * Collects the values of a numeric or date tag over the meta data matching all query elements.
+     * The histogram also holds the smallest, the largest and the average value.
+     *
+     * @param tagDefinition The definition of a {@code LONG}, {@code DOUBLE} or {@code DATE} tag
+     * @param buckets       The number of buckets the range of the values is split into
+     * @return The distribution of the values, empty for other types of tags
+     */
+    public @NotNull Histogram histogram(@NotNull TagDefinition tagDefinition, int buckets) {
+        return new TagAggregation(project, tagDefinition, matched()).histogram(buckets);
+    }
+
+    /**
+     * @return The ids of the page of matching meta data that follows the meta data with the given id
+     */
+    long[] idsAfter(long afterId, int length) {
+        return new QueryPlanner(project, afterId).page(queryProperties, length);
+    }
+
+    /**
+     * @return The ids of the matching meta data, or null if all meta data of the project matches
+     */
+    private long[] matched() {
+        if (queryProperties.isEmpty()) return null;
+        return new QueryPlanner(project).all(queryProperties, null);
     }
 
     public MetaDataQueryBuilderProto.MetaDataQueryBuilder getAsProto() {
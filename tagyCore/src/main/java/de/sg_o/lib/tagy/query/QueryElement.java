@@ -19,15 +19,34 @@ package de.sg_o.lib.tagy.query;
 
 import com.google.protobuf.Any;
 import com.google.protobuf.InvalidProtocolBufferException;
+import de.sg_o.lib.tagy.data.TagBitmapIndex;
 import de.sg_o.lib.tagy.data.TagContainer;
+import de.sg_o.lib.tagy.data.TagContainer_;
+import de.sg_o.lib.tagy.data.TagIndexEntry;
+import de.sg_o.lib.tagy.db.DB;
 import de.sg_o.lib.tagy.db.QueryBoxSpec;
 import de.sg_o.lib.tagy.def.TagDefinition;
+import de.sg_o.lib.tagy.def.TagDefinition_;
+import de.sg_o.lib.tagy.query.modifiers.QueryGroup;
 import de.sg_o.lib.tagy.query.modifiers.QueryInternal;
 import de.sg_o.lib.tagy.query.properties.*;
 import de.sg_o.proto.tagy.query.*;
+import io.objectbox.BoxStore;
+import io.objectbox.query.Query;
+import io.objectbox.query.QueryBuilder;
+import io.objectbox.query.QueryCondition;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.BitSet;
+
 public abstract class QueryElement {
+    /**
+     * Estimated share of meta data matching a condition on a single value, a range and a bounded range.
+     */
+    protected static final double SELECTIVITY_EQUAL = 0.1;
+    protected static final double SELECTIVITY_RANGE = 1.0 / 3.0;
+    protected static final double SELECTIVITY_BETWEEN = 0.25;
+    protected static final double SELECTIVITY_UNKNOWN = 0.5;
 
     public final TagDefinition tagDefinition;
 
@@ -45,7 +64,11 @@ public abstract class QueryElement {
         return tagDefinition;
     }
 
+    /**
+     * @return The key of the tags this element applies to, or null for elements not bound to a tag like groups
+     */
     public String getKey() {
+        if (tagDefinition == null) return null;
         return tagDefinition.getKey();
     }
 
@@ -53,6 +76,59 @@ public abstract class QueryElement {
 
     public abstract boolean matches(TagContainer tc);
 
+    /**
+     * @return The estimated share of the meta data matching this element, from 0 to 1.
+     * Elements that match fewer meta data are evaluated first. The estimate only depends on the type of the element,
+     * the {@link QueryPlanner} uses it for elements it can not measure on an index.
+     */
+    public double estimateSelectivity() {
+        return SELECTIVITY_UNKNOWN;
+    }
+
+    /**
+     * @return true if the query spec finds more tag containers than {@link #matches(TagContainer)} accepts,
+     * so the results have to be checked in addition
+     */
+    public boolean requiresFilter() {
+        return false;
+    }
+
+    /**
+     * Restricts tag containers to the tag definitions with the key of this element. The ids of the definitions
+     * are looked up when the query is built, so the condition is checked on the indexed relation
+     * instead of linking every candidate to its definition.
+     */
+    protected @NotNull QueryCondition<TagContainer> keyCondition() {
+        long[] ids = new long[0];
+        BoxStore db = DB.getDb();
+        if (db != null) {
+            try (Query<TagDefinition> query = db.boxFor(TagDefinition.class)
+                    .query(TagDefinition_.key.equal(getKey(), QueryBuilder.StringOrder.CASE_SENSITIVE)).build()) {
+                ids = query.findIds();
+            }
+        }
+        // Without a definition of the key nothing can match, ids start at 1
+        if (ids.length < 1) return TagContainer_.id.equal(0);
+        return TagContainer_.tagDefinitionId.oneOf(ids);
+    }
+
+    /**
+     * @return The condition on the value of a {@link TagIndexEntry} with the key of this element
+     * or null if the element can not be answered by the tag index
+     */
+    public QueryCondition<TagIndexEntry> getIndexCondition() {
+        return null;
+    }
+
+    /**
+     * @param bitmaps The bitmaps of the project
+     * @return The ids of the meta data matching this element, or null if the element can not be answered
+     * by the {@link TagBitmapIndex}
+     */
+    public BitSet evaluateBitmap(@NotNull TagBitmapIndex bitmaps) {
+        return null;
+    }
+
     public abstract com.google.protobuf.GeneratedMessageV3 getAsProto();
 
     public QueryElementProto.QueryElement getSuperProto() {
@@ -66,6 +142,8 @@ public abstract class QueryElement {
         try {
             if (any.is(QueryInternalProto.QueryInternal.class)) {
                 return new QueryInternal(any.unpack(QueryInternalProto.QueryInternal.class));
+            } else if (any.is(QueryGroupProto.QueryGroup.class)) {
+                return new QueryGroup(any.unpack(QueryGroupProto.QueryGroup.class));
             } else if (any.is(BetweenProto.Between.class)) {
                 return new Between(any.unpack(BetweenProto.Between.class));
             } else if (any.is(ContainsProto.Contains.class)) {
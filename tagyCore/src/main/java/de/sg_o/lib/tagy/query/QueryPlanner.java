@@ -0,0 +1,390 @@
+/*
+ *
+ *      Copyright (C) 2023 Joerg Bayer (SG-O)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sg_o.lib.tagy.query;
+
+import de.sg_o.lib.tagy.Project;
+import de.sg_o.lib.tagy.data.MetaData;
+import de.sg_o.lib.tagy.data.MetaData_;
+import de.sg_o.lib.tagy.data.TagBitmapIndex;
+import de.sg_o.lib.tagy.data.TagContainer;
+import de.sg_o.lib.tagy.data.TagIndexEntry;
+import de.sg_o.lib.tagy.data.TagIndexEntry_;
+import de.sg_o.lib.tagy.db.DB;
+import de.sg_o.lib.tagy.query.modifiers.QueryGroup;
+import de.sg_o.proto.tagy.query.QueryGroupProto;
+import io.objectbox.BoxStore;
+import io.objectbox.query.Query;
+import io.objectbox.query.QueryBuilder;
+import io.objectbox.query.QueryCondition;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * Evaluates query elements to the ids of the meta data of a project they match.
+ * <p>
+ * The elements of a conjunction are evaluated in this order, each restricted to the meta data matched so far:
+ * <ol>
+ *     <li>Elements answered by the {@link TagBitmapIndex} or the {@link TagIndexEntry} table, and groups made of
+ *     such elements, the most selective first</li>
+ *     <li>All remaining elements on tags in a single database query</li>
+ *     <li>The remaining groups, the most selective first</li>
+ *     <li>{@code NOT} groups, which remove the meta data they match</li>
+ * </ol>
+ * Evaluation stops as soon as no meta data is left.
+ * <p>
+ * The selectivity of an element answered by an index is the share of the meta data it actually matches, read from
+ * its bitmap or the ids found in the tag index. Only elements that need the database fall back to
+ * {@link QueryElement#estimateSelectivity()}.
+ * <p>
+ * A planner can be bound to the meta data after an id, so a page of results continues after the last
+ * meta data of the previous page. Every step of the evaluation only looks at the ids after the bound.
+ */
+final class QueryPlanner {
+    private final @NotNull Project project;
+    private final boolean tagIndexCurrent;
+    private final long after;
+    private final Map<QueryElement, BitSet> bitmapResults = new IdentityHashMap<>();
+    private final Map<QueryElement, long[]> indexResults = new IdentityHashMap<>();
+    private long total = -1;
+    private TagBitmapIndex bitmaps = null;
+    private boolean bitmapsOpened = false;
+
+    QueryPlanner(@NotNull Project project) {
+        this(project, 0);
+    }
+
+    /**
+     * @param project The project
+     * @param after   Only meta data with a larger id is matched, 0 for all meta data
+     */
+    QueryPlanner(@NotNull Project project, long after) {
+        this.project = project;
+        this.tagIndexCurrent = TagIndexEntry.isCurrent(project);
+        this.after = Math.max(after, 0);
+    }
+
+    /**
+     * Evaluates a page of the meta data matching all elements. If the database query is the last step of the
+     * evaluation, it stops after the page is found, so a page costs the same no matter how far it is from the start.
+     *
+     * @param queryElements The elements that all have to match
+     * @param length        The maximum number of ids
+     * @return The first ids of the matching meta data after the bound in ascending order
+     */
+    long[] page(@NotNull List<QueryElement> queryElements, int length) {
+        long[] matched = all(queryElements, null, Math.max(length, 1));
+        return matched.length > length ? Arrays.copyOf(matched, Math.max(length, 0)) : matched;
+    }
+
+    /**
+     * @param queryElements The elements that all have to match
+     * @param candidates    The ids of the meta data to look at in ascending order, null for all meta data
+     * @return The ids of the matching meta data in ascending order
+     */
+    long[] all(@NotNull List<QueryElement> queryElements, long[] candidates) {
+        return all(queryElements, candidates, 0);
+    }
+
+    private long[] all(@NotNull List<QueryElement> queryElements, long[] candidates, int limit) {
+        List<QueryElement> indexed = new ArrayList<>();
+        List<QueryElement> database = new ArrayList<>();
+        List<QueryElement> groups = new ArrayList<>();
+        List<QueryGroup> negated = new ArrayList<>();
+        for (QueryElement queryElement : queryElements) {
+            if (isOperator(queryElement, QueryGroupProto.GroupOperator.NOT)) {
+                negated.add((QueryGroup) queryElement);
+            } else if (isIndexed(queryElement)) {
+                indexed.add(queryElement);
+            } else if (queryElement instanceof QueryGroup) {
+                groups.add(queryElement);
+            } else {
+                database.add(queryElement);
+            }
+        }
+        // Measuring reads the whole index of an element, which is only worth it if there is an order to find
+        Comparator<QueryElement> selectivity = Comparator.comparingDouble(this::selectivity);
+        if (indexed.size() > 1) indexed.sort(selectivity);
+        if (groups.size() > 1) groups.sort(selectivity);
+
+        long[] matched = candidates;
+        for (QueryElement queryElement : indexed) {
+            matched = evaluate(queryElement, matched);
+            if (matched.length < 1) return matched;
+        }
+        // Without any restriction so far, all meta data of the project is looked up
+        if (!database.isEmpty() || matched == null) {
+            // Only the last step may stop early, the steps after it would remove ids from the page
+            matched = query(database, matched, groups.isEmpty() && negated.isEmpty() ? limit : 0);
+            if (matched.length < 1) return matched;
+        }
+        for (QueryElement queryElement : groups) {
+            matched = evaluate(queryElement, matched);
+            if (matched.length < 1) return matched;
+        }
+        for (QueryGroup queryGroup : negated) {
+            matched = difference(matched, any(queryGroup.getQueryElements(), matched));
+            if (matched.length < 1) return matched;
+        }
+        return matched;
+    }
+
+    /**
+     * @param queryElements The elements of which at least one has to match
+     * @param candidates    The ids of the meta data to look at in ascending order, null for all meta data
+     * @return The ids of the matching meta data in ascending order
+     */
+    long[] any(@NotNull List<QueryElement> queryElements, long[] candidates) {
+        long[] matched = new long[0];
+        for (QueryElement queryElement : queryElements) {
+            matched = union(matched, evaluate(queryElement, candidates));
+        }
+        return matched;
+    }
+
+    private long[] evaluate(@NotNull QueryElement queryElement, long[] candidates) {
+        if (queryElement instanceof QueryGroup) {
+            QueryGroup queryGroup = (QueryGroup) queryElement;
+            switch (queryGroup.getOperator()) {
+                case OR:
+                    return any(queryGroup.getQueryElements(), candidates);
+                case NOT:
+                    long[] base = candidates == null ? query(Collections.emptyList(), null, 0) : candidates;
+                    return difference(base, any(queryGroup.getQueryElements(), base));
+                default:
+                    return all(queryGroup.getQueryElements(), candidates);
+            }
+        }
+        BitSet bits = bitmap(queryElement);
+        if (bits != null) {
+            long[] ids = bounded(TagBitmapIndex.toIds(bits));
+            return candidates == null ? ids : intersect(candidates, ids);
+        }
+        long[] indexed = indexResults.get(queryElement);
+        if (indexed != null) return candidates == null ? indexed : intersect(candidates, indexed);
+        QueryCondition<TagIndexEntry> condition = indexCondition(queryElement);
+        if (condition != null) return TagIndexEntry.findMetaDataIds(project, queryElement.getKey(), condition, candidates);
+        return query(Collections.singletonList(queryElement), candidates, 0);
+    }
+
+    /**
+     * @return The share of the meta data of the project matching the element, from 0 to 1
+     */
+    private double selectivity(@NotNull QueryElement queryElement) {
+        if (queryElement instanceof QueryGroup) return ((QueryGroup) queryElement).estimateSelectivity(this::selectivity);
+        long matching;
+        BitSet bits = bitmap(queryElement);
+        if (bits != null) {
+            matching = bits.cardinality();
+        } else {
+            QueryCondition<TagIndexEntry> condition = indexCondition(queryElement);
+            if (condition == null) return queryElement.estimateSelectivity();
+            long[] ids = indexResults.get(queryElement);
+            if (ids == null) {
+                ids = TagIndexEntry.findMetaDataIds(project, queryElement.getKey(), condition);
+                indexResults.put(queryElement, ids);
+            }
+            matching = ids.length;
+        }
+        long count = total();
+        if (count < 1) return 0;
+        return Math.min(1.0, matching / (double) count);
+    }
+
+    private QueryCondition<TagIndexEntry> indexCondition(@NotNull QueryElement queryElement) {
+        QueryCondition<TagIndexEntry> condition = tagIndexCurrent ? queryElement.getIndexCondition() : null;
+        if (condition != null && after > 0) condition = condition.and(TagIndexEntry_.metaDataId.greater(after));
+        return condition;
+    }
+
+    /**
+     * @return The number of meta data of the project
+     */
+    private long total() {
+        if (total >= 0) return total;
+        BoxStore db = DB.getDb();
+        if (db == null || project.getId() == null) {
+            total = 0;
+            return total;
+        }
+        try (Query<MetaData> query = db.boxFor(MetaData.class).query(MetaData_.projectId.equal(project.getId())).build()) {
+            total = query.count();
+        }
+        return total;
+    }
+
+    /**
+     * @return The ids of a sorted array after the bound
+     */
+    private long[] bounded(long[] ids) {
+        if (after < 1) return ids;
+        int from = Arrays.binarySearch(ids, after);
+        from = from < 0 ? -from - 1 : from + 1;
+        return Arrays.copyOfRange(ids, from, ids.length);
+    }
+
+    /**
+     * @return true if the element can be answered without a query on the tags
+     */
+    private boolean isIndexed(@NotNull QueryElement queryElement) {
+        if (queryElement instanceof QueryGroup) {
+            if (isOperator(queryElement, QueryGroupProto.GroupOperator.NOT)) return false;
+            for (QueryElement child : ((QueryGroup) queryElement).getQueryElements()) {
+                if (!isIndexed(child)) return false;
+            }
+            return true;
+        }
+        if (bitmap(queryElement) != null) return true;
+        return tagIndexCurrent && queryElement.getIndexCondition() != null;
+    }
+
+    private static boolean isOperator(@NotNull QueryElement queryElement, @NotNull QueryGroupProto.GroupOperator operator) {
+        return queryElement instanceof QueryGroup && ((QueryGroup) queryElement).getOperator() == operator;
+    }
+
+    private BitSet bitmap(@NotNull QueryElement queryElement) {
+        if (!TagBitmapIndex.isIndexed(queryElement.getTagDefinition())) return null;
+        if (bitmapResults.containsKey(queryElement)) return bitmapResults.get(queryElement);
+        if (!bitmapsOpened) {
+            bitmaps = TagBitmapIndex.open(project);
+            bitmapsOpened = true;
+        }
+        BitSet bits = bitmaps == null ? null : queryElement.evaluateBitmap(bitmaps);
+        bitmapResults.put(queryElement, bits);
+        return bits;
+    }
+
+    /**
+     * Queries the meta data with tags matching all elements in the database. Elements that can not be expressed
+     * there (like lists that must match all entries) are checked on the candidates the database found.
+     *
+     * @param limit The number of ids after which the query may stop, 0 for all. Not applied if elements are
+     *              checked on the candidates, as the database can not tell how many of them match.
+     */
+    private long[] query(@NotNull List<QueryElement> queryElements, long[] candidates, int limit) {
+        BoxStore db = DB.getDb();
+        if (db == null || project.getId() == null) return new long[0];
+        if (candidates != null && candidates.length < 1) return new long[0];
+        List<QueryElement> filtered = new ArrayList<>();
+        for (QueryElement queryElement : queryElements) {
+            if (queryElement.requiresFilter()) filtered.add(queryElement);
+        }
+        QueryBuilder<MetaData> qb = db.boxFor(MetaData.class).query(MetaData_.projectId.equal(project.getId()));
+        if (candidates != null) qb.apply(MetaData_.id.oneOf(candidates));
+        if (after > 0) qb.apply(MetaData_.id.greater(after));
+        for (QueryElement queryElement : queryElements) {
+            QueryBuilder<TagContainer> tcQb = qb.link(MetaData_.tagContainers);
+            queryElement.generateQuerySpec().buildQuery(tcQb);
+        }
+        long[] ids;
+        if (filtered.isEmpty() && limit > 0) {
+            qb.order(MetaData_.id);
+            try (Query<MetaData> query = qb.build()) {
+                ids = query.findIds(0, limit);
+            }
+        } else if (filtered.isEmpty()) {
+            try (Query<MetaData> query = qb.build()) {
+                ids = query.findIds();
+            }
+        } else {
+            // Filters are not applied when only ids are read
+            qb.filter(candidate -> matches(candidate, filtered));
+            List<MetaData> found;
+            try (Query<MetaData> query = qb.build()) {
+                found = query.find();
+            }
+            ids = new long[found.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = found.get(i).getId();
+            }
+        }
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    private static boolean matches(@NotNull MetaData candidate, @NotNull List<QueryElement> filtered) {
+        List<TagContainer> containers = candidate.getTagContainers();
+        for (QueryElement queryElement : filtered) {
+            for (TagContainer container : containers) {
+                if (container.resolveTagDefinition().getKey().equals(queryElement.getKey())) {
+                    if (!queryElement.matches(container)) return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The ids contained in both sorted arrays
+     */
+    static long[] intersect(long[] a, long[] b) {
+        long[] result = new long[Math.min(a.length, b.length)];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * @return The ids contained in any of the sorted arrays
+     */
+    static long[] union(long[] a, long[] b) {
+        long[] result = new long[a.length + b.length];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length || j < b.length) {
+            if (j >= b.length || (i < a.length && a[i] < b[j])) {
+                result[count++] = a[i++];
+            } else if (i >= a.length || b[j] < a[i]) {
+                result[count++] = b[j++];
+            } else {
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * @return The ids of the first sorted array not contained in the second
+     */
+    static long[] difference(long[] a, long[] b) {
+        long[] result = new long[a.length];
+        int count = 0;
+        int j = 0;
+        for (long id : a) {
+            while (j < b.length && b[j] < id) j++;
+            if (j < b.length && b[j] == id) continue;
+            result[count++] = id;
+        }
+        return Arrays.copyOf(result, count);
+    }
+}
@@ -18,10 +18,8 @@
 package de.sg_o.lib.tagy.query;
 
 import de.sg_o.lib.tagy.data.TagContainer;
-import de.sg_o.lib.tagy.data.TagContainer_;
 import de.sg_o.lib.tagy.db.QueryBoxSpec;
 import de.sg_o.lib.tagy.def.TagDefinition;
-import de.sg_o.lib.tagy.def.TagDefinition_;
 import de.sg_o.proto.tagy.query.QueryElementProto;
 import org.jetbrains.annotations.NotNull;
 
@@ -39,9 +37,7 @@ public abstract class QueryProperty extends QueryElement {
 
     public @NotNull QueryBoxSpec<TagContainer> generateQuerySpec() {
         return qb -> {
-            qb.link(TagContainer_.tagDefinition)
-                    .apply(TagDefinition_.key.equal(getKey(), io.objectbox.query.QueryBuilder.StringOrder.CASE_SENSITIVE));
-            qb.apply(getTagContainerQuerySpec().getQuery());
+            qb.apply(keyCondition().and(getTagContainerQuerySpec().getQuery()));
             return qb;
         };
     }
@@ -0,0 +1,264 @@
+/*
+ *
+ *      Copyright (C) 2023 Joerg Bayer (SG-O)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sg_o.lib.tagy.query;
+
+import de.sg_o.lib.tagy.Project;
+import de.sg_o.lib.tagy.data.*;
+import de.sg_o.lib.tagy.db.DB;
+import de.sg_o.lib.tagy.db.QueryBoxSpec;
+import de.sg_o.lib.tagy.def.TagDefinition;
+import de.sg_o.proto.tagy.TagDefinitionProto;
+import io.objectbox.BoxStore;
+import io.objectbox.query.PropertyQuery;
+import io.objectbox.query.Query;
+import io.objectbox.query.QueryBuilder;
+import io.objectbox.query.QueryCondition;
+import org.jetbrains.annotations.NotNull;
+
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.DoubleStream;
+import java.util.stream.Stream;
+
+/**
+ * Aggregates the values of the tags of one key over meta data of a project.
+ * <p>
+ * Enum and boolean tags are counted on the {@link TagBitmapIndex}. Other values are read with a single
+ * {@link PropertyQuery} on the {@link TagIndexEntry} table if the tag index of the project is current.
+ * Otherwise the meta data is read in parallel over id ranges and the values are taken from its tags.
+ */
+final class TagAggregation {
+    private final @NotNull Project project;
+    private final @NotNull TagDefinition definition;
+    private final long[] matched;
+
+    /**
+     * @param project    The project
+     * @param definition The definition of the tags to aggregate
+     * @param matched    The ids of the meta data to aggregate in ascending order, null for all meta data
+     */
+    TagAggregation(@NotNull Project project, @NotNull TagDefinition definition, long[] matched) {
+        this.project = project;
+        this.definition = definition;
+        this.matched = matched;
+    }
+
+    /**
+     * Counts the tags per value. Enumerators and boolean values are listed in their order, including values
+     * no tag holds, other values are ordered by their count. Tags without a value are not counted.
+     */
+    @NotNull Map<String, Long> facet() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        switch (definition.getType()) {
+            case ENUM:
+                for (String enumerator : definition.getEnumerators()) {
+                    counts.put(enumerator, 0L);
+                }
+                break;
+            case BOOLEAN:
+                counts.put(Boolean.FALSE.toString(), 0L);
+                counts.put(Boolean.TRUE.toString(), 0L);
+                break;
+            case LIST:
+                return counts;
+            default:
+                break;
+        }
+        TagBitmapIndex bitmaps = TagBitmapIndex.isIndexed(definition) ? TagBitmapIndex.open(project) : null;
+        if (bitmaps != null) {
+            BitSet restriction = null;
+            if (matched != null) {
+                restriction = new BitSet();
+                for (long id : matched) {
+                    restriction.set((int) id);
+                }
+            }
+            long values = definition.getType() == TagDefinitionProto.Type.BOOLEAN
+                    ? 2 : definition.getEnumerators().size();
+            for (long value = 0; value < values; value++) {
+                BitSet bits = bitmaps.get(definition.getKey(), value);
+                if (restriction != null) bits.and(restriction);
+                counts.merge(label(value), (long) bits.cardinality(), Long::sum);
+            }
+            return counts;
+        }
+
+        Map<String, Long> found;
+        Query<TagIndexEntry> indexQuery = indexQuery();
+        if (indexQuery != null) {
+            found = new HashMap<>();
+            try {
+                PropertyQuery indexed = values(indexQuery);
+                switch (definition.getType()) {
+                    case STRING:
+                        for (String value : indexed.findStrings()) {
+                            found.merge(value, 1L, Long::sum);
+                        }
+                        break;
+                    case DOUBLE:
+                        for (double value : indexed.findDoubles()) {
+                            found.merge(Double.toString(value), 1L, Long::sum);
+                        }
+                        break;
+                    default:
+                        for (long value : indexed.findLongs()) {
+                            found.merge(label(value), 1L, Long::sum);
+                        }
+                        break;
+                }
+            } finally {
+                indexQuery.close();
+            }
+        } else {
+            try (Stream<TagContainer> tags = tags()) {
+                found = tags.map(this::label).filter(Objects::nonNull)
+                        .collect(Collectors.groupingByConcurrent(Function.identity(), Collectors.counting()));
+            }
+        }
+        if (!counts.isEmpty()) {
+            for (Map.Entry<String, Long> entry : found.entrySet()) {
+                counts.merge(entry.getKey(), entry.getValue(), Long::sum);
+            }
+            return counts;
+        }
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(found.entrySet());
+        entries.sort(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+        for (Map.Entry<String, Long> entry : entries) {
+            counts.put(entry.getKey(), entry.getValue());
+        }
+        return counts;
+    }
+
+    /**
+     * Collects the values of numeric and date tags into a histogram.
+     */
+    @NotNull Histogram histogram(int buckets) {
+        double[] values;
+        switch (definition.getType()) {
+            case LONG:
+            case DATE:
+            case DOUBLE:
+                break;
+            default:
+                return new Histogram(new double[0], buckets);
+        }
+        Query<TagIndexEntry> indexQuery = indexQuery();
+        if (indexQuery != null) {
+            try {
+                PropertyQuery indexed = values(indexQuery);
+                if (definition.getType() == TagDefinitionProto.Type.DOUBLE) {
+                    values = indexed.findDoubles();
+                } else {
+                    long[] longs = indexed.findLongs();
+                    values = new double[longs.length];
+                    for (int i = 0; i < longs.length; i++) {
+                        values[i] = longs[i];
+                    }
+                }
+            } finally {
+                indexQuery.close();
+            }
+        } else {
+            try (Stream<TagContainer> tags = tags()) {
+                boolean doubles = definition.getType() == TagDefinitionProto.Type.DOUBLE;
+                values = tags.flatMapToDouble(tag -> {
+                    Number value = tag.getLongValue();
+                    if (doubles) value = tag.getDoubleValue();
+                    return value == null ? DoubleStream.empty() : DoubleStream.of(value.doubleValue());
+                }).toArray();
+            }
+        }
+        return new Histogram(values, buckets);
+    }
+
+    /**
+     * @return The query on the entries of the tags in the tag index, or null if the index is not current.
+     * The query has to be closed after use.
+     */
+    private Query<TagIndexEntry> indexQuery() {
+        BoxStore db = DB.getDb();
+        if (db == null || project.getId() == null || !TagIndexEntry.isCurrent(project)) return null;
+        QueryCondition<TagIndexEntry> condition = TagIndexEntry_.tagKey.equal(definition.getKey(), QueryBuilder.StringOrder.CASE_SENSITIVE)
+                .and(TagIndexEntry_.projectId.equal(project.getId()));
+        if (matched != null) condition = condition.and(TagIndexEntry_.metaDataId.oneOf(matched));
+        return db.boxFor(TagIndexEntry.class).query(condition).build();
+    }
+
+    private @NotNull PropertyQuery values(@NotNull Query<TagIndexEntry> indexQuery) {
+        switch (definition.getType()) {
+            case STRING:
+                return indexQuery.property(TagIndexEntry_.stringValue);
+            case DOUBLE:
+                return indexQuery.property(TagIndexEntry_.doubleValue);
+            default:
+                return indexQuery.property(TagIndexEntry_.longValue);
+        }
+    }
+
+    /**
+     * @return The top level tags of the key, read in parallel. The stream should be closed after use.
+     */
+    private @NotNull Stream<TagContainer> tags() {
+        QueryBoxSpec<MetaData> qbs = qb -> {
+            qb.apply(MetaData_.projectId.equal(project.getId()));
+            if (matched != null) qb.apply(MetaData_.id.oneOf(matched));
+            return qb;
+        };
+        String key = definition.getKey();
+        return DB.stream(MetaData.class, qbs, DB.DEFAULT_STREAM_CHUNK_SIZE, true)
+                .flatMap(metaData -> metaData.getTagContainers().stream())
+                .filter(tag -> {
+                    TagDefinition tagDefinition = tag.resolveTagDefinition();
+                    return tagDefinition != null && key.equals(tagDefinition.getKey());
+                });
+    }
+
+    private String label(@NotNull TagContainer tag) {
+        switch (definition.getType()) {
+            case BOOLEAN:
+                return tag.getBooleanValue() == null ? null : tag.getBooleanValue().toString();
+            case DOUBLE:
+                return tag.getDoubleValue() == null ? null : tag.getDoubleValue().toString();
+            case STRING:
+                return tag.getStringValue();
+            default:
+                return tag.getLongValue() == null ? null : label(tag.getLongValue());
+        }
+    }
+
+    /**
+     * @return The label of a long value: the enumerator, the boolean, the date in ISO 8601 or the number
+     */
+    private @NotNull String label(long value) {
+        switch (definition.getType()) {
+            case ENUM:
+                List<String> enumerators = definition.getEnumerators();
+                if (value >= 0 && value < enumerators.size()) return enumerators.get((int) value);
+                return Long.toString(value);
+            case BOOLEAN:
+                return Boolean.toString(value != 0);
+            case DATE:
+                return DateTimeFormatter.ISO_INSTANT.format(Instant.ofEpochMilli(value));
+            default:
+                return Long.toString(value);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ *
+ *      Copyright (C) 2023 Joerg Bayer (SG-O)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sg_o.lib.tagy.query.modifiers;
+
+import com.google.protobuf.Any;
+import de.sg_o.lib.tagy.data.TagContainer;
+import de.sg_o.lib.tagy.db.QueryBoxSpec;
+import de.sg_o.lib.tagy.def.TagDefinition;
+import de.sg_o.lib.tagy.query.QueryElement;
+import de.sg_o.proto.tagy.query.QueryGroupProto;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Combines query elements on meta data: {@code AND} matches if all elements match, {@code OR} if any element
+ * matches and {@code NOT} if none of the elements match. Groups can be nested.
+ * <p>
+ * Unlike other elements a group is not bound to a tag, it is evaluated by the
+ * {@link de.sg_o.lib.tagy.query.MetaDataQueryBuilder} on the ids of the meta data its elements match.
+ */
+public class QueryGroup extends QueryElement {
+
+    private final @NotNull QueryGroupProto.GroupOperator operator;
+    private final @NotNull List<QueryElement> queryElements;
+
+    public QueryGroup(@NotNull QueryGroupProto.GroupOperator operator, @NotNull QueryElement... queryElements) {
+        this(operator, Arrays.asList(queryElements));
+    }
+
+    public QueryGroup(@NotNull QueryGroupProto.GroupOperator operator, @NotNull List<QueryElement> queryElements) {
+        super((TagDefinition) null);
+        if (queryElements.isEmpty()) throw new IllegalArgumentException("QueryElements empty");
+        this.operator = operator;
+        this.queryElements = new ArrayList<>(queryElements);
+    }
+
+    public QueryGroup(@NotNull QueryGroupProto.QueryGroup proto) {
+        super((TagDefinition) null);
+        this.operator = proto.getOperator();
+        this.queryElements = new ArrayList<>();
+        for (Any any : proto.getQueryElementsList()) {
+            QueryElement decoded = QueryElement.decodeAny(any);
+            if (decoded == null) throw new IllegalArgumentException("QueryElement is null");
+            this.queryElements.add(decoded);
+        }
+        if (this.queryElements.isEmpty()) throw new IllegalArgumentException("QueryElements empty");
+    }
+
+    public static @NotNull QueryGroup and(@NotNull QueryElement... queryElements) {
+        return new QueryGroup(QueryGroupProto.GroupOperator.AND, queryElements);
+    }
+
+    public static @NotNull QueryGroup or(@NotNull QueryElement... queryElements) {
+        return new QueryGroup(QueryGroupProto.GroupOperator.OR, queryElements);
+    }
+
+    public static @NotNull QueryGroup not(@NotNull QueryElement... queryElements) {
+        return new QueryGroup(QueryGroupProto.GroupOperator.NOT, queryElements);
+    }
+
+    public @NotNull QueryGroupProto.GroupOperator getOperator() {
+        return operator;
+    }
+
+    public @NotNull List<QueryElement> getQueryElements() {
+        return Collections.unmodifiableList(queryElements);
+    }
+
+    /**
+     * Groups combine whole meta data, so they can not be expressed as a query on a tag.
+     */
+    @Override
+    public @NotNull QueryBoxSpec<TagContainer> generateQuerySpec() {
+        throw new UnsupportedOperationException("Groups can not be evaluated on tags");
+    }
+
+    /**
+     * Groups combine whole meta data, so they can not be evaluated on a tag.
+     */
+    @Override
+    public boolean matches(TagContainer tc) {
+        throw new UnsupportedOperationException("Groups can not be evaluated on tags");
+    }
+
+    /**
+     * Estimates the selectivity assuming the elements match independently of each other.
+     */
+    @Override
+    public double estimateSelectivity() {
+        return estimateSelectivity(QueryElement::estimateSelectivity);
+    }
+
+    /**
+     * Estimates the selectivity assuming the elements match independently of each other.
+     *
+     * @param selectivity The selectivity of an element of this group
+     */
+    public double estimateSelectivity(@NotNull ToDoubleFunction<QueryElement> selectivity) {
+        double all = 1;
+        double none = 1;
+        for (QueryElement queryElement : queryElements) {
+            double share = selectivity.applyAsDouble(queryElement);
+            all *= share;
+            none *= 1 - share;
+        }
+        switch (operator) {
+            case OR:
+                return 1 - none;
+            case NOT:
+                return none;
+            default:
+                return all;
+        }
+    }
+
+    @Override
+    public @NotNull QueryGroupProto.QueryGroup getAsProto() {
+        QueryGroupProto.QueryGroup.Builder builder = QueryGroupProto.QueryGroup.newBuilder();
+        builder.setOperator(operator);
+        for (QueryElement queryElement : queryElements) {
+            builder.addQueryElements(Any.pack(queryElement.getAsProto()));
+        }
+        return builder.build();
+    }
+}
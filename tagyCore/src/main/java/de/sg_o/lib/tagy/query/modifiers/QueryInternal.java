@@ -22,7 +22,6 @@ import de.sg_o.lib.tagy.data.TagContainer;
 import de.sg_o.lib.tagy.data.TagContainer_;
 import de.sg_o.lib.tagy.db.QueryBoxSpec;
 import de.sg_o.lib.tagy.def.TagDefinition;
-import de.sg_o.lib.tagy.def.TagDefinition_;
 import de.sg_o.lib.tagy.query.QueryElement;
 import de.sg_o.proto.tagy.query.QueryInternalProto;
 import io.objectbox.query.QueryBuilder;
@@ -37,6 +36,7 @@ public class QueryInternal extends QueryElement {
 
     public QueryInternal(@NotNull TagDefinition tagDefinition, @NotNull QueryElement queryElement, QueryInternalProto.MatchCondition matchCondition) {
         super(tagDefinition);
+        checkChild(queryElement);
         this.queryElement = queryElement;
         this.matchCondition = matchCondition;
     }
@@ -45,21 +45,36 @@ public class QueryInternal extends QueryElement {
         super(proto.getQueryElement());
         QueryElement queryElement = QueryElement.decodeAny(proto.getQueryElementChild());
         if (queryElement == null) throw new IllegalArgumentException("QueryElement is null");
+        checkChild(queryElement);
         this.queryElement = queryElement;
         this.matchCondition = proto.getMatchCondition();
     }
 
+    /**
+     * The entries of a list are tag containers, groups combine whole meta data and can not be evaluated on them.
+     */
+    private static void checkChild(@NotNull QueryElement queryElement) {
+        if (queryElement instanceof QueryGroup) throw new IllegalArgumentException("Groups can not be used on list entries");
+    }
+
     @Override
     public @NotNull QueryBoxSpec<TagContainer> generateQuerySpec() {
         return qb -> {
-            qb.link(TagContainer_.tagDefinition)
-                    .apply(TagDefinition_.key.equal(getKey(), io.objectbox.query.QueryBuilder.StringOrder.CASE_SENSITIVE));
+            qb.apply(keyCondition());
             QueryBuilder<TagContainer> internal = qb.link(TagContainer_.listValues);
             queryElement.generateQuerySpec().buildQuery(internal);
             return qb;
         };
     }
 
+    /**
+     * The query spec finds lists with at least one matching entry, which is all that is needed to match one.
+     */
+    @Override
+    public boolean requiresFilter() {
+        return matchCondition != QueryInternalProto.MatchCondition.MATCH_ONE || queryElement.requiresFilter();
+    }
+
     @Override
     public boolean matches(TagContainer tc) {
         if (tc == null) return false;
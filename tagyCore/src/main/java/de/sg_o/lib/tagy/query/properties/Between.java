@@ -19,9 +19,12 @@ package de.sg_o.lib.tagy.query.properties;
 
 import de.sg_o.lib.tagy.data.TagContainer;
 import de.sg_o.lib.tagy.data.TagContainer_;
+import de.sg_o.lib.tagy.data.TagIndexEntry;
+import de.sg_o.lib.tagy.data.TagIndexEntry_;
 import de.sg_o.lib.tagy.def.TagDefinition;
 import de.sg_o.lib.tagy.query.QueryProperty;
 import de.sg_o.proto.tagy.query.BetweenProto;
+import io.objectbox.query.QueryCondition;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.Date;
@@ -75,6 +78,22 @@ public class Between extends QueryProperty {
         return queryProperty;
     }
 
+    @Override
+    public QueryCondition<TagIndexEntry> getIndexCondition() {
+        if (longLowerBounds != null && longUpperBounds != null) {
+            return TagIndexEntry_.longValue.between(longLowerBounds, longUpperBounds);
+        }
+        if (doubleLowerBounds != null && doubleUpperBounds != null) {
+            return TagIndexEntry_.doubleValue.between(doubleLowerBounds, doubleUpperBounds);
+        }
+        return null;
+    }
+
+    @Override
+    public double estimateSelectivity() {
+        return SELECTIVITY_BETWEEN;
+    }
+
     @Override
     public boolean matches(TagContainer tc) {
         if (tc == null) return false;
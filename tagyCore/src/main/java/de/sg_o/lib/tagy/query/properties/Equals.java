@@ -17,15 +17,20 @@
 
 package de.sg_o.lib.tagy.query.properties;
 
+import de.sg_o.lib.tagy.data.TagBitmapIndex;
 import de.sg_o.lib.tagy.data.TagContainer;
 import de.sg_o.lib.tagy.data.TagContainer_;
+import de.sg_o.lib.tagy.data.TagIndexEntry;
+import de.sg_o.lib.tagy.data.TagIndexEntry_;
 import de.sg_o.lib.tagy.def.TagDefinition;
 import de.sg_o.lib.tagy.query.QueryProperty;
 import de.sg_o.proto.tagy.TagDefinitionProto;
 import de.sg_o.proto.tagy.query.EqualsProto;
 import io.objectbox.query.QueryBuilder;
+import io.objectbox.query.QueryCondition;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.BitSet;
 import java.util.Date;
 
 @SuppressWarnings("unused")
@@ -102,6 +107,29 @@ public class Equals extends QueryProperty {
         return queryProperty;
     }
 
+    @Override
+    public QueryCondition<TagIndexEntry> getIndexCondition() {
+        if (longValue != null) return TagIndexEntry_.longValue.equal(longValue);
+        if (doubleValue != null && doubleTolerance != null) {
+            return TagIndexEntry_.doubleValue.between(doubleValue - doubleTolerance, doubleValue + doubleTolerance);
+        }
+        if (boolValue != null) return TagIndexEntry_.booleanValue.equal(boolValue);
+        if (stringValue != null) return TagIndexEntry_.stringValue.equal(stringValue, QueryBuilder.StringOrder.CASE_SENSITIVE);
+        return null;
+    }
+
+    @Override
+    public BitSet evaluateBitmap(@NotNull TagBitmapIndex bitmaps) {
+        Long value = TagBitmapIndex.value(tagDefinition, longValue, boolValue);
+        if (value == null) return null;
+        return bitmaps.get(getKey(), value);
+    }
+
+    @Override
+    public double estimateSelectivity() {
+        return SELECTIVITY_EQUAL;
+    }
+
     @Override
     public boolean matches(TagContainer tc) {
         if (tc == null) return false;
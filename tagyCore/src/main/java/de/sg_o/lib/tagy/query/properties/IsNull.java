@@ -17,6 +17,7 @@
 
 package de.sg_o.lib.tagy.query.properties;
 
+import de.sg_o.lib.tagy.data.TagBitmapIndex;
 import de.sg_o.lib.tagy.data.TagContainer;
 import de.sg_o.lib.tagy.data.TagContainer_;
 import de.sg_o.lib.tagy.def.TagDefinition;
@@ -24,6 +25,8 @@ import de.sg_o.lib.tagy.query.QueryProperty;
 import de.sg_o.proto.tagy.query.IsNullProto;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.BitSet;
+
 public class IsNull extends QueryProperty {
     private final @NotNull de.sg_o.lib.tagy.db.QueryProperty<TagContainer> queryProperty;
 
@@ -48,6 +51,17 @@ public class IsNull extends QueryProperty {
         return queryProperty;
     }
 
+    @Override
+    public BitSet evaluateBitmap(@NotNull TagBitmapIndex bitmaps) {
+        if (!TagBitmapIndex.isIndexed(tagDefinition)) return null;
+        return bitmaps.get(getKey(), null);
+    }
+
+    @Override
+    public double estimateSelectivity() {
+        return SELECTIVITY_EQUAL;
+    }
+
     @Override
     public boolean matches(TagContainer tc) {
         if (tc == null) return false;
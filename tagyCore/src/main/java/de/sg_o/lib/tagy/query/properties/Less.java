@@ -19,9 +19,12 @@ package de.sg_o.lib.tagy.query.properties;
 
 import de.sg_o.lib.tagy.data.TagContainer;
 import de.sg_o.lib.tagy.data.TagContainer_;
+import de.sg_o.lib.tagy.data.TagIndexEntry;
+import de.sg_o.lib.tagy.data.TagIndexEntry_;
 import de.sg_o.lib.tagy.def.TagDefinition;
 import de.sg_o.lib.tagy.query.QueryProperty;
 import de.sg_o.proto.tagy.query.LessProto;
+import io.objectbox.query.QueryCondition;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.Date;
@@ -69,6 +72,18 @@ public class Less extends QueryProperty {
         return queryProperty;
     }
 
+    @Override
+    public QueryCondition<TagIndexEntry> getIndexCondition() {
+        if (longValue != null) return TagIndexEntry_.longValue.less(longValue);
+        if (doubleValue != null) return TagIndexEntry_.doubleValue.less(doubleValue);
+        return null;
+    }
+
+    @Override
+    public double estimateSelectivity() {
+        return SELECTIVITY_RANGE;
+    }
+
     @Override
     public boolean matches(TagContainer tc) {
         if (tc == null) return false;
@@ -17,6 +17,7 @@
 
 package de.sg_o.lib.tagy.query.properties;
 
+import de.sg_o.lib.tagy.data.TagBitmapIndex;
 import de.sg_o.lib.tagy.data.TagContainer;
 import de.sg_o.lib.tagy.data.TagContainer_;
 import de.sg_o.lib.tagy.def.TagDefinition;
@@ -26,6 +27,7 @@ import de.sg_o.proto.tagy.query.NotEqualsProto;
 import io.objectbox.query.QueryBuilder;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.BitSet;
 import java.util.Date;
 
 @SuppressWarnings("unused")
@@ -89,6 +91,18 @@ public class NotEquals extends QueryProperty {
         return queryProperty;
     }
 
+    @Override
+    public BitSet evaluateBitmap(@NotNull TagBitmapIndex bitmaps) {
+        Long value = TagBitmapIndex.value(tagDefinition, longValue, boolValue);
+        if (value == null) return null;
+        return bitmaps.getOther(getKey(), value);
+    }
+
+    @Override
+    public double estimateSelectivity() {
+        return 1 - SELECTIVITY_EQUAL;
+    }
+
     @Override
     public boolean matches(TagContainer tc) {
         if (tc == null) return false;
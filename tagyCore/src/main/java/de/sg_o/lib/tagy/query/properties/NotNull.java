@@ -47,6 +47,11 @@ public class NotNull extends QueryProperty {
         return queryProperty;
     }
 
+    @Override
+    public double estimateSelectivity() {
+        return 1 - SELECTIVITY_EQUAL;
+    }
+
     @Override
     public boolean matches(TagContainer tc) {
         if (tc == null) return false;
@@ -19,10 +19,13 @@ package de.sg_o.lib.tagy.query.properties;
 
 import de.sg_o.lib.tagy.data.TagContainer;
 import de.sg_o.lib.tagy.data.TagContainer_;
+import de.sg_o.lib.tagy.data.TagIndexEntry;
+import de.sg_o.lib.tagy.data.TagIndexEntry_;
 import de.sg_o.lib.tagy.def.TagDefinition;
 import de.sg_o.lib.tagy.query.QueryProperty;
 import de.sg_o.proto.tagy.query.StartsWithProto;
 import io.objectbox.query.QueryBuilder;
+import io.objectbox.query.QueryCondition;
 import org.jetbrains.annotations.NotNull;
 
 public class StartsWith extends QueryProperty {
@@ -47,6 +50,16 @@ public class StartsWith extends QueryProperty {
         return queryProperty;
     }
 
+    @Override
+    public QueryCondition<TagIndexEntry> getIndexCondition() {
+        return TagIndexEntry_.stringValue.startsWith(stringValue, QueryBuilder.StringOrder.CASE_SENSITIVE);
+    }
+
+    @Override
+    public double estimateSelectivity() {
+        return SELECTIVITY_BETWEEN;
+    }
+
     @Override
     public boolean matches(TagContainer tc) {
         if (tc == null) return false;
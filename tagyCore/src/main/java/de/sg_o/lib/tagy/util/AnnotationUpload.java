@@ -0,0 +1,134 @@
+/*
+ *
+ *      Copyright (C) 2023 Joerg Bayer (SG-O)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sg_o.lib.tagy.util;
+
+import de.sg_o.lib.tagy.Project;
+import de.sg_o.lib.tagy.data.FileInfo;
+import de.sg_o.proto.tagy.MetaDataProto;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Uploads a stream of annotations, for example labels produced by a script, in batches.
+ * <p>
+ * Annotations are collected until a batch is full, then the batch is stored by an {@link AnnotationWriter}
+ * in a single transaction. Annotations that are still collected when the upload is abandoned are not stored.
+ */
+public class AnnotationUpload {
+    public static final int DEFAULT_BATCH_SIZE = FileInfo.BULK_QUERY_SIZE;
+
+    private final @NotNull AnnotationWriter annotationWriter;
+    private final int batchSize;
+    private final List<MetaDataProto.MetaData> pending = new ArrayList<>();
+    private final List<BatchResult> results = new ArrayList<>();
+
+    public AnnotationUpload(@NotNull Project project) {
+        this(project, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param project   The project, its structure definition has to be saved before
+     * @param batchSize The number of annotations stored per transaction
+     */
+    public AnnotationUpload(@NotNull Project project, int batchSize) {
+        this.annotationWriter = new AnnotationWriter(project);
+        this.batchSize = Math.max(batchSize, 1);
+    }
+
+    /**
+     * Adds an annotation to the current batch and stores the batch if it is full.
+     *
+     * @param annotation The annotation, replaces the annotation stored for its file
+     * @return The result of the batch if it was stored, otherwise null
+     */
+    public BatchResult add(@NotNull MetaDataProto.MetaData annotation) {
+        pending.add(annotation);
+        if (pending.size() < batchSize) return null;
+        return flush();
+    }
+
+    /**
+     * Stores the annotations collected so far.
+     *
+     * @return The result of the batch, or null if no annotations were collected
+     */
+    public BatchResult flush() {
+        if (pending.isEmpty()) return null;
+        BatchResult result = new BatchResult(results.size(), pending.size(), annotationWriter.write(pending));
+        pending.clear();
+        results.add(result);
+        return result;
+    }
+
+    /**
+     * @return The results of all stored batches in the order they were stored
+     */
+    public @NotNull List<BatchResult> getResults() {
+        return Collections.unmodifiableList(results);
+    }
+
+    /**
+     * @return The number of annotations stored by all batches
+     */
+    public int getStored() {
+        int stored = 0;
+        for (BatchResult result : results) {
+            stored += result.getStored();
+        }
+        return stored;
+    }
+
+    /**
+     * The outcome of a stored batch. Annotations of files that do not exist in the project are not stored.
+     */
+    public static class BatchResult {
+        private final int batch;
+        private final int received;
+        private final int stored;
+
+        public BatchResult(int batch, int received, int stored) {
+            this.batch = batch;
+            this.received = received;
+            this.stored = stored;
+        }
+
+        public int getBatch() {
+            return batch;
+        }
+
+        public int getReceived() {
+            return received;
+        }
+
+        public int getStored() {
+            return stored;
+        }
+
+        @Override
+        public String toString() {
+            return "{"
+                    + "\"batch\": " + batch
+                    + ", \"received\": " + received
+                    + ", \"stored\": " + stored
+                    + "}";
+        }
+    }
+}
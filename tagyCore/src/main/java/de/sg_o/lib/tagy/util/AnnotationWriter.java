@@ -0,0 +1,151 @@
+/*
+ *
+ *      Copyright (C) 2023 Joerg Bayer (SG-O)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sg_o.lib.tagy.util;
+
+import de.sg_o.lib.tagy.Project;
+import de.sg_o.lib.tagy.data.FileInfo;
+import de.sg_o.lib.tagy.data.MetaData;
+import de.sg_o.lib.tagy.data.TagBitmapIndex;
+import de.sg_o.lib.tagy.data.TagContainer;
+import de.sg_o.lib.tagy.data.TagIndexEntry;
+import de.sg_o.lib.tagy.db.DB;
+import de.sg_o.lib.tagy.def.TagDefinition;
+import de.sg_o.lib.tagy.values.User;
+import de.sg_o.proto.tagy.MetaDataProto;
+import io.objectbox.Box;
+import io.objectbox.BoxStore;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * Stores encoded annotations of a project, replacing the annotations that already exist for their files.
+ * <p>
+ * A batch of annotations is stored in a single transaction, the files and existing annotations of the batch are
+ * resolved with bulk queries. Tags are bound to the tag definitions of the project by their key, so storing does
+ * not duplicate definitions.
+ */
+public class AnnotationWriter {
+    private final @NotNull Project project;
+    private final Map<String, TagDefinition> tagDefinitions = new HashMap<>();
+    private final Map<User, User> users = new HashMap<>();
+    private boolean checkIn = false;
+
+    /**
+     * @param project The project, its structure definition has to be saved before
+     */
+    public AnnotationWriter(@NotNull Project project) {
+        this.project = project;
+        for (TagDefinition tagDefinition : project.resolveStructureDefinition().getTagDefinitions()) {
+            tagDefinitions.put(tagDefinition.getKey(), tagDefinition);
+        }
+    }
+
+    /**
+     * @param checkIn If true, the files of stored annotations are marked as annotated and checked in,
+     *                like files an annotator finished
+     */
+    public void setCheckIn(boolean checkIn) {
+        this.checkIn = checkIn;
+    }
+
+    /**
+     * Stores a batch of annotations in a single transaction. Annotations of files that do not exist in the project
+     * are skipped. If a batch holds several annotations of the same file, the last one is kept.
+     *
+     * @param annotations The annotations to store
+     * @return The number of stored annotations
+     */
+    public int write(@NotNull List<MetaDataProto.MetaData> annotations) {
+        BoxStore db = DB.getDb();
+        if (db == null || annotations.isEmpty()) return 0;
+        Map<String, MetaData> decoded = new LinkedHashMap<>();
+        for (MetaDataProto.MetaData annotation : annotations) {
+            MetaData metaData = new MetaData(annotation, project);
+            for (TagContainer tagContainer : metaData.getTagContainers()) {
+                TagDefinition tagDefinition = tagContainer.resolveTagDefinition();
+                if (tagDefinition == null) continue;
+                bind(tagContainer, tagDefinitions.get(tagDefinition.getKey()));
+            }
+            List<User> editHistory = metaData.getEditHistory();
+            for (int i = 0; i < editHistory.size(); i++) {
+                User known = users.putIfAbsent(editHistory.get(i), editHistory.get(i));
+                if (known != null) editHistory.set(i, known);
+            }
+            decoded.remove(metaData.getFileReference());
+            decoded.put(metaData.getFileReference(), metaData);
+        }
+        List<MetaData> imported = new ArrayList<>(decoded.values());
+        Map<String, MetaData> existing = MetaData.queryByFileReferences(decoded.keySet(), project);
+        MetaData.resolveFileReferences(imported, project);
+        imported.removeIf(metaData -> metaData.resolveFileReference() == null);
+        if (checkIn) {
+            for (MetaData metaData : imported) {
+                FileInfo fileInfo = metaData.resolveFileReference();
+                fileInfo.setAnnotated(true);
+                fileInfo.checkIn();
+            }
+        }
+        Box<MetaData> metaDataBox = db.boxFor(MetaData.class);
+        Box<TagContainer> tagContainerBox = db.boxFor(TagContainer.class);
+        int[] stored = new int[1];
+        db.runInTx(() -> {
+            List<Long> removedContainers = new ArrayList<>();
+            List<Long> removedMetaData = new ArrayList<>();
+            for (MetaData metaData : imported) {
+                MetaData replaced = existing.get(metaData.getFileReference());
+                if (replaced == null) continue;
+                for (TagContainer tagContainer : replaced.getTagContainers()) {
+                    collectIds(tagContainer, removedContainers);
+                }
+                removedMetaData.add(replaced.getId());
+            }
+            tagContainerBox.removeByIds(removedContainers);
+            metaDataBox.removeByIds(removedMetaData);
+            TagIndexEntry.removeAll(removedMetaData);
+            for (MetaData metaData : imported) {
+                if (metaData.save()) stored[0]++;
+            }
+        });
+        // The saves inside the transaction mark the data as changed before it is committed, mark it again now
+        DB.dataChanged(MetaData.class);
+        DB.dataChanged(FileInfo.class);
+        // Replaced annotations got new ids, the bitmaps drop the old ones when loaded again
+        if (!existing.isEmpty()) TagBitmapIndex.discard(project);
+        return stored[0];
+    }
+
+    /**
+     * Binds a decoded tag to the stored definition of the same key.
+     */
+    private static void bind(@NotNull TagContainer tagContainer, TagDefinition tagDefinition) {
+        if (tagDefinition == null) return;
+        tagContainer.getTagDefinition().setTarget(tagDefinition);
+        TagDefinition internal = tagDefinition.resolveInternal();
+        for (TagContainer listValue : tagContainer.getListValues()) {
+            bind(listValue, internal);
+        }
+    }
+
+    private static void collectIds(@NotNull TagContainer tagContainer, @NotNull List<Long> ids) {
+        for (TagContainer listValue : tagContainer.getListValues()) {
+            collectIds(listValue, ids);
+        }
+        if (tagContainer.getId() != null && tagContainer.getId() != 0L) ids.add(tagContainer.getId());
+    }
+}
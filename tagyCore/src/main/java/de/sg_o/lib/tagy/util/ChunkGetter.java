@@ -23,4 +23,19 @@ public interface ChunkGetter<T> {
     List<T> getChunk(int length, int offset);
 
     int getTotal();
+
+    /**
+     * Returns a version of the underlying data. The total is cached as long as the version does not change.
+     *
+     * @return The current version, the default never changes
+     */
+    default long getVersion() {
+        return 0;
+    }
+
+    /**
+     * Releases the resources held for reading chunks. Chunks can still be read afterwards, at a higher cost.
+     */
+    default void close() {
+    }
 }
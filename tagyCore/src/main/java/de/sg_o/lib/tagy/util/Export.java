@@ -25,10 +25,21 @@ import com.fasterxml.jackson.databind.json.JsonMapper;
 import com.fasterxml.jackson.dataformat.xml.XmlMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLMapper;
 import de.sg_o.lib.tagy.Project;
+import de.sg_o.lib.tagy.data.DataManager;
+import de.sg_o.lib.tagy.data.FileInfo;
+import de.sg_o.lib.tagy.data.MetaData;
+import de.sg_o.lib.tagy.data.MetaDataTombstone;
+import de.sg_o.lib.tagy.data.TagContainer;
+import de.sg_o.lib.tagy.def.StructureDefinition;
+import org.jetbrains.annotations.NotNull;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 public class Export {
     public enum Format {
@@ -37,6 +48,12 @@ public class Export {
         JSON
     }
 
+    private static final int QUEUE_SIZE = 16;
+    private static final Step END = writer -> {
+    };
+    private static final AtomicInteger exportThreadCount = new AtomicInteger();
+    private static final Map<Format, FormatConfig> formats = new EnumMap<>(Format.class);
+
     private final OutputStream outputStream;
     private final Format format;
 
@@ -77,45 +94,320 @@ public class Export {
         return new String(baos.toByteArray(), StandardCharsets.UTF_8);
     }
 
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * Exports a project. Files and annotations are read from the database in chunks and written one record at a time,
+     * so memory use does not grow with the size of the project.
+     *
+     * @param project The project to export
+     */
     public void export(Project project) {
-        ObjectMapper mapper;
-        switch (format) {
-            case XML:
-                mapper = new XmlMapper();
-                break;
-            case YAML:
-                mapper = new YAMLMapper();
-                break;
-            default:
-                mapper = new JsonMapper();
-                break;
+        OutputStream out = this.outputStream;
+        if (out == null) {
+            out = System.out;
         }
 
-        mapper.setVisibility(
-                mapper.getSerializationConfig()
-                        .getDefaultVisibilityChecker()
-                        .withFieldVisibility(JsonAutoDetect.Visibility.NONE)
-                        .withGetterVisibility(JsonAutoDetect.Visibility.NONE)
-
-        );
-
-        mapper.configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
-
-        ObjectWriter writer = mapper.writerWithDefaultPrettyPrinter();
+        try (ExportWriter writer = createWriter(format, out)) {
+            read(project, step -> step.write(writer), step -> step.write(writer));
+        } catch (Exception ex) {
+            System.out.println("Failed to export data" + ex.getMessage());
+        }
+        try {
+            out.close();
+        } catch (IOException ignore) {
+        }
+    }
 
+    /**
+     * Exports the annotations of a project that changed after a watermark, followed by the files whose annotations
+     * were deleted. Annotations are written in full, a consumer replaces its copy with them.
+     *
+     * @param project The project to export
+     * @param since   The watermark returned by the last export, a negative value exports all annotations
+     * @return The watermark to pass to the next export or -1 if the export failed
+     */
+    public long exportChanges(Project project, long since) {
         OutputStream out = this.outputStream;
         if (out == null) {
             out = System.out;
         }
 
-        try {
-            writer.writeValue(out, project);
-        } catch (Exception ex) {
-            System.out.println("Failed to export data" + ex.getMessage());
+        long until = MetaData.reserveModification();
+        if (until >= 0) {
+            try (ExportWriter writer = createWriter(format, out)) {
+                writer.writeChangesHeader(project, since, until);
+                try (Stream<MetaData> annotations = MetaData.streamChanges(project, since, until)) {
+                    Iterator<MetaData> iterator = annotations.iterator();
+                    List<MetaData> batch = new ArrayList<>(FileInfo.BULK_QUERY_SIZE);
+                    while (iterator.hasNext()) {
+                        batch.add(iterator.next());
+                        if (batch.size() >= FileInfo.BULK_QUERY_SIZE || !iterator.hasNext()) {
+                            MetaData.resolveFileReferences(batch, project);
+                            for (MetaData metaData : batch) {
+                                writer.writeAnnotation(metaData);
+                            }
+                            batch.clear();
+                        }
+                    }
+                }
+                writer.startDeletions();
+                try (Stream<MetaDataTombstone> tombstones = MetaDataTombstone.streamChanges(project, since, until)) {
+                    Iterator<MetaDataTombstone> iterator = tombstones.iterator();
+                    Set<String> batch = new LinkedHashSet<>();
+                    while (iterator.hasNext()) {
+                        batch.add(iterator.next().getFileReference());
+                        if (batch.size() >= FileInfo.BULK_QUERY_SIZE || !iterator.hasNext()) {
+                            // Annotated again after the deletion, the annotation is part of this export or a later one
+                            batch.removeAll(MetaData.queryByFileReferences(batch, project).keySet());
+                            for (String fileReference : batch) {
+                                writer.writeDeletion(fileReference);
+                            }
+                            batch.clear();
+                        }
+                    }
+                }
+                writer.finishChanges();
+            } catch (Exception ex) {
+                System.out.println("Failed to export data" + ex.getMessage());
+                until = -1;
+            }
         }
         try {
             out.close();
         } catch (IOException ignore) {
         }
+        return until;
+    }
+
+    /**
+     * Exports a project to several targets at once. Every record is read from the database once and handed to
+     * all targets, each target serializes and writes on its own thread.
+     *
+     * @param project The project to export
+     * @param targets The targets, usually of different formats
+     * @return true if all targets were written completely
+     */
+    public static boolean exportAll(Project project, @NotNull Collection<Export> targets) {
+        List<OutputStream> streams = new ArrayList<>();
+        List<ExportWriter> writers = new ArrayList<>();
+        boolean success = true;
+        try {
+            for (Export target : targets) {
+                if (target.outputStream == null) {
+                    success = false;
+                    continue;
+                }
+                streams.add(target.outputStream);
+                writers.add(createWriter(target.format, target.outputStream));
+            }
+        } catch (IOException ex) {
+            System.out.println("Failed to export data" + ex.getMessage());
+            success = false;
+            writers.clear();
+        }
+        if (!writers.isEmpty()) {
+            success &= exportAll(project, writers);
+        }
+        for (ExportWriter writer : writers) {
+            try {
+                writer.close();
+            } catch (IOException ignore) {
+                success = false;
+            }
+        }
+        for (OutputStream out : streams) {
+            try {
+                out.close();
+            } catch (IOException ignore) {
+            }
+        }
+        return success;
+    }
+
+    private static boolean exportAll(Project project, @NotNull List<ExportWriter> writers) {
+        ExecutorService executor = Executors.newFixedThreadPool(writers.size(), runnable -> {
+            Thread thread = new Thread(runnable, "tagy-export-" + exportThreadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<BlockingQueue<Step>> queues = new ArrayList<>();
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (ExportWriter writer : writers) {
+            BlockingQueue<Step> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+            queues.add(queue);
+            results.add(executor.submit(() -> drain(writer, queue)));
+        }
+        boolean success = true;
+        try {
+            // The header is small and resolves relations of shared entities, so it is written here for all targets
+            read(project, header -> {
+                for (ExportWriter writer : writers) {
+                    header.write(writer);
+                }
+            }, step -> {
+                for (BlockingQueue<Step> queue : queues) {
+                    put(queue, step);
+                }
+            });
+        } catch (Exception ex) {
+            System.out.println("Failed to export data" + ex.getMessage());
+            success = false;
+        } finally {
+            for (BlockingQueue<Step> queue : queues) {
+                put(queue, END);
+            }
+            executor.shutdown();
+        }
+        for (Future<Boolean> result : results) {
+            try {
+                success &= result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                success = false;
+            } catch (ExecutionException e) {
+                success = false;
+            }
+        }
+        return success;
+    }
+
+    /**
+     * Writes the queued steps of one target. After a failure the remaining steps are discarded,
+     * so the reading thread is never blocked by a target that stopped.
+     */
+    private static boolean drain(@NotNull ExportWriter writer, @NotNull BlockingQueue<Step> queue) throws InterruptedException {
+        boolean success = true;
+        while (true) {
+            Step step = queue.take();
+            if (step == END) return success;
+            if (!success) continue;
+            try {
+                step.write(writer);
+            } catch (Exception ex) {
+                System.out.println("Failed to export data" + ex.getMessage());
+                success = false;
+            }
+        }
+    }
+
+    private static void put(@NotNull BlockingQueue<Step> queue, @NotNull Step step) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(step);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Reads the project and hands the steps that write it on.
+     *
+     * @param header  Receives the step writing the header
+     * @param records Receives the steps writing batches of records and closing the sections
+     */
+    private static void read(@NotNull Project project, @NotNull Sink header, @NotNull Sink records) throws Exception {
+        StructureDefinition structureDefinition = project.resolveStructureDefinition();
+        DataManager dataManager = project.resolveDataManager();
+        header.accept(writer -> writer.writeHeader(project, structureDefinition, dataManager));
+        try (Stream<FileInfo> files = FileInfo.stream(project)) {
+            Iterator<FileInfo> iterator = files.iterator();
+            List<FileInfo> batch = new ArrayList<>(FileInfo.BULK_QUERY_SIZE);
+            while (iterator.hasNext()) {
+                batch.add(iterator.next());
+                if (batch.size() >= FileInfo.BULK_QUERY_SIZE || !iterator.hasNext()) {
+                    List<FileInfo> written = new ArrayList<>(batch);
+                    records.accept(writer -> {
+                        for (FileInfo fileInfo : written) {
+                            writer.writeFile(fileInfo);
+                        }
+                    });
+                    batch.clear();
+                }
+            }
+        }
+        records.accept(ExportWriter::startAnnotations);
+        try (Stream<MetaData> annotations = MetaData.stream(project)) {
+            Iterator<MetaData> iterator = annotations.iterator();
+            List<MetaData> batch = new ArrayList<>(FileInfo.BULK_QUERY_SIZE);
+            while (iterator.hasNext()) {
+                batch.add(iterator.next());
+                if (batch.size() >= FileInfo.BULK_QUERY_SIZE || !iterator.hasNext()) {
+                    // The file of every annotation is part of its record, they are looked up for the whole batch
+                    MetaData.resolveFileReferences(batch, project);
+                    for (MetaData metaData : batch) {
+                        // Loads the tags here, so several writers only read the annotation
+                        for (TagContainer tagContainer : metaData.getTagContainers()) {
+                            tagContainer.getTag();
+                        }
+                    }
+                    List<MetaData> written = new ArrayList<>(batch);
+                    records.accept(writer -> {
+                        for (MetaData metaData : written) {
+                            writer.writeAnnotation(metaData);
+                        }
+                    });
+                    batch.clear();
+                }
+            }
+        }
+        records.accept(ExportWriter::finish);
+    }
+
+    private static @NotNull ExportWriter createWriter(@NotNull Format format, @NotNull OutputStream out) throws IOException {
+        FormatConfig config;
+        synchronized (formats) {
+            config = formats.computeIfAbsent(format, FormatConfig::new);
+        }
+        return new ExportWriter(config.mapper, config.prettyWriter, out);
+    }
+
+    private interface Step {
+        void write(ExportWriter writer) throws IOException;
+    }
+
+    private interface Sink {
+        void accept(Step step) throws IOException;
+    }
+
+    /**
+     * The mapper of a format, it is configured once and shared by all exports.
+     */
+    private static final class FormatConfig {
+        private final ObjectMapper mapper;
+        private final ObjectWriter prettyWriter;
+
+        FormatConfig(@NotNull Format format) {
+            switch (format) {
+                case XML:
+                    mapper = new XmlMapper();
+                    break;
+                case YAML:
+                    mapper = new YAMLMapper();
+                    break;
+                default:
+                    mapper = new JsonMapper();
+                    break;
+            }
+
+            mapper.setVisibility(
+                    mapper.getSerializationConfig()
+                            .getDefaultVisibilityChecker()
+                            .withFieldVisibility(JsonAutoDetect.Visibility.NONE)
+                            .withGetterVisibility(JsonAutoDetect.Visibility.NONE)
+
+            );
+
+            mapper.configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
+            // Flushed by the export writer in intervals instead of after every record
+            mapper.configure(SerializationFeature.FLUSH_AFTER_WRITE_VALUE, false);
+            prettyWriter = mapper.writerWithDefaultPrettyPrinter();
+        }
     }
 }
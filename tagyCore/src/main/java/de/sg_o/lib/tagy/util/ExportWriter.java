@@ -0,0 +1,180 @@
+/*
+ *
+ *      Copyright (C) 2023 Joerg Bayer (SG-O)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sg_o.lib.tagy.util;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.xml.ser.ToXmlGenerator;
+import com.fasterxml.jackson.dataformat.xml.util.XmlRootNameLookup;
+import de.sg_o.lib.tagy.Project;
+import de.sg_o.lib.tagy.data.DataManager;
+import de.sg_o.lib.tagy.data.DataSource;
+import de.sg_o.lib.tagy.data.FileInfo;
+import de.sg_o.lib.tagy.data.MetaData;
+import de.sg_o.lib.tagy.def.StructureDefinition;
+import org.jetbrains.annotations.NotNull;
+
+import javax.xml.namespace.QName;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a project record by record to a single generator. The layout is the same as serializing the whole
+ * {@link Project} with the mapper: the header, the structure definition and the data sources first,
+ * followed by every file and every annotation.
+ * <p>
+ * Only the record that is written is held in memory, the output is flushed every {@link #FLUSH_INTERVAL} records.
+ */
+final class ExportWriter implements Closeable {
+    static final int FLUSH_INTERVAL = 1000;
+
+    private final @NotNull ObjectMapper mapper;
+    private final @NotNull JsonGenerator generator;
+    private int unflushed = 0;
+
+    /**
+     * @param mapper       The mapper of the format, records are serialized with it
+     * @param prettyWriter The pretty printing writer of the mapper
+     * @param out          The stream to write to, it is closed with the writer
+     */
+    ExportWriter(@NotNull ObjectMapper mapper, @NotNull ObjectWriter prettyWriter, @NotNull OutputStream out) throws IOException {
+        this.mapper = mapper;
+        // The pretty printer is set once, records written by the mapper keep using it along with its nesting
+        this.generator = prettyWriter.createGenerator(out);
+    }
+
+    void writeHeader(@NotNull Project project, @NotNull StructureDefinition structureDefinition, @NotNull DataManager dataManager) throws IOException {
+        if (generator instanceof ToXmlGenerator) {
+            ToXmlGenerator xmlGenerator = (ToXmlGenerator) generator;
+            xmlGenerator.initGenerator();
+            xmlGenerator.setNextName(new XmlRootNameLookup().findRootName(Project.class, mapper.getSerializationConfig()));
+        }
+        generator.writeStartObject();
+        generator.writeStringField("projectName", project.getProjectName());
+        generator.writeFieldName("structureDefinition");
+        mapper.writeValue(generator, structureDefinition);
+        generator.writeFieldName("dataManager");
+        generator.writeStartObject();
+        startWrapped("dataSources");
+        generator.writeFieldName("dataSources");
+        generator.writeStartArray();
+        for (DataSource dataSource : dataManager.getDataSources()) {
+            mapper.writeValue(generator, dataSource);
+        }
+        generator.writeEndArray();
+        finishWrapped("dataSources");
+        // The files are serialized from an iterator, which is never wrapped
+        generator.writeFieldName("data");
+        generator.writeStartArray();
+    }
+
+    void writeFile(@NotNull FileInfo fileInfo) throws IOException {
+        mapper.writeValue(generator, fileInfo);
+        written();
+    }
+
+    void startAnnotations() throws IOException {
+        generator.writeEndArray();
+        generator.writeEndObject();
+        startWrapped("annotated");
+        generator.writeFieldName("annotated");
+        generator.writeStartArray();
+    }
+
+    void writeAnnotation(@NotNull MetaData metaData) throws IOException {
+        mapper.writeValue(generator, metaData);
+        written();
+    }
+
+    void finish() throws IOException {
+        generator.writeEndArray();
+        finishWrapped("annotated");
+        generator.writeEndObject();
+        generator.flush();
+    }
+
+    /**
+     * Starts an export of changes. It holds the changed annotations followed by the file references of the deleted ones.
+     *
+     * @param since The watermark the changes follow
+     * @param until The watermark of the export
+     */
+    void writeChangesHeader(@NotNull Project project, long since, long until) throws IOException {
+        if (generator instanceof ToXmlGenerator) {
+            ToXmlGenerator xmlGenerator = (ToXmlGenerator) generator;
+            xmlGenerator.initGenerator();
+            xmlGenerator.setNextName(new QName("Changes"));
+        }
+        generator.writeStartObject();
+        generator.writeStringField("projectName", project.getProjectName());
+        generator.writeNumberField("since", since);
+        generator.writeNumberField("until", until);
+        startWrapped("annotated");
+        generator.writeFieldName("annotated");
+        generator.writeStartArray();
+    }
+
+    void startDeletions() throws IOException {
+        generator.writeEndArray();
+        finishWrapped("annotated");
+        startWrapped("deleted");
+        generator.writeFieldName("deleted");
+        generator.writeStartArray();
+    }
+
+    void writeDeletion(@NotNull String fileReference) throws IOException {
+        generator.writeString(fileReference);
+        written();
+    }
+
+    void finishChanges() throws IOException {
+        generator.writeEndArray();
+        finishWrapped("deleted");
+        generator.writeEndObject();
+        generator.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        generator.close();
+    }
+
+    private void written() throws IOException {
+        unflushed++;
+        if (unflushed < FLUSH_INTERVAL) return;
+        unflushed = 0;
+        generator.flush();
+    }
+
+    /**
+     * Lists are wrapped in an element of the same name in XML, just like the mapper does for list properties.
+     */
+    private void startWrapped(@NotNull String name) throws IOException {
+        if (!(generator instanceof ToXmlGenerator)) return;
+        QName qName = new QName(name);
+        ((ToXmlGenerator) generator).startWrappedValue(qName, qName);
+    }
+
+    private void finishWrapped(@NotNull String name) throws IOException {
+        if (!(generator instanceof ToXmlGenerator)) return;
+        QName qName = new QName(name);
+        ((ToXmlGenerator) generator).finishWrappedValue(qName, qName);
+    }
+}
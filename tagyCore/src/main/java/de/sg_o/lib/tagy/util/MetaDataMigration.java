@@ -19,9 +19,11 @@ package de.sg_o.lib.tagy.util;
 
 import de.sg_o.lib.tagy.Project;
 import de.sg_o.lib.tagy.ProjectManager;
+import de.sg_o.lib.tagy.data.FileInfo;
 import de.sg_o.lib.tagy.data.MetaData;
 import de.sg_o.lib.tagy.data.MetaData_;
 import de.sg_o.lib.tagy.data.TagContainer_;
+import de.sg_o.lib.tagy.data.TagIndexEntry;
 import de.sg_o.lib.tagy.db.DB;
 import de.sg_o.lib.tagy.db.QueryBoxSpec;
 import io.objectbox.Box;
@@ -91,6 +93,13 @@ public class MetaDataMigration {
         try (Query<MetaData> query = repair.buildQuery(metaData.query()).build()) {
             count += query.count();
         }
+        if (!TagIndexEntry.isCurrent(project)) {
+            try (Query<MetaData> query = metaData.query(MetaData_.projectId.equal(project.getId())).build()) {
+                count += query.count();
+            }
+        }
+        count += FileInfo.countUnqueued(project);
+        count += FileInfo.countUndetected(project);
         return count;
     }
 
@@ -135,6 +144,7 @@ public class MetaDataMigration {
                 List<MetaData> needsMigration = needsMigration(project);
                 while (!needsMigration.isEmpty()) {
                     List<MetaData> finalNeedsMigration = needsMigration;
+                    MetaData.resolveFileReferences(finalNeedsMigration, project);
                     db.runInTx(() -> {
                                 for (MetaData md : finalNeedsMigration) {
                                     md.save();
@@ -147,6 +157,7 @@ public class MetaDataMigration {
                 List<MetaData> needRepair = needsRepair(project);
                 while (!needRepair.isEmpty()) {
                     List<MetaData> finalNeedsMigration = needRepair;
+                    MetaData.resolveFileReferences(finalNeedsMigration, project);
                     db.runInTx(() -> {
                         for (MetaData md : finalNeedsMigration) {
                             md.repairTagContainer();
@@ -157,6 +168,23 @@ public class MetaDataMigration {
                     });
                     needRepair = needsMigration(project);
                 }
+                if (!TagIndexEntry.isCurrent(project)) {
+                    long indexed = TagIndexEntry.rebuild(project);
+                    if (indexed > 0) {
+                        done += indexed;
+                        migrationProgressChanged((float) done / (float) total);
+                    }
+                }
+                long queued = FileInfo.rebuildQueue(project);
+                if (queued > 0) {
+                    done += queued;
+                    migrationProgressChanged((float) done / (float) total);
+                }
+                long detected = FileInfo.detectFileTypes(project);
+                if (detected > 0) {
+                    done += detected;
+                    migrationProgressChanged((float) done / (float) total);
+                }
             }
             finished = true;
             migrationFinished();
@@ -0,0 +1,110 @@
+/*
+ *
+ *      Copyright (C) 2023 Joerg Bayer (SG-O)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sg_o.lib.tagy.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The executor shared by all {@link PagedList}s to load their pages.
+ * <p>
+ * At most {@link #getMaxConcurrentLoads()} pages are loaded at the same time, no matter how many lists exist.
+ * Idle loader threads are released. On JDKs that support virtual threads they can be used instead of a
+ * platform thread pool, see {@link #configure(int, boolean)}.
+ */
+public final class PageLoader {
+    public static final int DEFAULT_MAX_CONCURRENT_LOADS = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private static int maxConcurrentLoads = DEFAULT_MAX_CONCURRENT_LOADS;
+    private static boolean virtualThreads = false;
+    private static ExecutorService executor = createPlatformExecutor(DEFAULT_MAX_CONCURRENT_LOADS);
+    private static Executor boundedExecutor = executor;
+
+    private PageLoader() {
+    }
+
+    /**
+     * Replaces the shared executor. Loads that are already queued still complete on the previous one.
+     *
+     * @param maxConcurrentLoads    The maximum number of pages loaded at the same time
+     * @param preferVirtualThreads  Whether to use virtual threads if the running JDK supports them
+     * @return true if virtual threads are used
+     */
+    public static synchronized boolean configure(int maxConcurrentLoads, boolean preferVirtualThreads) {
+        maxConcurrentLoads = Math.max(1, maxConcurrentLoads);
+        ExecutorService previous = executor;
+        ExecutorService virtual = preferVirtualThreads ? createVirtualExecutor() : null;
+        if (virtual != null) {
+            Semaphore permits = new Semaphore(maxConcurrentLoads);
+            executor = virtual;
+            boundedExecutor = task -> virtual.execute(() -> {
+                permits.acquireUninterruptibly();
+                try {
+                    task.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        } else {
+            executor = createPlatformExecutor(maxConcurrentLoads);
+            boundedExecutor = executor;
+        }
+        PageLoader.maxConcurrentLoads = maxConcurrentLoads;
+        PageLoader.virtualThreads = virtual != null;
+        previous.shutdown();
+        return PageLoader.virtualThreads;
+    }
+
+    public static synchronized @NotNull Executor getExecutor() {
+        return boundedExecutor;
+    }
+
+    public static synchronized int getMaxConcurrentLoads() {
+        return maxConcurrentLoads;
+    }
+
+    public static synchronized boolean usesVirtualThreads() {
+        return virtualThreads;
+    }
+
+    private static @NotNull ExecutorService createPlatformExecutor(int threads) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "tagy-page-loader-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private static ExecutorService createVirtualExecutor() {
+        // Looked up reflectively, the project is compiled for Java 8
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -21,35 +21,53 @@ import org.jetbrains.annotations.NotNull;
 
 import java.lang.reflect.Array;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.FutureTask;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * An immutable list that loads chunks of data in the background and
  * provides a list of the data.
+ * <p>
+ * The loaded data is kept in a window of five pages around a center page. The window is replaced atomically
+ * when it moves, pages that are part of both the old and the new window are kept. Readers wait on the page
+ * they need only, no lock is shared between different lists. Pages are loaded by the shared {@link PageLoader},
+ * queued loads of pages that left the window are cancelled.
+ * <p>
+ * Loaded pages are kept in a least recently used cache of {@link #getCacheSize()} pages, so jumping back to a
+ * previously visited position does not load it again. When the window keeps moving in the same direction, up to
+ * {@link #getPrefetchLimit()} pages beyond the window edge are read ahead into the cache.
+ * <p>
+ * The total returned by {@link #size()} is cached until the version of the data reported by the
+ * {@link ChunkGetter} changes or it is invalidated explicitly. Pages are tagged with the version they were
+ * created for, pages of an older version are dropped and the window is loaded again.
  *
  * @param <T> the type of element in the list
  */
 public class PagedList<T> implements List<T> {
-    private static final Boolean[] updating = new Boolean[]{false, false, false, false, false};
-    private final ExecutorService executor = Executors.newFixedThreadPool(5);
+    private static final int WINDOW_SIZE = 5;
+    public static final int DEFAULT_CACHE_SIZE = 16;
+    public static final int DEFAULT_PREFETCH_LIMIT = 4;
 
-    private List<T> page0 = new ArrayList<>(); //centerPage - 2
-    private List<T> page1 = new ArrayList<>(); //centerPage - 1
-    private List<T> page2 = new ArrayList<>(); //centerPage
-    private List<T> page3 = new ArrayList<>(); //centerPage + 1
-    private List<T> page4 = new ArrayList<>(); //centerPage + 2
-
-    private int pageLength;
-    private int thirdPage;
+    private volatile int pageLength;
     private final boolean allowAutomaticLoading;
 
-    private int centerPage = -3;
+    private final AtomicReference<Window<T>> window;
+    private final AtomicInteger pendingLoads = new AtomicInteger();
+
+    private final LinkedHashMap<Integer, Page<T>> cache = new LinkedHashMap<>(32, 0.75f, true);
+    private volatile int cacheSize = DEFAULT_CACHE_SIZE;
+    private volatile int prefetchLimit = DEFAULT_PREFETCH_LIMIT;
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    private final AtomicLong prefetchedPages = new AtomicLong();
+
+    private volatile Total total = null;
 
     private final ChunkGetter<T> chunkGetter;
 
-    private final List<ListUpdateCompleteListener<T>> updateCompleteListeners = new ArrayList<>();
+    private final List<ListUpdateCompleteListener<T>> updateCompleteListeners = new CopyOnWriteArrayList<>();
 
 
     /**
@@ -81,11 +99,16 @@ public class PagedList<T> implements List<T> {
         if (pageLength < 1) pageLength = 1;
         this.pageLength = pageLength;
         this.chunkGetter = chunkGetter;
-        this.thirdPage = (pageLength + 2) / 3;
         this.allowAutomaticLoading = allowAutomaticLoading;
+        Window<T> initial = createWindow(-3, (pageLength + 2) / 3, 0, 0, chunkGetter.getVersion());
+        for (Page<T> page : initial.pages) {
+            page.claim();
+            page.complete(null);
+        }
+        this.window = new AtomicReference<>(initial);
     }
 
-    private int calculateCenterPage(int index, boolean fromEnd) {
+    private static int calculateCenterPage(int index, boolean fromEnd, int thirdPage) {
         int center = index / thirdPage;
         if (fromEnd) {
             center--;
@@ -95,99 +118,157 @@ public class PagedList<T> implements List<T> {
         return center;
     }
 
-    private int calculatePage(int index) {
-        return index / thirdPage;
+    private void notifyUpdateComplete() {
+        if (isUpdating()) return;
+        for (ListUpdateCompleteListener<T> listener : updateCompleteListeners) {
+            listener.onListUpdateComplete(this, firstAvailableIndex(), lastAvailableIndex());
+        }
     }
 
-    private int calculateIndexInPage(int index) {
-        return index % thirdPage;
+    public void preparePages(int index) {
+        this.preparePages(index, false);
     }
 
-    private List<T> getListForPage(int page) {
-        awaitUpdate(page + 2);
-        if (page == -2) {
-            synchronized (updating[0]) {
-                return page0;
+    /**
+     * Prepares the list by loading the pages around the given index.
+     *
+     * @param index   The index to center the list around.
+     * @param fromEnd If true, the index is considered to be the last element in the used portion of the list.
+     */
+    public void preparePages(int index, boolean fromEnd) {
+        moveWindow(index, fromEnd);
+    }
+
+    private @NotNull Window<T> moveWindow(int index, boolean fromEnd) {
+        while (true) {
+            Window<T> current = window.get();
+            int newCenterPage = calculateCenterPage(index, fromEnd, current.thirdPage);
+            if (newCenterPage == current.centerPage) return current;
+            int distance = newCenterPage - current.centerPage;
+            int direction = Integer.signum(distance);
+            // Moves in the same direction that keep the new window adjacent to the old one count as sequential access
+            boolean sequential = direction == current.direction && Math.abs(distance) <= WINDOW_SIZE;
+            int streak = sequential ? current.streak + Math.abs(distance) : 0;
+            Window<T> next = createWindow(newCenterPage, current.thirdPage, direction, streak, chunkGetter.getVersion());
+            if (window.compareAndSet(current, next)) {
+                load(next);
+                cancelDropped(current, next);
+                trimCache(next);
+                return next;
             }
         }
-        if (page == -1) {
-            synchronized (updating[1]) {
-                return page1;
+    }
+
+    /**
+     * Creates the window around a center page, reusing cached pages.
+     *
+     * @param streak  The number of pages the window moved sequentially in the given direction before,
+     *                determines how many pages are read ahead
+     * @param version The version of the data, cached pages of other versions are replaced
+     */
+    private @NotNull Window<T> createWindow(int centerPage, int thirdPage, int direction, int streak, long version) {
+        List<Page<T>> pages = new ArrayList<>(WINDOW_SIZE);
+        List<Page<T>> prefetch = new ArrayList<>();
+        synchronized (cache) {
+            for (int chunk = centerPage - 2; chunk <= centerPage + 2; chunk++) {
+                pages.add(obtainPage(chunk, thirdPage, false, version));
             }
-        }
-        if (page == 0) {
-            synchronized (updating[2]) {
-                return page2;
+            int depth = Math.min(prefetchLimit, streak);
+            if (direction > 0) {
+                for (Page<T> page : pages) {
+                    List<T> data = page.peek();
+                    // Nothing to read ahead when the window already reached the end of the data
+                    if (page.chunk >= 0 && data != null && data.size() < thirdPage) depth = 0;
+                }
             }
-        }
-        if (page == 1) {
-            synchronized (updating[3]) {
-                return page3;
+            for (int step = 1; step <= depth; step++) {
+                int chunk = direction < 0 ? centerPage - 2 - step : centerPage + 2 + step;
+                if (chunk < 0) break;
+                prefetch.add(obtainPage(chunk, thirdPage, true, version));
             }
         }
-        if (page == 2) {
-            synchronized (updating[4]) {
-                return page4;
+        return new Window<>(centerPage, thirdPage, direction, streak, version, pages, prefetch);
+    }
+
+    private @NotNull Page<T> obtainPage(int chunk, int thirdPage, boolean prefetch, long version) {
+        // Pages before the start of the list are never loaded, so they are not cached either
+        if (chunk < 0) return new Page<>(chunk, thirdPage, version);
+        Page<T> page = cache.get(chunk);
+        if (page != null && page.length == thirdPage && page.version == version) {
+            if (!prefetch) {
+                if (page.isRequested()) {
+                    cacheHits.incrementAndGet();
+                } else {
+                    cacheMisses.incrementAndGet();
+                }
             }
+            return page;
         }
-        throw new IndexOutOfBoundsException("Not loaded, yet");
-    }
-
-    private void awaitAllUpdates() {
-        for (int i = 0; i < updating.length; i++) {
-            awaitUpdate(i);
+        page = new Page<>(chunk, thirdPage, version);
+        cache.put(chunk, page);
+        if (prefetch) {
+            prefetchedPages.incrementAndGet();
+        } else {
+            cacheMisses.incrementAndGet();
         }
+        return page;
     }
 
-    private void awaitUpdate(int page) {
-        if (page < 0 || page > 4) return;
-        while (updating[page]) {
-            try {
-                //noinspection BusyWait
-                Thread.sleep(10);
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
+    /**
+     * Evicts the least recently used pages that are not part of the given window until the cache fits its size.
+     */
+    private void trimCache(@NotNull Window<T> current) {
+        List<Page<T>> evicted = new ArrayList<>();
+        synchronized (cache) {
+            Iterator<Page<T>> iterator = cache.values().iterator();
+            while (cache.size() > cacheSize && iterator.hasNext()) {
+                Page<T> page = iterator.next();
+                if (current.contains(page)) continue;
+                iterator.remove();
+                evicted.add(page);
             }
         }
-    }
-
-    private void notifyUpdateComplete() {
-        if (isUpdating()) return;
-        for (ListUpdateCompleteListener<T> listener : updateCompleteListeners) {
-            listener.onListUpdateComplete(this, firstAvailableIndex(), lastAvailableIndex());
-        }
-    }
-
-    public void preparePages(int index) {
-        this.preparePages(index, false);
+        cancel(evicted);
     }
 
     /**
-     * Prepares the list by loading the pages around the given index.
-     *
-     * @param index   The index to center the list around.
-     * @param fromEnd If true, the index is considered to be the last element in the used portion of the list.
+     * Drops the cached pages of other versions of the data and loads the window again for the given version.
      */
-    public void preparePages(int index, boolean fromEnd) {
-        int newCenterPage = calculateCenterPage(index, fromEnd);
-        int distanceFromOld = newCenterPage - this.centerPage;
-        if (distanceFromOld == 0) return;
-        if (distanceFromOld > 0 && distanceFromOld < 5) {
-            for (int i = 0; i < distanceFromOld; i++) {
-                shiftUp();
+    private void dropStalePages(long version) {
+        while (true) {
+            Window<T> current = window.get();
+            if (current.version == version) return;
+            List<Page<T>> dropped = new ArrayList<>();
+            synchronized (cache) {
+                Iterator<Page<T>> iterator = cache.values().iterator();
+                while (iterator.hasNext()) {
+                    Page<T> page = iterator.next();
+                    if (page.version == version) continue;
+                    iterator.remove();
+                    dropped.add(page);
+                }
             }
-            reloadFromEnd(distanceFromOld);
-        } else if (distanceFromOld < 0 && distanceFromOld > -5) {
-            for (int i = 0; i > distanceFromOld; i--) {
-                shiftDown();
+            Window<T> next = createWindow(current.centerPage, current.thirdPage, 0, 0, version);
+            if (window.compareAndSet(current, next)) {
+                load(next);
+                cancel(dropped);
+                cancelDropped(current, next);
+                return;
             }
-            reloadFromStart(distanceFromOld * -1);
-        } else {
-            this.centerPage = newCenterPage;
-            getAll();
         }
     }
 
+    private void cancel(@NotNull Collection<Page<T>> pages) {
+        boolean cancelled = false;
+        for (Page<T> page : pages) {
+            if (page.cancel()) {
+                pendingLoads.decrementAndGet();
+                cancelled = true;
+            }
+        }
+        if (cancelled) notifyUpdateComplete();
+    }
+
     /**
      * Returns the current page length.
      *
@@ -198,164 +279,184 @@ public class PagedList<T> implements List<T> {
     }
 
     /**
-     * Sets the page length. Loaded Data will be realigned. Missing data will be fetched.
-     * Blocking if an update of the list data was in progress while calling.
+     * Sets the page length. The pages around the first loaded element are fetched again for the new layout.
      *
      * @param pageLength The new page length.
      */
     public void setPageLength(int pageLength) {
-        if (pageLength < 0) pageLength = 1;
-        int firstIndex = (centerPage - 2) * this.thirdPage;
-        if (firstIndex < 0) firstIndex = 0;
-        ArrayList<T> temp = new ArrayList<>(5 * this.thirdPage);
-        for (int i = -2; i <= 2; i++) {
-            List<T> list = getListForPage(i);
-            if (list == null) {
-                continue;
+        if (pageLength < 1) pageLength = 1;
+        int thirdPage = (pageLength + 2) / 3;
+        while (true) {
+            Window<T> current = window.get();
+            int firstIndex = Math.max(0, (current.centerPage - 2) * current.thirdPage);
+            List<Page<T>> dropped;
+            synchronized (cache) {
+                dropped = new ArrayList<>(cache.values());
+                cache.clear();
+            }
+            Window<T> next = createWindow(calculateCenterPage(firstIndex, false, thirdPage), thirdPage, 0, 0, chunkGetter.getVersion());
+            if (window.compareAndSet(current, next)) {
+                this.pageLength = pageLength;
+                load(next);
+                cancel(dropped);
+                cancelDropped(current, next);
+                return;
             }
-            temp.addAll(list);
         }
+    }
 
-        this.pageLength = pageLength;
-        this.thirdPage = (pageLength + 2) / 3;
-        this.centerPage = calculateCenterPage(firstIndex, false);
-
-        int indexInPage = calculateIndexInPage(firstIndex);
-        int offset = 0;
-        if (indexInPage > 0) offset = this.thirdPage - indexInPage;
-        int firstFullPage = calculatePage(firstIndex + offset);
-        int start = Math.min(firstFullPage, centerPage - 2);
-        for (int i = start; i <= centerPage + 2; i++) {
-            int page = i - (centerPage - 2);
-            if (i < firstFullPage && i >= (centerPage - 2)) {
-                getChunk(i, i - (centerPage - 2));
-                continue;
-            }
-            if (i < (centerPage - 2)) {
-                offset += this.thirdPage;
+    private void load(@NotNull Window<T> target) {
+        List<Page<T>> queued = new ArrayList<>(WINDOW_SIZE + target.prefetch.size());
+        // The pages of the window are queued first, so they are loaded before the pages read ahead
+        for (Page<T> page : target.all()) {
+            if (page.chunk < 0) {
+                int previousState = page.claim();
+                if (previousState == Page.NEW || previousState == Page.QUEUED) page.complete(null);
                 continue;
             }
-            if ((offset + this.thirdPage) > temp.size()) {
-                getChunk(i, page);
-                continue;
-            }
-            awaitUpdate(page);
-            synchronized (updating[page]) {
-                setPage(temp.subList(offset, offset + this.thirdPage), page);
-                offset += this.thirdPage;
-            }
+            if (page.queue()) queued.add(page);
+        }
+        // Count all loads up front, so listeners are not notified before the whole window is loaded
+        pendingLoads.addAndGet(queued.size());
+        Executor executor = PageLoader.getExecutor();
+        for (Page<T> page : queued) {
+            executor.execute(() -> {
+                // A page that was cancelled or taken over by a reader in the meantime is skipped
+                if (page.begin()) read(page);
+            });
         }
     }
 
-    private void shiftUp() {
-        awaitAllUpdates();
-        this.centerPage++;
-        page0 = page1;
-        page1 = page2;
-        page2 = page3;
-        page3 = page4;
+    /**
+     * Cancels the queued loads of pages that are no longer part of the window or read ahead.
+     * The pages stay cached and are queued again when the window returns to them.
+     */
+    private void cancelDropped(@NotNull Window<T> previous, @NotNull Window<T> next) {
+        List<Page<T>> dropped = new ArrayList<>();
+        for (Page<T> page : previous.all()) {
+            if (!next.contains(page)) dropped.add(page);
+        }
+        cancel(dropped);
     }
 
-    private void shiftDown() {
-        awaitAllUpdates();
-        this.centerPage--;
-        page4 = page3;
-        page3 = page2;
-        page2 = page1;
-        page1 = page0;
+    private void read(@NotNull Page<T> page) {
+        List<T> read = null;
+        try {
+            if (page.chunk >= 0) read = chunkGetter.getChunk(page.length, page.length * page.chunk);
+        } catch (Exception ignored) {
+        }
+        page.publish(read);
+        pendingLoads.decrementAndGet();
+        try {
+            notifyUpdateComplete();
+        } finally {
+            page.complete(read);
+        }
     }
 
-    private void reloadFromStart(int to) {
-        for (int i = 0; i < to; i++) {
-            getChunk((centerPage - 2) + i, i);
-        }
+    private List<T> await(@NotNull Page<T> page) {
+        int previousState = page.claim();
+        if (previousState == Page.NEW) pendingLoads.incrementAndGet();
+        // Load pages that were cancelled or are still queued right here instead of waiting for a loader thread
+        if (previousState == Page.NEW || previousState == Page.QUEUED) read(page);
+        return page.await();
     }
 
-    private void reloadFromEnd(int to) {
-        for (int i = 0; i < to; i++) {
-            getChunk((centerPage + 2) - i, 4 - i);
-        }
+    /**
+     * Returns the maximum number of pages kept in the cache. The pages of the current window are never evicted,
+     * so the cache may temporarily hold more pages.
+     *
+     * @return The maximum number of cached pages.
+     */
+    public int getCacheSize() {
+        return cacheSize;
     }
 
-    private void getAll() {
-        getChunk(centerPage - 2, 0);
-        getChunk(centerPage - 1, 1);
-        getChunk(centerPage, 2);
-        getChunk(centerPage + 1, 3);
-        getChunk(centerPage + 2, 4);
+    /**
+     * Sets the maximum number of pages kept in the cache. Values below the five pages of the window are raised to five.
+     *
+     * @param cacheSize The maximum number of cached pages.
+     */
+    public void setCacheSize(int cacheSize) {
+        if (cacheSize < WINDOW_SIZE) cacheSize = WINDOW_SIZE;
+        this.cacheSize = cacheSize;
+        trimCache(window.get());
     }
 
-    private void getChunk(int chunk, int page) {
-        int offset = thirdPage * chunk;
-        awaitUpdate(page);
-        synchronized (updating[page]) {
-            if (offset < 0) {
-                setPage(null, page);
-                return;
-            }
-            updating[page] = true;
-        }
-        FutureTask<List<T>> futureTask = new FutureTask<>(() -> {
-            synchronized (updating[page]) {
-                try {
-                    List<T> read = chunkGetter.getChunk(thirdPage, offset);
-                    setPage(read, page);
-                    updating[page] = false;
-                    notifyUpdateComplete();
-                    return read;
-                } catch (Exception e) {
-                    setPage(null, page);
-                    updating[page] = false;
-                    notifyUpdateComplete();
-                    return null;
-                }
-            }
-        }
-        );
-        executor.execute(futureTask);
+    /**
+     * Returns the maximum number of pages read ahead of the window on sequential access.
+     *
+     * @return The maximum number of pages read ahead.
+     */
+    public int getPrefetchLimit() {
+        return prefetchLimit;
     }
 
-    private void setPage(List<T> list, int page) {
-        if (page == 0) {
-            page0 = list;
-            return;
-        }
-        if (page == 1) {
-            page1 = list;
-            return;
-        }
-        if (page == 2) {
-            page2 = list;
-            return;
-        }
-        if (page == 3) {
-            page3 = list;
-            return;
-        }
-        if (page == 4) {
-            page4 = list;
+    /**
+     * Sets the maximum number of pages read ahead of the window on sequential access. 0 disables reading ahead.
+     *
+     * @param prefetchLimit The maximum number of pages read ahead.
+     */
+    public void setPrefetchLimit(int prefetchLimit) {
+        if (prefetchLimit < 0) prefetchLimit = 0;
+        this.prefetchLimit = prefetchLimit;
+    }
+
+    /**
+     * @return The number of window pages that were already loaded or loading when the window moved to them
+     */
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    /**
+     * @return The number of window pages that had to be loaded when the window moved to them
+     */
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    /**
+     * @return The number of pages that were read ahead of the window
+     */
+    public long getPrefetchedPages() {
+        return prefetchedPages.get();
+    }
+
+    /**
+     * @return The number of pages currently cached
+     */
+    public int getCachedPages() {
+        synchronized (cache) {
+            return cache.size();
         }
     }
 
+    public void resetCacheStatistics() {
+        cacheHits.set(0);
+        cacheMisses.set(0);
+        prefetchedPages.set(0);
+    }
+
     public boolean isUpdating() {
-        for (Boolean b : updating) {
-            if (b) return true;
-        }
-        return false;
+        return pendingLoads.get() > 0;
     }
 
     public int firstAvailableIndex() {
-        int index = (centerPage - 1) * thirdPage;
+        Window<T> current = window.get();
+        int index = (current.centerPage - 1) * current.thirdPage;
         if (index < 0) index = 0;
         return index;
     }
 
     public int lastAvailableIndex() {
-        int firstIndex = firstAvailableIndex();
-        if (page1 != null) firstIndex += page1.size();
-        if (page2 != null) firstIndex += page2.size();
-        if (page3 != null) firstIndex += page3.size();
-        return firstIndex;
+        Window<T> current = window.get();
+        int index = Math.max(0, (current.centerPage - 1) * current.thirdPage);
+        for (int offset = -1; offset <= 1; offset++) {
+            List<T> data = current.page(offset).peek();
+            if (data != null) index += data.size();
+        }
+        return index;
     }
 
     public void addUpdateCompleteListener(@NotNull ListUpdateCompleteListener<T> listUpdateCompleteListener) {
@@ -366,9 +467,48 @@ public class PagedList<T> implements List<T> {
         return this.updateCompleteListeners.remove(listUpdateCompleteListener);
     }
 
+    /**
+     * Returns the total number of elements. The total is counted once and cached until the data changes.
+     *
+     * @return The total number of elements.
+     */
     @Override
     public int size() {
-        return chunkGetter.getTotal();
+        long version = chunkGetter.getVersion();
+        dropStalePages(version);
+        Total cached = total;
+        if (cached != null && cached.version == version) return cached.size;
+        return count(version);
+    }
+
+    /**
+     * Drops the cached total, the next call to {@link #size()} counts the elements again.
+     */
+    public void invalidateSize() {
+        total = null;
+    }
+
+    /**
+     * Releases the resources the {@link ChunkGetter} holds for reading pages, e.g. its compiled query.
+     * The list stays usable, pages read afterwards are more expensive.
+     */
+    public void close() {
+        chunkGetter.close();
+    }
+
+    /**
+     * Counts the elements again.
+     *
+     * @return The total number of elements.
+     */
+    public int refreshSize() {
+        return count(chunkGetter.getVersion());
+    }
+
+    private int count(long version) {
+        int size = chunkGetter.getTotal();
+        total = new Total(version, size);
+        return size;
     }
 
     @Override
@@ -461,21 +601,24 @@ public class PagedList<T> implements List<T> {
 
     @Override
     public T get(int index) {
-        int pageNumber = calculatePage(index);
-        int offset = pageNumber - this.centerPage;
-        if (this.allowAutomaticLoading) {
-            if (offset < -1) {
-                preparePages(index, false);
-                return get(index);
-            }
-            if (offset > 1) {
-                preparePages(index, true);
-                return get(index);
-            }
+        dropStalePages(chunkGetter.getVersion());
+        Window<T> current = window.get();
+        int pageNumber = index / current.thirdPage;
+        int offset = pageNumber - current.centerPage;
+        if (this.allowAutomaticLoading && (offset < -1 || offset > 1)) {
+            // Read from the window that was moved here, even if another reader moves it on in the meantime
+            current = moveWindow(index, offset > 1);
+            pageNumber = index / current.thirdPage;
+            offset = pageNumber - current.centerPage;
+        }
+        if (offset < -2 || offset > 2) throw new IndexOutOfBoundsException("Not loaded, yet");
+        if (!this.allowAutomaticLoading) {
+            // Without automatic loading only the prepared window is read, so it is awaited as a whole
+            for (Page<T> windowPage : current.pages) await(windowPage);
         }
-        List<T> page = getListForPage(offset);
+        List<T> page = await(current.page(offset));
         if (page == null) throw new ArrayIndexOutOfBoundsException();
-        int indexInPage = calculateIndexInPage(index);
+        int indexInPage = index % current.thirdPage;
         return page.get(indexInPage);
     }
 
@@ -514,12 +657,25 @@ public class PagedList<T> implements List<T> {
     @Override
     public ListIterator<T> listIterator(int index) {
         return new ListIterator<T>() {
-            @SuppressWarnings("MismatchedQueryAndUpdateOfCollection")
-            private final PagedList<T> creatingPagedList = new PagedList<>(chunkGetter, size() / 5);
+            // The iterator reads its own chunks, so it neither moves the window of this list nor evicts its pages
+            private final int chunkLength = pageLength;
+            private List<T> chunk = null;
+            private int chunkStart = 0;
 
             private int i = index;
             private final int size = size();
 
+            private T read(int index) {
+                if (chunk == null || index < chunkStart || index >= chunkStart + chunk.size()) {
+                    chunkStart = (index / chunkLength) * chunkLength;
+                    chunk = chunkGetter.getChunk(chunkLength, chunkStart);
+                    if (chunk == null) chunk = new ArrayList<>();
+                }
+                int offset = index - chunkStart;
+                if (offset < 0 || offset >= chunk.size()) return null;
+                return chunk.get(offset);
+            }
+
             @Override
             public boolean hasNext() {
                 return i < size;
@@ -527,7 +683,7 @@ public class PagedList<T> implements List<T> {
 
             @Override
             public T next() {
-                T result = creatingPagedList.get(i);
+                T result = read(i);
                 i++;
                 return result;
             }
@@ -540,7 +696,7 @@ public class PagedList<T> implements List<T> {
             @Override
             public T previous() {
                 i--;
-                return creatingPagedList.get(i);
+                return read(i);
             }
 
             @Override
@@ -574,14 +730,11 @@ public class PagedList<T> implements List<T> {
     @Override
     public List<T> subList(int fromIndex, int toIndex) {
         int size = toIndex - fromIndex;
-        if (size < 0) size = 0;
-        List<T> output = new ArrayList<>(size);
-        @SuppressWarnings("MismatchedQueryAndUpdateOfCollection")
-        PagedList<T> creatingPagedList = new PagedList<>(chunkGetter, size / 5);
-        for (int i = fromIndex; i < toIndex; i++) {
-            output.add(creatingPagedList.get(i));
-        }
-        return output;
+        if (size < 1 || fromIndex < 0) return new ArrayList<>();
+        // Read in a single chunk instead of moving the window of this list
+        List<T> chunk = chunkGetter.getChunk(size, fromIndex);
+        if (chunk == null) return new ArrayList<>();
+        return new ArrayList<>(chunk);
     }
 
     @Override
@@ -589,11 +742,143 @@ public class PagedList<T> implements List<T> {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         PagedList<?> pagedList = (PagedList<?>) o;
-        return thirdPage == pagedList.thirdPage && allowAutomaticLoading == pagedList.allowAutomaticLoading && Objects.equals(chunkGetter, pagedList.chunkGetter);
+        return window.get().thirdPage == pagedList.window.get().thirdPage && allowAutomaticLoading == pagedList.allowAutomaticLoading && Objects.equals(chunkGetter, pagedList.chunkGetter);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(thirdPage, allowAutomaticLoading);
+        return Objects.hash(window.get().thirdPage, allowAutomaticLoading);
+    }
+
+    /**
+     * The five pages around a center page and the pages read ahead of it. A window is never changed, moving creates a new one.
+     */
+    private static final class Window<T> {
+        private final int centerPage;
+        private final int thirdPage;
+        private final int direction;
+        private final int streak;
+        private final long version;
+        private final List<Page<T>> pages;
+        private final List<Page<T>> prefetch;
+
+        Window(int centerPage, int thirdPage, int direction, int streak, long version, @NotNull List<Page<T>> pages, @NotNull List<Page<T>> prefetch) {
+            this.centerPage = centerPage;
+            this.thirdPage = thirdPage;
+            this.direction = direction;
+            this.streak = streak;
+            this.version = version;
+            this.pages = Collections.unmodifiableList(pages);
+            this.prefetch = Collections.unmodifiableList(prefetch);
+        }
+
+        @NotNull Page<T> page(int offset) {
+            return pages.get(offset + 2);
+        }
+
+        @NotNull List<Page<T>> all() {
+            List<Page<T>> all = new ArrayList<>(pages.size() + prefetch.size());
+            all.addAll(pages);
+            all.addAll(prefetch);
+            return all;
+        }
+
+        boolean contains(@NotNull Page<T> page) {
+            return pages.contains(page) || prefetch.contains(page);
+        }
+    }
+
+    /**
+     * The total number of elements for a version of the data.
+     */
+    private static final class Total {
+        private final long version;
+        private final int size;
+
+        Total(long version, int size) {
+            this.version = version;
+            this.size = size;
+        }
+    }
+
+    /**
+     * A single chunk of data. The data is published before the future completes,
+     * so listeners that are notified in between can already read it.
+     */
+    private static final class Page<T> {
+        static final int NEW = 0;
+        static final int QUEUED = 1;
+        static final int LOADING = 2;
+        static final int DONE = 3;
+
+        private final int chunk;
+        private final int length;
+        private final long version;
+        private final AtomicInteger state = new AtomicInteger(NEW);
+        private final CompletableFuture<List<T>> loaded = new CompletableFuture<>();
+        private volatile boolean published = false;
+        private volatile List<T> data;
+
+        Page(int chunk, int length, long version) {
+            this.chunk = chunk;
+            this.length = length;
+            this.version = version;
+        }
+
+        boolean queue() {
+            return state.compareAndSet(NEW, QUEUED);
+        }
+
+        boolean begin() {
+            return state.compareAndSet(QUEUED, LOADING);
+        }
+
+        boolean cancel() {
+            return state.compareAndSet(QUEUED, NEW);
+        }
+
+        boolean isRequested() {
+            return state.get() != NEW;
+        }
+
+        /**
+         * Takes over loading the page if nobody is loading it yet.
+         *
+         * @return The state before, the caller has to load the page if it was {@link #NEW} or {@link #QUEUED}
+         */
+        int claim() {
+            while (true) {
+                int current = state.get();
+                if (current == LOADING || current == DONE) return current;
+                if (state.compareAndSet(current, LOADING)) return current;
+            }
+        }
+
+        void publish(List<T> data) {
+            this.data = data;
+            this.published = true;
+        }
+
+        void complete(List<T> data) {
+            publish(data);
+            state.set(DONE);
+            loaded.complete(data);
+        }
+
+        List<T> peek() {
+            return published ? data : null;
+        }
+
+        List<T> await() {
+            if (published) return data;
+            try {
+                return loaded.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Interrupted while loading");
+            } catch (ExecutionException e) {
+                return null;
+            }
+        }
     }
-}
+}
\ No newline at end of file
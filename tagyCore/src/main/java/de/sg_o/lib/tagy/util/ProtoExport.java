@@ -0,0 +1,119 @@
+/*
+ *
+ *      Copyright (C) 2023 Joerg Bayer (SG-O)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sg_o.lib.tagy.util;
+
+import de.sg_o.lib.tagy.Project;
+import de.sg_o.lib.tagy.data.FileInfo;
+import de.sg_o.lib.tagy.data.MetaData;
+import de.sg_o.proto.tagy.ExportRecordProto;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Exports a project as a stream of length-delimited {@link ExportRecordProto.ExportRecord} messages.
+ * <p>
+ * The stream starts with {@link #MAGIC}, the format version and the compression, followed by the project
+ * with its structure definition and data sources, every file and every annotation. With compression the records
+ * are gzipped, the compressor is flushed every {@value ExportWriter#FLUSH_INTERVAL} records.
+ * {@link ProtoImport} reads the stream back.
+ */
+public class ProtoExport {
+    public static final byte[] MAGIC = {'T', 'A', 'G', 'Y'};
+    public static final int VERSION = 1;
+    public static final int COMPRESSION_NONE = 0;
+    public static final int COMPRESSION_GZIP = 1;
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private final OutputStream outputStream;
+    private final boolean compress;
+
+    public ProtoExport(@NotNull OutputStream outputStream, boolean compress) {
+        this.outputStream = outputStream;
+        this.compress = compress;
+    }
+
+    public ProtoExport(@NotNull File file, boolean compress) throws IOException {
+        this(Files.newOutputStream(file.toPath()), compress);
+    }
+
+    public static byte[] asBytes(@NotNull Project project, boolean compress) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ProtoExport export = new ProtoExport(baos, compress);
+        if (!export.export(project)) return null;
+        return baos.toByteArray();
+    }
+
+    /**
+     * Exports a project. Files and annotations are read from the database in chunks and written one record at a time.
+     *
+     * @param project The project to export
+     * @return true if the project was written completely
+     */
+    public boolean export(@NotNull Project project) {
+        try {
+            outputStream.write(MAGIC);
+            outputStream.write(VERSION);
+            outputStream.write(compress ? COMPRESSION_GZIP : COMPRESSION_NONE);
+            try (OutputStream body = compress ?
+                    new GZIPOutputStream(outputStream, BUFFER_SIZE, true) :
+                    new BufferedOutputStream(outputStream, BUFFER_SIZE)) {
+                write(body, ExportRecordProto.ExportRecord.newBuilder().setProject(project.getAsProto(true)).build());
+                int unflushed = 0;
+                try (Stream<FileInfo> files = FileInfo.stream(project)) {
+                    Iterator<FileInfo> iterator = files.iterator();
+                    while (iterator.hasNext()) {
+                        write(body, ExportRecordProto.ExportRecord.newBuilder().setFileInfo(iterator.next().getAsProto()).build());
+                        unflushed = flush(body, unflushed);
+                    }
+                }
+                try (Stream<MetaData> annotations = MetaData.stream(project)) {
+                    Iterator<MetaData> iterator = annotations.iterator();
+                    while (iterator.hasNext()) {
+                        write(body, ExportRecordProto.ExportRecord.newBuilder().setMetaData(iterator.next().getAsProto()).build());
+                        unflushed = flush(body, unflushed);
+                    }
+                }
+            }
+            return true;
+        } catch (Exception ex) {
+            System.out.println("Failed to export data" + ex.getMessage());
+            try {
+                outputStream.close();
+            } catch (IOException ignore) {
+            }
+            return false;
+        }
+    }
+
+    private static void write(@NotNull OutputStream body, @NotNull ExportRecordProto.ExportRecord record) throws IOException {
+        record.writeDelimitedTo(body);
+    }
+
+    private static int flush(@NotNull OutputStream body, int unflushed) throws IOException {
+        unflushed++;
+        if (unflushed < ExportWriter.FLUSH_INTERVAL) return unflushed;
+        body.flush();
+        return 0;
+    }
+}
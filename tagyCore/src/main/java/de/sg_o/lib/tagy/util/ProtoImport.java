@@ -0,0 +1,172 @@
+/*
+ *
+ *      Copyright (C) 2023 Joerg Bayer (SG-O)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sg_o.lib.tagy.util;
+
+import de.sg_o.lib.tagy.Project;
+import de.sg_o.lib.tagy.data.DataManager;
+import de.sg_o.lib.tagy.data.FileInfo;
+import de.sg_o.lib.tagy.db.DB;
+import de.sg_o.lib.tagy.def.StructureDefinition;
+import de.sg_o.lib.tagy.values.User;
+import de.sg_o.proto.tagy.ExportRecordProto;
+import de.sg_o.proto.tagy.FileInfoProto;
+import de.sg_o.proto.tagy.MetaDataProto;
+import de.sg_o.proto.tagy.ProjectProto;
+import io.objectbox.Box;
+import io.objectbox.BoxStore;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Imports a project written by {@link ProtoExport}.
+ * <p>
+ * Files and annotations are stored in batches of {@value FileInfo#BULK_QUERY_SIZE}, each batch in a single transaction.
+ * Files and annotations that already exist in the project are replaced. Annotations are stored by an
+ * {@link AnnotationWriter}, which binds their tags to the tag definitions of the imported structure definition by their key.
+ */
+public class ProtoImport {
+    private final InputStream inputStream;
+
+    private AnnotationWriter annotationWriter = null;
+    private int importedFiles = 0;
+    private int importedAnnotations = 0;
+
+    public ProtoImport(@NotNull InputStream inputStream) {
+        this.inputStream = inputStream;
+    }
+
+    public ProtoImport(@NotNull File file) throws IOException {
+        this(Files.newInputStream(file.toPath()));
+    }
+
+    /**
+     * Imports the project. A project of the same name is updated, otherwise it is created.
+     *
+     * @param user The user of a newly created project
+     * @return The imported project or null if the stream could not be read
+     */
+    public Project importProject(@NotNull User user) {
+        BoxStore db = DB.getDb();
+        if (db == null) return null;
+        try (InputStream body = open()) {
+            if (body == null) return null;
+            ExportRecordProto.ExportRecord header = ExportRecordProto.ExportRecord.parseDelimitedFrom(body);
+            if (header == null || !header.hasProject()) return null;
+            Project project = importHeader(header.getProject(), user);
+            if (project == null) return null;
+
+            List<FileInfoProto.FileInfo> files = new ArrayList<>();
+            List<MetaDataProto.MetaData> annotations = new ArrayList<>();
+            ExportRecordProto.ExportRecord record;
+            while ((record = ExportRecordProto.ExportRecord.parseDelimitedFrom(body)) != null) {
+                if (record.hasFileInfo()) {
+                    files.add(record.getFileInfo());
+                    if (files.size() >= FileInfo.BULK_QUERY_SIZE) importFiles(db, files, project);
+                } else if (record.hasMetaData()) {
+                    // Annotations are bound to their files, so all files read so far are stored first
+                    importFiles(db, files, project);
+                    annotations.add(record.getMetaData());
+                    if (annotations.size() >= FileInfo.BULK_QUERY_SIZE) importAnnotations(annotations);
+                }
+            }
+            importFiles(db, files, project);
+            importAnnotations(annotations);
+            return project;
+        } catch (Exception ex) {
+            System.out.println("Failed to import data" + ex.getMessage());
+            return null;
+        }
+    }
+
+    public int getImportedFiles() {
+        return importedFiles;
+    }
+
+    public int getImportedAnnotations() {
+        return importedAnnotations;
+    }
+
+    private InputStream open() throws IOException {
+        byte[] magic = new byte[ProtoExport.MAGIC.length];
+        DataInputStream header = new DataInputStream(inputStream);
+        header.readFully(magic);
+        if (!Arrays.equals(magic, ProtoExport.MAGIC)) return null;
+        if (header.readUnsignedByte() != ProtoExport.VERSION) return null;
+        switch (header.readUnsignedByte()) {
+            case ProtoExport.COMPRESSION_NONE:
+                return new BufferedInputStream(inputStream, ProtoExport.BUFFER_SIZE);
+            case ProtoExport.COMPRESSION_GZIP:
+                return new GZIPInputStream(inputStream, ProtoExport.BUFFER_SIZE);
+            default:
+                return null;
+        }
+    }
+
+    private Project importHeader(@NotNull ProjectProto.Project proto, @NotNull User user) {
+        Project project = Project.openOrCreate(proto.getProjectName(), user);
+        if (project.getId() == null) return null;
+        StructureDefinition structureDefinition = project.resolveStructureDefinition();
+        structureDefinition.setTagDefinitions(proto.getStructureDefinition());
+        if (!structureDefinition.save()) return null;
+        annotationWriter = new AnnotationWriter(project);
+        if (proto.hasDataManager()) {
+            DataManager dataManager = project.resolveDataManager();
+            dataManager.setDataSources(proto.getDataManager());
+            if (!dataManager.save()) return null;
+        }
+        return project;
+    }
+
+    private void importFiles(@NotNull BoxStore db, @NotNull List<FileInfoProto.FileInfo> files, @NotNull Project project) {
+        if (files.isEmpty()) return;
+        Set<String> urls = new HashSet<>();
+        for (FileInfoProto.FileInfo file : files) {
+            urls.add(file.getAbsolutePath());
+        }
+        Map<String, FileInfo> existing = FileInfo.openAll(urls, project);
+        List<FileInfo> imported = new ArrayList<>(files.size());
+        Set<String> seen = new HashSet<>();
+        for (FileInfoProto.FileInfo file : files) {
+            FileInfo fileInfo = existing.get(file.getAbsolutePath());
+            if (fileInfo == null) {
+                // The name of the project may have been sanitized differently on the exporting side
+                fileInfo = new FileInfo(file.toBuilder().setProjectName(project.getProjectName()).build(), project);
+                existing.put(file.getAbsolutePath(), fileInfo);
+            } else {
+                // A file listed more than once keeps the state of its last entry
+                fileInfo.setAnnotated(file.getAnnotated());
+            }
+            if (seen.add(file.getAbsolutePath())) imported.add(fileInfo);
+        }
+        Box<FileInfo> box = db.boxFor(FileInfo.class);
+        db.runInTx(() -> box.put(imported));
+        DB.dataChanged(FileInfo.class);
+        importedFiles += files.size();
+        files.clear();
+    }
+
+    private void importAnnotations(@NotNull List<MetaDataProto.MetaData> annotations) {
+        if (annotations.isEmpty()) return;
+        importedAnnotations += annotationWriter.write(annotations);
+        annotations.clear();
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ *
+ *      Copyright (C) 2023 Joerg Bayer (SG-O)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sg_o.lib.tagy.util;
+
+import de.sg_o.lib.tagy.Project;
+import de.sg_o.lib.tagy.data.MetaData;
+import de.sg_o.lib.tagy.data.TagContainer;
+import de.sg_o.lib.tagy.def.StructureDefinition;
+import de.sg_o.lib.tagy.def.TagDefinition;
+import de.sg_o.proto.tagy.TagDefinitionProto;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Exports the annotations of a project as a table in CSV format, one row per annotation.
+ * <p>
+ * The first column holds the file, followed by one column per top level {@link TagDefinition}.
+ * Lists are expanded into one column per value, named after the component of the {@link TagDefinitionProto.Parameter}
+ * (for example {@code box.x}, {@code box.width}) or after the index ({@code points.0}). Lists without a fixed size
+ * get as many columns as the longest list of the project, which takes an additional pass over the annotations.
+ * <p>
+ * Every column holds values of one {@link ColumnType}, see {@link #getColumns()}. Dates are written in ISO 8601,
+ * missing values are left empty. Annotations are read from the database in chunks and written one row at a time.
+ */
+public class TableExport {
+    public static final String FILE_COLUMN = "file";
+
+    public enum ColumnType {
+        LONG,
+        DOUBLE,
+        BOOLEAN,
+        DATE,
+        STRING
+    }
+
+    public static final class Column {
+        private final @NotNull String name;
+        private final @NotNull ColumnType type;
+
+        Column(@NotNull String name, @NotNull ColumnType type) {
+            this.name = name;
+            this.type = type;
+        }
+
+        public @NotNull String getName() {
+            return name;
+        }
+
+        public @NotNull ColumnType getType() {
+            return type;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + type;
+        }
+    }
+
+    private static final char SEPARATOR = ',';
+    private static final String LINE_SEPARATOR = "\r\n";
+
+    private final OutputStream outputStream;
+    private final List<Column> columns = new ArrayList<>();
+
+    public TableExport(@NotNull OutputStream outputStream) {
+        this.outputStream = outputStream;
+    }
+
+    public TableExport(@NotNull File file) throws IOException {
+        this(Files.newOutputStream(file.toPath()));
+    }
+
+    public static String asString(@NotNull Project project) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        TableExport export = new TableExport(baos);
+        export.export(project);
+        return new String(baos.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return The columns of the last export in the order they were written
+     */
+    public @NotNull List<Column> getColumns() {
+        return Collections.unmodifiableList(columns);
+    }
+
+    /**
+     * Exports the annotations of a project.
+     *
+     * @param project The project to export
+     * @return true if the table was written completely
+     */
+    public boolean export(@NotNull Project project) {
+        columns.clear();
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8),
+                ProtoExport.BUFFER_SIZE)) {
+            Layout layout = new Layout(project.resolveStructureDefinition());
+            if (layout.hasVariableLists()) layout.measure(project);
+            columns.addAll(layout.columns);
+
+            String[] row = new String[columns.size()];
+            for (int i = 0; i < row.length; i++) {
+                row[i] = columns.get(i).getName();
+            }
+            writeRow(writer, row);
+            int unflushed = 0;
+            try (Stream<MetaData> annotations = MetaData.stream(project)) {
+                Iterator<MetaData> iterator = annotations.iterator();
+                while (iterator.hasNext()) {
+                    MetaData metaData = iterator.next();
+                    Arrays.fill(row, null);
+                    row[0] = metaData.getFileReference();
+                    for (TagContainer tagContainer : metaData.getTagContainers()) {
+                        Group group = layout.group(tagContainer);
+                        if (group != null) group.fill(tagContainer, row);
+                    }
+                    writeRow(writer, row);
+                    unflushed++;
+                    if (unflushed >= ExportWriter.FLUSH_INTERVAL) {
+                        unflushed = 0;
+                        writer.flush();
+                    }
+                }
+            }
+            return true;
+        } catch (Exception ex) {
+            System.out.println("Failed to export data" + ex.getMessage());
+            return false;
+        }
+    }
+
+    private static void writeRow(@NotNull Writer writer, @NotNull String[] row) throws IOException {
+        for (int i = 0; i < row.length; i++) {
+            if (i > 0) writer.write(SEPARATOR);
+            String cell = row[i];
+            if (cell == null) continue;
+            if (cell.indexOf(SEPARATOR) < 0 && cell.indexOf('"') < 0 && cell.indexOf('\n') < 0 && cell.indexOf('\r') < 0) {
+                writer.write(cell);
+                continue;
+            }
+            writer.write('"');
+            writer.write(cell.replace("\"", "\"\""));
+            writer.write('"');
+        }
+        writer.write(LINE_SEPARATOR);
+    }
+
+    private static @NotNull ColumnType columnType(@NotNull TagDefinition definition) {
+        switch (definition.getType()) {
+            case LONG:
+                return ColumnType.LONG;
+            case DOUBLE:
+                return ColumnType.DOUBLE;
+            case BOOLEAN:
+                return ColumnType.BOOLEAN;
+            case DATE:
+                return ColumnType.DATE;
+            default:
+                return ColumnType.STRING;
+        }
+    }
+
+    private static String format(@NotNull TagContainer tagContainer, @NotNull TagDefinition definition) {
+        switch (definition.getType()) {
+            case LONG:
+                return tagContainer.getLongValue() == null ? null : tagContainer.getLongValue().toString();
+            case DOUBLE:
+                return tagContainer.getDoubleValue() == null ? null : tagContainer.getDoubleValue().toString();
+            case BOOLEAN:
+                return tagContainer.getBooleanValue() == null ? null : tagContainer.getBooleanValue().toString();
+            case DATE:
+                if (tagContainer.getLongValue() == null) return null;
+                return DateTimeFormatter.ISO_INSTANT.format(Instant.ofEpochMilli(tagContainer.getLongValue()));
+            case ENUM:
+                if (tagContainer.getLongValue() == null) return null;
+                List<String> enumerators = definition.getEnumerators();
+                long index = tagContainer.getLongValue();
+                if (index < 0 || index >= enumerators.size()) return null;
+                return enumerators.get((int) index);
+            case STRING:
+                return tagContainer.getStringValue();
+            default:
+                // Lists within lists are not expanded any further
+                return tagContainer.getTag().getValueAsString();
+        }
+    }
+
+    /**
+     * The names of the values of a list interpreted by a parameter, in the order they are stored.
+     */
+    private static @NotNull String[] components(@NotNull TagDefinitionProto.Parameter parameter) {
+        switch (parameter) {
+            case POINT_2D:
+                return new String[]{"x", "y"};
+            case POINT_3D:
+                return new String[]{"x", "y", "z"};
+            case LINE:
+                return new String[]{"x1", "y1", "x2", "y2"};
+            case RECTANGLE:
+                return new String[]{"x", "y", "width", "height"};
+            case CIRCLE:
+                return new String[]{"x", "y", "radius"};
+            default:
+                return new String[0];
+        }
+    }
+
+    /**
+     * The columns of a top level tag definition.
+     */
+    private static final class Group {
+        private final @NotNull TagDefinition definition;
+        private final TagDefinition internal;
+        private int first = 0;
+        private int width;
+
+        Group(@NotNull TagDefinition definition) {
+            this.definition = definition;
+            this.internal = definition.resolveInternal();
+            if (internal == null) {
+                width = 1;
+            } else {
+                width = Math.max(definition.getFixedSize(), components(definition.getParameter()).length);
+            }
+        }
+
+        boolean isVariableList() {
+            return internal != null && definition.getFixedSize() < 0;
+        }
+
+        void addColumns(@NotNull List<Column> columns) {
+            first = columns.size();
+            if (internal == null) {
+                columns.add(new Column(definition.getKey(), columnType(definition)));
+                return;
+            }
+            String[] components = components(definition.getParameter());
+            ColumnType type = columnType(internal);
+            for (int i = 0; i < width; i++) {
+                String name = i < components.length ? components[i] : Integer.toString(i);
+                columns.add(new Column(definition.getKey() + "." + name, type));
+            }
+        }
+
+        void fill(@NotNull TagContainer tagContainer, @NotNull String[] row) {
+            if (internal == null) {
+                row[first] = format(tagContainer, definition);
+                return;
+            }
+            List<TagContainer> values = tagContainer.getListValues();
+            int limit = Math.min(width, values.size());
+            for (int i = 0; i < limit; i++) {
+                row[first + i] = format(values.get(i), internal);
+            }
+        }
+    }
+
+    /**
+     * Assigns the columns to the top level tag definitions and finds the definition of a stored tag.
+     */
+    private static final class Layout {
+        private final List<Group> groups = new ArrayList<>();
+        private final Map<String, Group> byKey = new HashMap<>();
+        private final Map<Long, Group> byId = new HashMap<>();
+        private final List<Column> columns = new ArrayList<>();
+
+        Layout(@NotNull StructureDefinition structureDefinition) {
+            for (TagDefinition definition : structureDefinition.getTagDefinitions()) {
+                Group group = new Group(definition);
+                groups.add(group);
+                byKey.put(definition.getKey(), group);
+                if (definition.getId() != null) byId.put(definition.getId(), group);
+            }
+            layOut();
+        }
+
+        boolean hasVariableLists() {
+            for (Group group : groups) {
+                if (group.isVariableList()) return true;
+            }
+            return false;
+        }
+
+        /**
+         * Widens lists without a fixed size to the longest list stored in the project.
+         */
+        void measure(@NotNull Project project) {
+            try (Stream<MetaData> annotations = MetaData.stream(project)) {
+                Iterator<MetaData> iterator = annotations.iterator();
+                while (iterator.hasNext()) {
+                    for (TagContainer tagContainer : iterator.next().getTagContainers()) {
+                        Group group = group(tagContainer);
+                        if (group == null || !group.isVariableList()) continue;
+                        group.width = Math.max(group.width, tagContainer.getListValues().size());
+                    }
+                }
+            }
+            layOut();
+        }
+
+        Group group(@NotNull TagContainer tagContainer) {
+            long id = tagContainer.getTagDefinition().getTargetId();
+            if (byId.containsKey(id)) return byId.get(id);
+            // Tags can refer to a copy of the definition, they are matched by key then
+            TagDefinition definition = tagContainer.resolveTagDefinition();
+            Group group = definition == null ? null : byKey.get(definition.getKey());
+            byId.put(id, group);
+            return group;
+        }
+
+        private void layOut() {
+            columns.clear();
+            columns.add(new Column(FILE_COLUMN, ColumnType.STRING));
+            for (Group group : groups) {
+                group.addColumns(columns);
+            }
+        }
+    }
+}
@@ -31,7 +31,10 @@ import java.io.File;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -250,6 +253,50 @@ class DataManagerTest {
         assertEquals(0, checked2.size());
     }
 
+    @Test
+    void leases() {
+        assertTrue(manager1.clear());
+        assertTrue(manager2.clear());
+
+        manager1.setDataSources(directories1);
+        manager2.setDataSources(directories2);
+        assertTrue(manager1.save());
+        assertTrue(manager2.save());
+        assertTrue(manager1.ingest());
+        assertTrue(manager2.ingest());
+
+        Set<Long> claimed = new HashSet<>();
+        for (int expected : new int[]{4, 4, 2, 0}) {
+            List<FileInfo> checked = manager1.checkOutFiles(false, 4, 60000);
+            assertEquals(expected, checked.size());
+            for (FileInfo fileInfo : checked) {
+                assertTrue(fileInfo.isCheckedOut());
+                assertTrue(claimed.add(fileInfo.getId()));
+            }
+        }
+
+        List<FileInfo> expired = manager2.checkOutFiles(false, 2, -1000);
+        assertEquals(2, expired.size());
+        assertEquals(2, manager2.releaseExpiredLeases());
+        assertEquals(0, manager2.releaseExpiredLeases());
+
+        List<FileInfo> checked = manager2.checkOutFiles(false, 100, 60000);
+        assertEquals(3, checked.size());
+        assertEquals(0, manager2.checkOutFiles(false, 100, 60000).size());
+
+        Date until = checked.get(0).getCheckedOutUntil();
+        assertEquals(3, manager2.renewLeases(checked, 120000).size());
+        assertTrue(checked.get(0).getCheckedOutUntil().after(until));
+        assertTrue(FileInfo.query(project2, false, 100).get(0).getCheckedOutUntil().after(until));
+        // The leases of the first check out were taken over, so they are not renewed
+        assertEquals(0, manager2.renewLeases(expired, 120000).size());
+
+        assertEquals(0, manager2.releaseLeases(expired).size());
+        assertEquals(3, manager2.releaseLeases(checked).size());
+        assertFalse(checked.get(0).isCheckedOut());
+        assertEquals(3, manager2.checkOutFiles(false, 100, 60000).size());
+    }
+
     @Test
     void proto() {
         assertTrue(manager0.clear());
@@ -37,8 +37,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -119,6 +121,29 @@ class FileInfoTest {
         assertTrue(fi3.isAnnotated());
     }
 
+    @Test
+    void openAll() {
+        List<String> urls = new ArrayList<>();
+        urls.add(fi0.getUrlAsString());
+        urls.add(fi1.getUrlAsString());
+        urls.add(fi2.getUrlAsString());
+        urls.add(fi3.getUrlAsString());
+        urls.add("file:/does/not/exist.txt");
+
+        Map<String, FileInfo> found = FileInfo.openAll(urls, p0);
+        assertEquals(3, found.size());
+        assertEquals(fi0, found.get(fi0.getUrlAsString()));
+        assertEquals(fi1, found.get(fi1.getUrlAsString()));
+        assertEquals(fi2, found.get(fi2.getUrlAsString()));
+        assertEquals(fi0.getId(), found.get(fi3.getUrlAsString()).getId());
+        assertNull(found.get("file:/does/not/exist.txt"));
+
+        assertTrue(FileInfo.openAll(new ArrayList<>(), p0).isEmpty());
+        Project p1 = Project.openOrCreate("testProject1", User.getLocalUser());
+        p1.save();
+        assertTrue(FileInfo.openAll(urls, p1).isEmpty());
+    }
+
     @Test
     void getFileType() {
         assertEquals(FileType.MEDIA, fi0.getFileType());
@@ -127,6 +152,46 @@ class FileInfoTest {
         assertEquals(FileType.MEDIA, fi3.getFileType());
     }
 
+    @Test
+    void detectFileTypes() {
+        assertNull(fi1.getMimeType());
+        assertTrue(FileInfo.query(p0, FileType.IMAGE, false, 10).isEmpty());
+
+        long undetected = FileInfo.countUndetected(p0);
+        assertTrue(undetected > 0);
+        assertEquals(undetected, FileInfo.detectFileTypes(p0));
+        assertEquals(0, FileInfo.countUndetected(p0));
+
+        List<FileInfo> images = FileInfo.query(p0, FileType.IMAGE, false, 10);
+        assertEquals(1, images.size());
+        assertEquals(fi1.getUrlAsString(), images.get(0).getUrlAsString());
+        assertTrue(images.get(0).getMimeType().startsWith("image/"));
+        assertEquals(1, FileInfo.query(p0, FileType.TEXT, false, 10).size());
+        assertEquals(0, FileInfo.query(p0, FileType.UNKNOWN, false, 10).size());
+
+        FileInfo text = FileInfo.query(p0, FileType.TEXT, false, 10).get(0);
+        text.setAnnotated(true);
+        assertTrue(text.save());
+        assertEquals(0, FileInfo.query(p0, FileType.TEXT, true, 10).size());
+        assertEquals(1, FileInfo.query(p0, FileType.TEXT, false, 10).size());
+    }
+
+    @Test
+    void dataVersion() {
+        long version = DB.getDataVersion(FileInfo.class);
+        assertTrue(fi0.save());
+        assertNotEquals(version, DB.getDataVersion(FileInfo.class));
+
+        version = DB.getDataVersion(FileInfo.class);
+        List<FileInfo> checkedOut = FileInfo.checkOut(p0, false, 1, 60000);
+        assertEquals(1, checkedOut.size());
+        assertNotEquals(version, DB.getDataVersion(FileInfo.class));
+
+        version = DB.getDataVersion(FileInfo.class);
+        assertEquals(1, FileInfo.releaseLeases(checkedOut).size());
+        assertNotEquals(version, DB.getDataVersion(FileInfo.class));
+    }
+
     @Test
     void testEquals() {
         assertEquals(fi0, fi3);
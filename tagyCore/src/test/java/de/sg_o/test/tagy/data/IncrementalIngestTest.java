@@ -0,0 +1,167 @@
+/*
+ *
+ *      Copyright (C) 2023 Joerg Bayer (SG-O)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sg_o.test.tagy.data;
+
+import de.sg_o.lib.tagy.Project;
+import de.sg_o.lib.tagy.data.DataManager;
+import de.sg_o.lib.tagy.data.DataSource;
+import de.sg_o.lib.tagy.data.FileInfo;
+import de.sg_o.lib.tagy.data.IncrementalIngest;
+import de.sg_o.lib.tagy.db.DB;
+import de.sg_o.lib.tagy.values.User;
+import de.sg_o.test.tagy.testDb.TestDb;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IncrementalIngestTest {
+    @TempDir
+    Path root;
+
+    DataManager manager;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        DB.closeDb();
+        new TestDb();
+
+        write(root.resolve("0.txt"), "0");
+        write(root.resolve("a").resolve("1.txt"), "1");
+        write(root.resolve("a").resolve("2.txt"), "2");
+        write(root.resolve("a").resolve("ignored.bin"), "ignored");
+        write(root.resolve("b").resolve("3.txt"), "3");
+
+        Project project = Project.openOrCreate("Incremental_Project_0", User.getLocalUser());
+        assertTrue(project.save());
+        manager = project.resolveDataManager();
+
+        List<DataSource> dataSources = new ArrayList<>();
+        DataSource dataSource = new DataSource(root.toFile(), true);
+        dataSource.setFileExtensions("txt");
+        dataSources.add(dataSource);
+        manager.setDataSources(dataSources);
+        assertTrue(manager.clear());
+    }
+
+    @Test
+    void run() throws IOException {
+        IncrementalIngest ingest = new IncrementalIngest(manager, 2, 2, 2, 4);
+        assertTrue(ingest.run());
+        assertTrue(ingest.isFinished());
+        assertEquals(4, ingest.getDiscovered());
+        assertEquals(4, ingest.getProcessed());
+        assertEquals(4, ingest.getAdded());
+        assertEquals(0, ingest.getUpdated());
+        assertEquals(0, ingest.getRemoved());
+        assertEquals(4, manager.getFiles(false, 100).size());
+
+        // Nothing changed, every directory matches its snapshot
+        ingest = new IncrementalIngest(manager, 1, 1, 5, 5);
+        assertTrue(ingest.run());
+        assertEquals(4, ingest.getProcessed());
+        assertEquals(0, ingest.getAdded());
+        assertEquals(0, ingest.getUpdated());
+        assertEquals(0, ingest.getRemoved());
+        assertEquals(4, manager.getFiles(false, 100).size());
+
+        Path changed = root.resolve("a").resolve("1.txt");
+        write(changed, "changed");
+        Files.setLastModifiedTime(changed, FileTime.fromMillis(Files.getLastModifiedTime(changed).toMillis() + 10000));
+        write(root.resolve("a").resolve("4.txt"), "4");
+        Files.delete(root.resolve("b").resolve("3.txt"));
+
+        ingest = new IncrementalIngest(manager);
+        assertTrue(ingest.run());
+        assertEquals(1, ingest.getAdded());
+        assertEquals(1, ingest.getUpdated());
+        assertEquals(1, ingest.getRemoved());
+        assertEquals(4, manager.getFiles(false, 100).size());
+
+        FileInfo fileInfo = FileInfo.open(changed.toUri().toURL(), manager.resolveProject());
+        assertNotNull(fileInfo);
+        assertEquals(Files.getLastModifiedTime(changed).toMillis(), fileInfo.getModified());
+        assertEquals(Files.size(changed), fileInfo.getSize());
+        assertNull(FileInfo.open(root.resolve("b").resolve("3.txt").toUri().toURL(), manager.resolveProject()));
+
+        // A whole directory disappears
+        Files.delete(root.resolve("a").resolve("1.txt"));
+        Files.delete(root.resolve("a").resolve("2.txt"));
+        Files.delete(root.resolve("a").resolve("4.txt"));
+        Files.delete(root.resolve("a").resolve("ignored.bin"));
+        Files.delete(root.resolve("a"));
+        assertTrue(manager.ingestIncremental());
+        assertEquals(1, manager.getFiles(false, 100).size());
+    }
+
+    @Test
+    void missingSource() throws IOException {
+        IncrementalIngest ingest = new IncrementalIngest(manager);
+        assertTrue(ingest.run());
+        assertEquals(4, manager.getFiles(false, 100).size());
+
+        // An unmounted source looks like a missing directory, its files must be kept
+        Path moved = Files.move(root, root.resolveSibling(root.getFileName() + "_unmounted"));
+        try {
+            ingest = new IncrementalIngest(manager);
+            assertFalse(ingest.run());
+            assertEquals(0, ingest.getRemoved());
+            assertEquals(4, manager.getFiles(false, 100).size());
+        } finally {
+            Files.move(moved, root);
+        }
+
+        ingest = new IncrementalIngest(manager);
+        assertTrue(ingest.run());
+        assertEquals(0, ingest.getRemoved());
+        assertEquals(4, manager.getFiles(false, 100).size());
+    }
+
+    @Test
+    void afterFullIngest() {
+        assertTrue(manager.ingest());
+        assertEquals(4, manager.getFiles(false, 100).size());
+
+        IncrementalIngest ingest = new IncrementalIngest(manager);
+        assertTrue(ingest.run());
+        assertEquals(0, ingest.getAdded());
+        assertEquals(0, ingest.getRemoved());
+        assertEquals(4, manager.getFiles(false, 100).size());
+
+        // Clearing also drops the snapshots, so the next incremental ingest sees every file again
+        assertTrue(manager.clear());
+        ingest = new IncrementalIngest(manager);
+        assertTrue(ingest.run());
+        assertEquals(4, ingest.getAdded());
+        assertEquals(4, manager.getFiles(false, 100).size());
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+}
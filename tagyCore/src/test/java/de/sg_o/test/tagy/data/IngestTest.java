@@ -0,0 +1,123 @@
+/*
+ *
+ *      Copyright (C) 2023 Joerg Bayer (SG-O)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sg_o.test.tagy.data;
+
+import de.sg_o.lib.tagy.Project;
+import de.sg_o.lib.tagy.data.DataManager;
+import de.sg_o.lib.tagy.data.DataSource;
+import de.sg_o.lib.tagy.data.Ingest;
+import de.sg_o.lib.tagy.db.DB;
+import de.sg_o.lib.tagy.util.IngestCallBack;
+import de.sg_o.lib.tagy.values.User;
+import de.sg_o.test.tagy.testDb.TestDb;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IngestTest {
+    DataManager manager0;
+    DataManager manager1;
+
+    int expected0;
+    int expected1;
+
+    @BeforeEach
+    void setUp() throws URISyntaxException {
+        URL sampleFolder = this.getClass().getResource("/sampleFiles");
+        assertNotNull(sampleFolder);
+        File sampleFile = new File(sampleFolder.toURI());
+        URL sampleMixedFolder = this.getClass().getResource("/sampleFiles/mixed");
+        assertNotNull(sampleMixedFolder);
+        File sampleMixedFile = new File(sampleMixedFolder.toURI());
+
+        DB.closeDb();
+        new TestDb();
+
+        Project project0 = Project.openOrCreate("Ingest_Project_0", User.getLocalUser());
+        Project project1 = Project.openOrCreate("Ingest_Project_1", User.getLocalUser());
+        assertTrue(project0.save());
+        assertTrue(project1.save());
+
+        manager0 = project0.resolveDataManager();
+        manager1 = project1.resolveDataManager();
+
+        List<DataSource> directories0 = new ArrayList<>();
+        DataSource dir = new DataSource(sampleFile, true);
+        dir.setFileExtensions(".jpg, png, .mp4, wmv, .m4a, .mp3");
+        directories0.add(dir);
+        expected0 = dir.getFiles().size();
+        manager0.setDataSources(directories0);
+
+        List<DataSource> directories1 = new ArrayList<>();
+        directories1.add(new DataSource(sampleMixedFile, false));
+        directories1.add(new DataSource(sampleMixedFile, false));
+        expected1 = directories1.get(0).getFiles().size();
+        manager1.setDataSources(directories1);
+
+        assertTrue(manager0.clear());
+        assertTrue(manager1.clear());
+    }
+
+    @Test
+    void run() {
+        AtomicBoolean finished = new AtomicBoolean(false);
+        AtomicLong lastProcessed = new AtomicLong(0);
+        Ingest ingest = new Ingest(manager0, 3, 2, 2, 4);
+        ingest.setCallBack(new IngestCallBack() {
+            @Override
+            public void onIngestFinished(boolean success) {
+                assertTrue(success);
+                finished.set(true);
+            }
+
+            @Override
+            public void onProgressChanged(long processed, long discovered) {
+                assertTrue(processed <= discovered);
+                lastProcessed.set(processed);
+            }
+        });
+        assertTrue(ingest.run());
+        assertTrue(finished.get());
+        assertTrue(ingest.isFinished());
+        assertTrue(expected0 > 0);
+        assertEquals(expected0, ingest.getDiscovered());
+        assertEquals(expected0, ingest.getProcessed());
+        assertEquals(expected0, lastProcessed.get());
+        assertEquals(expected0, manager0.getFiles(false, 100).size());
+
+        assertTrue(new Ingest(manager0, 1, 1, 5, 5).run());
+        assertEquals(expected0, manager0.getFiles(false, 100).size());
+    }
+
+    @Test
+    void duplicateSources() {
+        assertTrue(new Ingest(manager1, 2, 3, 3, 3).run());
+        assertEquals(expected1, manager1.getFiles(false, 100).size());
+        assertTrue(manager1.ingest());
+        assertEquals(expected1, manager1.getFiles(false, 100).size());
+    }
+}
@@ -38,6 +38,7 @@ import org.junit.jupiter.api.Test;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -161,6 +162,36 @@ class MetaDataTest {
         assertEquals(md1.hashCode(), md3.hashCode());
     }
 
+    @Test
+    void queryByFileReferences() {
+        List<String> fileReferences = new ArrayList<>();
+        fileReferences.add(fi0.getUrlAsString());
+        fileReferences.add(fi1.getUrlAsString());
+
+        assertTrue(MetaData.queryByFileReferences(fileReferences, project0).isEmpty());
+
+        md0.setTags(tags0);
+        assertTrue(md0.save());
+
+        Map<String, MetaData> found = MetaData.queryByFileReferences(fileReferences, project0);
+        assertEquals(1, found.size());
+        assertEquals(md0, found.get(fi0.getUrlAsString()));
+        assertNull(found.get(fi1.getUrlAsString()));
+
+        md1.setTags(tags1);
+        assertTrue(md1.save());
+        found = MetaData.queryByFileReferences(fileReferences, project0);
+        assertEquals(2, found.size());
+        assertEquals(md1, found.get(fi1.getUrlAsString()));
+
+        List<MetaData> metaData = MetaData.queryAll(project0, 10);
+        MetaData.resolveFileReferences(metaData, project0);
+        for (MetaData md : metaData) {
+            assertNotNull(md.resolveFileReference());
+            assertEquals(md.getFileReference(), md.resolveFileReference().getUrlAsString());
+        }
+    }
+
     @Test
     void testToString() {
         assertEquals("{\n" +
@@ -0,0 +1,208 @@
+/*
+ *
+ *      Copyright (C) 2023 Joerg Bayer (SG-O)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sg_o.test.tagy.db;
+
+import de.sg_o.lib.tagy.Project;
+import de.sg_o.lib.tagy.Project_;
+import de.sg_o.lib.tagy.db.CompiledQuery;
+import de.sg_o.lib.tagy.db.DB;
+import de.sg_o.lib.tagy.db.QueryBoxSpec;
+import de.sg_o.lib.tagy.util.PagedList;
+import de.sg_o.lib.tagy.values.User;
+import de.sg_o.test.tagy.testDb.TestDb;
+import io.objectbox.query.QueryBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DBTest {
+    QueryBoxSpec<Project> byName = qb -> qb.apply(Project_.projectName
+            .equal("", QueryBuilder.StringOrder.CASE_SENSITIVE).alias("name"));
+
+    @BeforeEach
+    void setUp() {
+        DB.closeDb();
+        new TestDb();
+        assertTrue(Project.openOrCreate("DB_Project_0", User.getLocalUser()).save());
+        assertTrue(Project.openOrCreate("DB_Project_1", User.getLocalUser()).save());
+    }
+
+    @AfterEach
+    void tearDown() {
+        DB.setQueryCacheSize(DB.DEFAULT_QUERY_CACHE_SIZE);
+    }
+
+    @Test
+    void compile() {
+        CompiledQuery<Project> compiled = DB.compile(Project.class, byName);
+        assertNotNull(compiled);
+        assertSame(compiled, DB.compile(Project.class, byName));
+
+        Project found = compiled.findFirst(q -> q.setParameter("name", "DB_Project_0"));
+        assertNotNull(found);
+        assertEquals("DB_Project_0", found.getProjectName());
+        found = compiled.findFirst(q -> q.setParameter("name", "DB_Project_1"));
+        assertNotNull(found);
+        assertEquals("DB_Project_1", found.getProjectName());
+        assertEquals(0, compiled.count(q -> q.setParameter("name", "DB_Project_2")));
+
+        // The static helpers build their own query and never run with the parameters of the compiled one
+        assertEquals(0, DB.count(Project.class, byName));
+        assertNull(DB.queryFirst(Project.class, byName));
+        QueryBoxSpec<Project> all = qb -> qb;
+        CompiledQuery<Project> compiledAll = DB.compile(Project.class, all);
+        assertNotNull(compiledAll);
+        assertEquals(compiledAll.count(null), DB.count(Project.class, all));
+        assertEquals(DB.count(Project.class, all), DB.query(Project.class, all, 0, 0).size());
+    }
+
+    @Test
+    void queryPaged() {
+        DB.setQueryCacheSize(1);
+        CompiledQuery<Project> compiled = DB.compile(Project.class, byName);
+        assertNotNull(compiled);
+
+        // A paged list keeps its query to itself, so it does not push compiled queries out of the cache
+        QueryBoxSpec<Project> all = qb -> qb;
+        PagedList<Project> projects = DB.queryPaged(Project.class, all, 10);
+        assertEquals(2, projects.size());
+        assertEquals("DB_Project_0", projects.get(0).getProjectName());
+        assertFalse(compiled.isClosed());
+
+        projects.close();
+        projects.invalidateSize();
+        assertEquals(2, projects.size());
+
+        // Reopening the database closes the query of the list, it is compiled again against the new database
+        DB.closeDb();
+        new TestDb();
+        assertTrue(Project.openOrCreate("DB_Project_2", User.getLocalUser()).save());
+        projects.invalidateSize();
+        assertEquals(DB.count(Project.class, all), projects.size());
+        projects.close();
+    }
+
+    @Test
+    void evict() {
+        DB.setQueryCacheSize(1);
+        CompiledQuery<Project> compiled = DB.compile(Project.class, byName);
+        assertNotNull(compiled);
+        assertFalse(compiled.isClosed());
+
+        QueryBoxSpec<Project> other = qb -> qb;
+        assertNotNull(DB.compile(Project.class, other));
+        assertTrue(compiled.isClosed());
+        assertNotSame(compiled, DB.compile(Project.class, byName));
+
+        // An evicted query still answers with a temporary query
+        Project found = compiled.findFirst(q -> q.setParameter("name", "DB_Project_0"));
+        assertNotNull(found);
+        assertEquals("DB_Project_0", found.getProjectName());
+    }
+
+    @Test
+    void dataVersion() throws InterruptedException {
+        long version = DB.getDataVersion(Project.class);
+        assertTrue(version > 0);
+        assertEquals(version, DB.getDataVersion(Project.class));
+
+        assertTrue(Project.openOrCreate("DB_Project_2", User.getLocalUser()).save());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (DB.getDataVersion(Project.class) == version && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertNotEquals(version, DB.getDataVersion(Project.class));
+
+        version = DB.getDataVersion(Project.class);
+        QueryBoxSpec<Project> third = qb -> qb.apply(Project_.projectName
+                .equal("DB_Project_2", QueryBuilder.StringOrder.CASE_SENSITIVE));
+        assertTrue(DB.delete(Project.class, third));
+        assertNotEquals(version, DB.getDataVersion(Project.class));
+
+        DB.closeDb();
+        assertEquals(-1, DB.getDataVersion(Project.class));
+    }
+
+    @Test
+    void stream() {
+        for (int i = 2; i < 50; i++) {
+            assertTrue(Project.openOrCreate("DB_Project_" + i, User.getLocalUser()).save());
+        }
+        QueryBoxSpec<Project> removed = qb -> qb.apply(Project_.projectName
+                .endsWith("5", QueryBuilder.StringOrder.CASE_SENSITIVE));
+        assertTrue(DB.delete(Project.class, removed));
+
+        QueryBoxSpec<Project> all = qb -> qb.apply(Project_.projectName
+                .startsWith("DB_Project_", QueryBuilder.StringOrder.CASE_SENSITIVE));
+        long total = DB.count(Project.class, all);
+        assertEquals(45, total);
+        try (Stream<Project> stream = DB.stream(Project.class, all, 4, false)) {
+            List<String> names = stream.map(Project::getProjectName).collect(Collectors.toList());
+            assertEquals(total, names.size());
+            assertTrue(names.contains("DB_Project_0"));
+            assertFalse(names.contains("DB_Project_15"));
+        }
+        try (Stream<Project> stream = DB.stream(Project.class, all, 4, false)) {
+            List<Long> ids = stream.map(Project::getId).collect(Collectors.toList());
+            assertEquals(total, ids.size());
+            for (int i = 1; i < ids.size(); i++) {
+                assertTrue(ids.get(i - 1) < ids.get(i));
+            }
+        }
+        try (Stream<Project> stream = DB.stream(Project.class, all, 3, true)) {
+            Set<String> names = stream.map(Project::getProjectName).collect(Collectors.toSet());
+            assertEquals(total, names.size());
+            assertTrue(names.contains("DB_Project_49"));
+        }
+        try (Stream<Project> stream = DB.stream(Project.class, byName, 4, false)) {
+            assertEquals(0, stream.count());
+        }
+        QueryBoxSpec<Project> single = qb -> qb.apply(Project_.projectName
+                .equal("DB_Project_7", QueryBuilder.StringOrder.CASE_SENSITIVE));
+        try (Stream<Project> stream = DB.stream(Project.class, single)) {
+            List<Project> found = stream.collect(Collectors.toList());
+            assertEquals(1, found.size());
+            assertEquals("DB_Project_7", found.get(0).getProjectName());
+        }
+
+        DB.closeDb();
+        assertEquals(0, DB.stream(Project.class, all).count());
+    }
+
+    @Test
+    void invalidate() {
+        CompiledQuery<Project> compiled = DB.compile(Project.class, byName);
+        assertNotNull(compiled);
+        DB.closeDb();
+        assertTrue(compiled.isClosed());
+        assertNull(DB.compile(Project.class, byName));
+
+        new TestDb();
+        CompiledQuery<Project> recompiled = DB.compile(Project.class, byName);
+        assertNotNull(recompiled);
+        assertNotSame(compiled, recompiled);
+        assertNotNull(recompiled.findFirst(q -> q.setParameter("name", "DB_Project_0")));
+    }
+}
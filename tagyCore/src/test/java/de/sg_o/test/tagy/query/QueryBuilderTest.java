@@ -17,13 +17,18 @@
 
 package de.sg_o.test.tagy.query;
 
+import com.google.protobuf.Any;
 import de.sg_o.lib.tagy.Project;
 import de.sg_o.lib.tagy.data.FileInfo;
 import de.sg_o.lib.tagy.data.MetaData;
+import de.sg_o.lib.tagy.data.TagBitmapIndex;
+import de.sg_o.lib.tagy.data.TagIndexEntry;
 import de.sg_o.lib.tagy.db.DB;
 import de.sg_o.lib.tagy.def.StructureDefinition;
 import de.sg_o.lib.tagy.def.TagDefinition;
+import de.sg_o.lib.tagy.query.Histogram;
 import de.sg_o.lib.tagy.query.MetaDataQueryBuilder;
+import de.sg_o.lib.tagy.query.modifiers.QueryGroup;
 import de.sg_o.lib.tagy.query.modifiers.QueryInternal;
 import de.sg_o.lib.tagy.query.properties.*;
 import de.sg_o.lib.tagy.tag.Tag;
@@ -34,6 +39,7 @@ import de.sg_o.lib.tagy.tag.floating.TagDouble;
 import de.sg_o.lib.tagy.tag.integer.TagLong;
 import de.sg_o.lib.tagy.tag.list.TagList;
 import de.sg_o.lib.tagy.tag.string.TagString;
+import de.sg_o.lib.tagy.util.PagedList;
 import de.sg_o.lib.tagy.values.User;
 import de.sg_o.proto.tagy.TagDefinitionProto;
 import de.sg_o.proto.tagy.query.QueryInternalProto;
@@ -45,6 +51,9 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -114,6 +123,8 @@ class QueryBuilderTest {
         fi1.save();
         fi2.save();
         fi3.save();
+        MetaData.deleteAll(project0);
+        MetaData.deleteAll(project1);
 
         final ArrayList<String> enumerators0 = new ArrayList<>();
         enumerators0.add("Option 1");
@@ -785,4 +796,306 @@ class QueryBuilderTest {
         assertEquals(1, result.size());
         assertEquals(md3, result.get(0));
     }
-}
\ No newline at end of file
+
+    @Test
+    void queryPage() {
+        MetaDataQueryBuilder qb = new MetaDataQueryBuilder(project1);
+        qb.addQueryElement(new Between(td4, -100, 100));
+        List<MetaData> all = qb.query(0, 0);
+        assertEquals(2, all.size());
+        assertEquals(all.subList(0, 1), qb.query(1, 0));
+        assertEquals(all.subList(1, 2), qb.query(1, 1));
+        assertEquals(0, qb.query(1, 2).size());
+
+        // Matching all entries of a list is checked outside the database, pages are still honored
+        qb = new MetaDataQueryBuilder(project0);
+        qb.addQueryElement(new QueryInternal(td2, new NotEquals(tdl0, 10), QueryInternalProto.MatchCondition.MATCH_ALL));
+        List<MetaData> result = qb.query(1, 0);
+        assertEquals(1, result.size());
+        assertEquals(md1, result.get(0));
+        assertEquals(0, qb.query(1, 1).size());
+    }
+
+    @Test
+    void queryIndex() {
+        assertEquals(2, TagIndexEntry.rebuild(project0));
+        assertEquals(2, TagIndexEntry.rebuild(project1));
+        assertTrue(TagIndexEntry.isCurrent(project1));
+
+        MetaDataQueryBuilder qb = new MetaDataQueryBuilder(project1);
+        qb.addQueryElement(new Equals(td4, 23));
+        List<MetaData> result = qb.query(0, 0);
+        assertEquals(1, result.size());
+        assertEquals(md2, result.get(0));
+
+        qb = new MetaDataQueryBuilder(project1);
+        qb.addQueryElement(new Between(td4, -100, 100));
+        qb.addQueryElement(new Equals(td7, false));
+        result = qb.query(0, 0);
+        assertEquals(1, result.size());
+        assertEquals(md3, result.get(0));
+
+        qb = new MetaDataQueryBuilder(project1);
+        qb.addQueryElement(new Greater(td6, 0.0));
+        qb.addQueryElement(new StartsWith(td8, "Test"));
+        result = qb.query(0, 0);
+        assertEquals(1, result.size());
+        assertEquals(md2, result.get(0));
+
+        qb = new MetaDataQueryBuilder(project1);
+        qb.addQueryElement(new Between(td4, -100, 100));
+        List<MetaData> all = qb.query(0, 0);
+        assertEquals(2, all.size());
+        assertEquals(all.subList(1, 2), qb.query(1, 1));
+        assertEquals(0, qb.query(1, 2).size());
+
+        // Elements the index can not answer are evaluated on the meta data found in the index
+        qb = new MetaDataQueryBuilder(project0);
+        qb.addQueryElement(new Equals(td3, "Option 1"));
+        qb.addQueryElement(new QueryInternal(td2, new NotEquals(tdl0, 10), QueryInternalProto.MatchCondition.MATCH_ALL));
+        result = qb.query(0, 0);
+        assertEquals(1, result.size());
+        assertEquals(md1, result.get(0));
+
+        md3.clearTags();
+        qb = new MetaDataQueryBuilder(project1);
+        qb.addQueryElement(new Equals(td7, false));
+        assertEquals(0, qb.query(0, 0).size());
+
+        MetaData.deleteAll(project1);
+        qb = new MetaDataQueryBuilder(project1);
+        qb.addQueryElement(new Equals(td4, 23));
+        assertEquals(0, qb.query(0, 0).size());
+    }
+
+    @Test
+    void queryBitmap() {
+        MetaDataQueryBuilder qb = new MetaDataQueryBuilder(project0);
+        qb.addQueryElement(new Equals(td3, "Option 1"));
+        List<MetaData> result = qb.query(0, 0);
+        assertEquals(1, result.size());
+        assertEquals(md1, result.get(0));
+
+        qb = new MetaDataQueryBuilder(project0);
+        qb.addQueryElement(new NotEquals(td3, "Option 2"));
+        result = qb.query(0, 0);
+        assertEquals(1, result.size());
+        assertEquals(md1, result.get(0));
+
+        qb = new MetaDataQueryBuilder(project0);
+        qb.addQueryElement(new Equals(td3, "Option 2"));
+        assertEquals(0, qb.query(0, 0).size());
+
+        qb = new MetaDataQueryBuilder(project0);
+        qb.addQueryElement(new IsNull(td3));
+        assertEquals(0, qb.query(0, 0).size());
+
+        qb = new MetaDataQueryBuilder(project1);
+        qb.addQueryElement(new NotEquals(td7, true));
+        qb.addQueryElement(new Equals(td4, -35));
+        result = qb.query(0, 0);
+        assertEquals(1, result.size());
+        assertEquals(md3, result.get(0));
+
+        // Saved meta data is applied to the loaded bitmaps
+        md3.clearTags();
+        md3.addTag(new TagBool(td7, true));
+        assertTrue(md3.save());
+        qb = new MetaDataQueryBuilder(project1);
+        qb.addQueryElement(new Equals(td7, true));
+        assertEquals(2, qb.query(0, 0).size());
+
+        // Loading again starts from the stored snapshot
+        TagBitmapIndex.discard(project1);
+        assertEquals(2, qb.query(0, 0).size());
+        assertEquals(1, qb.query(1, 1).size());
+        TagBitmapIndex bitmaps = TagBitmapIndex.open(project1);
+        assertNotNull(bitmaps);
+        assertEquals(2, bitmaps.get(td7.getKey(), 1L).cardinality());
+        assertEquals(0, bitmaps.getOther(td7.getKey(), 1L).cardinality());
+
+        MetaData.deleteAll(project1);
+        assertEquals(0, qb.query(0, 0).size());
+    }
+
+    @Test
+    void queryGroups() {
+        MetaDataQueryBuilder qb = new MetaDataQueryBuilder(project1);
+        qb.addQueryElement(QueryGroup.or(new Equals(td4, 23), new StartsWith(td8, "Alt")));
+        List<MetaData> result = qb.query(0, 0);
+        assertEquals(2, result.size());
+        assertEquals(md2, result.get(0));
+        assertEquals(md3, result.get(1));
+
+        qb = new MetaDataQueryBuilder(project1);
+        qb.addQueryElement(QueryGroup.not(new Equals(td7, true)));
+        result = qb.query(0, 0);
+        assertEquals(1, result.size());
+        assertEquals(md3, result.get(0));
+
+        qb = new MetaDataQueryBuilder(project1);
+        qb.addQueryElement(new Greater(td4, 0));
+        qb.addQueryElement(QueryGroup.not(new Equals(td8, "Test 2")));
+        assertEquals(0, qb.query(0, 0).size());
+
+        qb = new MetaDataQueryBuilder(project1);
+        qb.addQueryElement(QueryGroup.or(QueryGroup.and(new Equals(td7, false), new Less(td4, 0)), new Equals(td8, "Test 2")));
+        result = qb.query(0, 0);
+        assertEquals(2, result.size());
+        assertEquals(md3, qb.query(1, 1).get(0));
+        qb = new MetaDataQueryBuilder(qb.getAsProto());
+        assertEquals(result, qb.query(0, 0));
+
+        // Elements evaluated in the database and on the candidates can be combined as well
+        qb = new MetaDataQueryBuilder(project0);
+        qb.addQueryElement(QueryGroup.or(new Equals(td0, "Test String 0"),
+                new QueryInternal(td2, new NotEquals(tdl0, 10), QueryInternalProto.MatchCondition.MATCH_ALL)));
+        result = qb.query(0, 0);
+        assertEquals(2, result.size());
+        assertEquals(md0, result.get(0));
+        assertEquals(md1, result.get(1));
+        qb = new MetaDataQueryBuilder(project0);
+        qb.addQueryElement(QueryGroup.not(new QueryInternal(td2, new Greater(tdl0, 100), QueryInternalProto.MatchCondition.MATCH_ONE)));
+        result = qb.query(0, 0);
+        assertEquals(1, result.size());
+        assertEquals(md0, result.get(0));
+
+        assertEquals(0.01, QueryGroup.and(new Equals(td4, 23), new Equals(td7, true)).estimateSelectivity(), 1e-9);
+        assertThrows(IllegalArgumentException.class, QueryGroup::or);
+
+        // Groups can not be evaluated on the entries of a list
+        assertThrows(IllegalArgumentException.class, () -> new QueryInternal(td2,
+                QueryGroup.or(new Equals(tdl0, 5)), QueryInternalProto.MatchCondition.MATCH_ONE));
+        QueryInternalProto.QueryInternal nested = new QueryInternal(td2, new Equals(tdl0, 5),
+                QueryInternalProto.MatchCondition.MATCH_ONE).getAsProto().toBuilder()
+                .setQueryElementChild(Any.pack(QueryGroup.or(new Equals(tdl0, 5)).getAsProto())).build();
+        assertThrows(IllegalArgumentException.class, () -> new QueryInternal(nested));
+    }
+
+    @Test
+    void queryAggregation() {
+        MetaDataQueryBuilder qb = new MetaDataQueryBuilder(project1);
+        assertEquals(2, qb.count());
+        Map<String, Long> facet = qb.facet(td7);
+        assertEquals(2, facet.size());
+        assertEquals(1L, facet.get("false"));
+        assertEquals(1L, facet.get("true"));
+
+        qb.addQueryElement(new Equals(td7, true));
+        assertEquals(1, qb.count());
+        assertEquals(0L, qb.facet(td7).get("false"));
+        Map<String, Long> strings = qb.facet(td8);
+        assertEquals(1, strings.size());
+        assertEquals(1L, strings.get("Test 2"));
+        Histogram histogram = qb.histogram(td4, 4);
+        assertEquals(1, histogram.getCount());
+        assertEquals(23, histogram.getMin());
+        assertEquals(23, histogram.getMax());
+        assertArrayEquals(new long[]{1, 0, 0, 0}, histogram.getCounts());
+
+        qb = new MetaDataQueryBuilder(project0);
+        facet = qb.facet(td3);
+        assertEquals(2, facet.size());
+        assertEquals(1L, facet.get("Option 1"));
+        assertEquals(0L, facet.get("Option 2"));
+        assertEquals(0, qb.facet(td2).size());
+        assertEquals(0, qb.histogram(td0, 4).getCount());
+
+        // Values are read from the tag index if it is current, otherwise from the tags
+        for (int version : new int[]{TagIndexEntry.VERSION, 0}) {
+            if (version == TagIndexEntry.VERSION) {
+                assertEquals(2, TagIndexEntry.rebuild(project1));
+            }
+            project1.setTagIndexVersion(version);
+            qb = new MetaDataQueryBuilder(project1);
+            histogram = qb.histogram(td4, 2);
+            assertEquals(2, histogram.getCount());
+            assertEquals(-35, histogram.getMin());
+            assertEquals(23, histogram.getMax());
+            assertEquals(-6, histogram.getAverage(), 1e-9);
+            assertArrayEquals(new long[]{1, 1}, histogram.getCounts());
+            assertEquals(-6, histogram.getUpperBound(0), 1e-9);
+
+            histogram = qb.histogram(td5, 10);
+            assertEquals(1609459200000.0, histogram.getMin());
+            assertEquals(1672531200000.0, histogram.getMax());
+
+            histogram = qb.histogram(td6, 3);
+            assertEquals(-70.0, histogram.getMin());
+            assertEquals(40.0, histogram.getMax());
+            assertArrayEquals(new long[]{1, 0, 1}, histogram.getCounts());
+
+            facet = qb.facet(td5);
+            assertEquals(2, facet.size());
+            assertEquals(1L, facet.get("2021-01-01T00:00:00Z"));
+            assertEquals(1L, facet.get("2023-01-01T00:00:00Z"));
+            facet = qb.facet(td4);
+            assertEquals(1L, facet.get("23"));
+            assertEquals(1L, facet.get("-35"));
+        }
+        project1.setTagIndexVersion(TagIndexEntry.VERSION);
+
+        MetaData.deleteAll(project1);
+        qb = new MetaDataQueryBuilder(project1);
+        assertEquals(0, qb.count());
+        assertTrue(Double.isNaN(qb.histogram(td4, 2).getMin()));
+        assertEquals(0, qb.histogram(td4, 2).getCounts().length);
+    }
+
+    @Test
+    void queryAfter() {
+        MetaDataQueryBuilder qb = new MetaDataQueryBuilder(project1);
+        List<MetaData> result = qb.queryAfter(0, 1);
+        assertEquals(1, result.size());
+        assertEquals(md2, result.get(0));
+        result = qb.queryAfter(md2.getId(), 1);
+        assertEquals(1, result.size());
+        assertEquals(md3, result.get(0));
+        assertEquals(0, qb.queryAfter(md3.getId(), 1).size());
+        assertEquals(0, qb.queryAfter(0, 0).size());
+
+        qb.addQueryElement(new Between(td4, -100, 100));
+        assertEquals(2, qb.queryAfter(0, 5).size());
+        result = qb.queryAfter(md2.getId(), 5);
+        assertEquals(1, result.size());
+        assertEquals(md3, result.get(0));
+
+        qb = new MetaDataQueryBuilder(project1);
+        qb.addQueryElement(QueryGroup.not(new Equals(td7, true)));
+        result = qb.queryAfter(0, 1);
+        assertEquals(1, result.size());
+        assertEquals(md3, result.get(0));
+        assertEquals(0, qb.queryAfter(md3.getId(), 1).size());
+
+        qb = new MetaDataQueryBuilder(project1);
+        qb.addQueryElement(new Equals(td7, true));
+        assertEquals(0, qb.queryAfter(md2.getId(), 1).size());
+
+        // Elements checked on the candidates are applied before the page is cut
+        qb = new MetaDataQueryBuilder(project0);
+        qb.addQueryElement(new QueryInternal(td2, new NotEquals(tdl0, 10), QueryInternalProto.MatchCondition.MATCH_ALL));
+        result = qb.queryAfter(0, 1);
+        assertEquals(1, result.size());
+        assertEquals(md1, result.get(0));
+        assertEquals(0, qb.queryAfter(md1.getId(), 1).size());
+
+        qb = new MetaDataQueryBuilder(project1);
+        List<MetaData> streamed;
+        try (Stream<MetaData> stream = qb.stream(1)) {
+            streamed = stream.collect(Collectors.toList());
+        }
+        assertEquals(2, streamed.size());
+        assertEquals(md2, streamed.get(0));
+        assertEquals(md3, streamed.get(1));
+        qb.addQueryElement(new Less(td6, 0.0));
+        assertEquals(1, qb.stream(10).count());
+
+        qb = new MetaDataQueryBuilder(project1);
+        PagedList<MetaData> paged = qb.queryPaged(3);
+        assertEquals(2, paged.size());
+        assertEquals(md2, paged.get(0));
+        assertEquals(md3, paged.get(1));
+        paged.preparePages(1);
+        assertEquals(md3, paged.get(1));
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ *
+ *      Copyright (C) 2023 Joerg Bayer (SG-O)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sg_o.test.tagy.util;
+
+import de.sg_o.lib.tagy.Project;
+import de.sg_o.lib.tagy.data.FileInfo;
+import de.sg_o.lib.tagy.data.MetaData;
+import de.sg_o.lib.tagy.data.TagContainer;
+import de.sg_o.lib.tagy.db.DB;
+import de.sg_o.lib.tagy.def.StructureDefinition;
+import de.sg_o.lib.tagy.def.TagDefinition;
+import de.sg_o.lib.tagy.tag.integer.TagLong;
+import de.sg_o.lib.tagy.util.AnnotationUpload;
+import de.sg_o.lib.tagy.values.User;
+import de.sg_o.proto.tagy.MetaDataProto;
+import de.sg_o.proto.tagy.TagDefinitionProto;
+import de.sg_o.test.tagy.testDb.TestDb;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URL;
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AnnotationUploadTest {
+    Project p0;
+    TagDefinition td0;
+    FileInfo file0;
+    FileInfo file1;
+
+    @BeforeEach
+    void setUp() {
+        DB.closeDb();
+        new TestDb();
+
+        p0 = Project.openOrCreate("uploadProject0", User.getLocalUser());
+        assertTrue(p0.save());
+        td0 = new TagDefinition("tag0", TagDefinitionProto.Type.LONG);
+        ArrayList<TagDefinition> tagDefinitions = new ArrayList<>();
+        tagDefinitions.add(td0);
+        StructureDefinition def0 = p0.resolveStructureDefinition();
+        def0.setTagDefinitions(tagDefinitions);
+        assertTrue(def0.save());
+
+        URL sampleMediaFile = this.getClass().getResource("/sampleFiles/media/video/sample03.wmv");
+        assertNotNull(sampleMediaFile);
+        URL sampleMixedFile = this.getClass().getResource("/sampleFiles/mixed/sample07.webp");
+        assertNotNull(sampleMixedFile);
+        file0 = FileInfo.openOrCreate(sampleMediaFile, p0);
+        file1 = FileInfo.openOrCreate(sampleMixedFile, p0);
+        MetaData.deleteAll(p0);
+    }
+
+    MetaDataProto.MetaData annotation(String fileReference, long value) {
+        return MetaDataProto.MetaData.newBuilder()
+                .setFileReference(fileReference)
+                .addTagContainers(new TagContainer(new TagLong(td0, value)).getAsProto())
+                .addEditHistory(User.getLocalUser().getAsProto())
+                .build();
+    }
+
+    @Test
+    void upload() {
+        AnnotationUpload upload = new AnnotationUpload(p0, 2);
+        assertNull(upload.add(annotation(file0.getUrlAsString(), 1)));
+        AnnotationUpload.BatchResult result = upload.add(annotation(file1.getUrlAsString(), 2));
+        assertNotNull(result);
+        assertEquals(0, result.getBatch());
+        assertEquals(2, result.getReceived());
+        assertEquals(2, result.getStored());
+
+        // Annotations of files that do not exist are skipped
+        assertNull(upload.add(annotation("file:/unknown", 3)));
+        result = upload.add(annotation(file0.getUrlAsString(), 4));
+        assertNotNull(result);
+        assertEquals(1, result.getBatch());
+        assertEquals(2, result.getReceived());
+        assertEquals(1, result.getStored());
+        assertNull(upload.add(annotation(file0.getUrlAsString(), 5)));
+        result = upload.flush();
+        assertNotNull(result);
+        assertEquals(1, result.getStored());
+        assertNull(upload.flush());
+        assertEquals(3, upload.getResults().size());
+        assertEquals(4, upload.getStored());
+
+        MetaData stored = MetaData.queryFirst(file0, p0);
+        assertNotNull(stored);
+        assertEquals(1, stored.getTagContainers().size());
+        assertEquals(5L, stored.getTagContainers().get(0).getLongValue());
+        assertEquals(td0, stored.getTagContainers().get(0).resolveTagDefinition());
+        stored = MetaData.queryFirst(file1, p0);
+        assertNotNull(stored);
+        assertEquals(2L, stored.getTagContainers().get(0).getLongValue());
+    }
+}
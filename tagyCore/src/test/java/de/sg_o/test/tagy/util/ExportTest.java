@@ -17,6 +17,8 @@
 
 package de.sg_o.test.tagy.util;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.json.JsonMapper;
 import de.sg_o.lib.tagy.Project;
 import de.sg_o.lib.tagy.data.DataManager;
 import de.sg_o.lib.tagy.data.DataSource;
@@ -34,11 +36,16 @@ import de.sg_o.test.tagy.testDb.TestDb;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -49,6 +56,8 @@ class ExportTest {
 
     DataManager manager0;
 
+    MetaData metaData0;
+
     final ArrayList<TagDefinition> tags0 = new ArrayList<>();
 
     @BeforeEach
@@ -84,9 +93,10 @@ class ExportTest {
         assertTrue(manager0.clear());
 
         assertTrue(manager0.ingest());
+        MetaData.deleteAll(p0);
 
         FileInfo file0 = manager0.getNextFile();
-        MetaData metaData0 = new MetaData(file0, p0);
+        metaData0 = new MetaData(file0, p0);
         metaData0.addTag(new TagLong(td0, 50L));
         metaData0.addTag(new TagDouble(td1, 50.0));
         metaData0.save();
@@ -107,4 +117,66 @@ class ExportTest {
         exported = Export.asString(p0, Export.Format.YAML);
         assertEquals(63, exported.split("\r\n|\r|\n").length);
     }
-}
\ No newline at end of file
+
+    @Test
+    void exportAll() {
+        List<Export> targets = new ArrayList<>();
+        List<ByteArrayOutputStream> outputs = new ArrayList<>();
+        for (Export.Format format : Export.Format.values()) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            outputs.add(baos);
+            targets.add(new Export(baos, format));
+        }
+        assertTrue(Export.exportAll(p0, targets));
+        for (int i = 0; i < targets.size(); i++) {
+            String exported = new String(outputs.get(i).toByteArray(), StandardCharsets.UTF_8);
+            assertEquals(Export.asString(p0, targets.get(i).getFormat()), exported);
+        }
+    }
+
+    @Test
+    void records() throws IOException {
+        JsonNode exported = new JsonMapper().readTree(Export.asString(p0, Export.Format.JSON));
+        assertEquals("testProject0", exported.get("projectName").asText());
+        assertEquals(2, exported.get("structureDefinition").get("tagDefinitions").size());
+        JsonNode files = exported.get("dataManager").get("data");
+        assertEquals(FileInfo.query(p0, false, 10).size(), files.size());
+        JsonNode annotated = exported.get("annotated");
+        assertEquals(2, annotated.size());
+        assertEquals(50, annotated.get(0).get("tags").get("tag0").asLong());
+        assertEquals(-0.001, annotated.get(1).get("tags").get("tag1").asDouble());
+    }
+
+    @Test
+    void changes() throws IOException {
+        long since = metaData0.getModification() - 1;
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        long until = new Export(baos, Export.Format.JSON).exportChanges(p0, since);
+        assertTrue(until > since);
+        JsonNode exported = new JsonMapper().readTree(baos.toByteArray());
+        assertEquals(until, exported.get("until").asLong());
+        assertEquals(2, exported.get("annotated").size());
+        assertEquals(0, exported.get("deleted").size());
+
+        metaData0.clearTags();
+        metaData0.addTag(new TagLong(tags0.get(0), 51L));
+        assertTrue(metaData0.save());
+        assertTrue(metaData0.getModification() > until);
+        baos = new ByteArrayOutputStream();
+        long next = new Export(baos, Export.Format.JSON).exportChanges(p0, until);
+        assertTrue(next > until);
+        exported = new JsonMapper().readTree(baos.toByteArray());
+        assertEquals(1, exported.get("annotated").size());
+        assertEquals(51, exported.get("annotated").get(0).get("tags").get("tag0").asLong());
+
+        MetaData.deleteAll(p0);
+        baos = new ByteArrayOutputStream();
+        assertTrue(new Export(baos, Export.Format.JSON).exportChanges(p0, next) > next);
+        exported = new JsonMapper().readTree(baos.toByteArray());
+        assertEquals(0, exported.get("annotated").size());
+        Set<String> deleted = new HashSet<>();
+        exported.get("deleted").forEach(node -> deleted.add(node.asText()));
+        assertEquals(2, deleted.size());
+        assertTrue(deleted.contains(metaData0.getFileReference()));
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ *
+ *      Copyright (C) 2023 Joerg Bayer (SG-O)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sg_o.test.tagy.util;
+
+import de.sg_o.lib.tagy.util.ChunkGetter;
+import de.sg_o.lib.tagy.util.PageLoader;
+import de.sg_o.lib.tagy.util.PagedList;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PageLoaderTest {
+    List<Integer> testData = new ArrayList<>();
+    ChunkGetter<Integer> chunkGetter;
+
+    @BeforeEach
+    void setUp() {
+        for (int i = 0; i < 1000; i++) {
+            testData.add(i);
+        }
+        chunkGetter = new ChunkGetter<Integer>() {
+            @Override
+            public List<Integer> getChunk(int length, int offset) {
+                return testData.subList(offset, Math.min(testData.size(), offset + length));
+            }
+
+            @Override
+            public int getTotal() {
+                return testData.size();
+            }
+        };
+    }
+
+    @AfterEach
+    void tearDown() {
+        PageLoader.configure(PageLoader.DEFAULT_MAX_CONCURRENT_LOADS, false);
+    }
+
+    @Test
+    void sharedThreads() {
+        assertFalse(PageLoader.configure(3, false));
+        assertEquals(3, PageLoader.getMaxConcurrentLoads());
+        assertFalse(PageLoader.usesVirtualThreads());
+
+        for (int l = 0; l < 50; l++) {
+            PagedList<Integer> pagedList = new PagedList<>(chunkGetter, 30);
+            int index = 0;
+            for (Integer value : pagedList) {
+                assertEquals(index, value);
+                index++;
+            }
+            assertEquals(testData.size(), index);
+        }
+
+        int loaderThreads = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("tagy-page-loader-") && thread.isAlive()) loaderThreads++;
+        }
+        // Threads of the default executor may still be idling before they time out
+        assertTrue(loaderThreads <= 3 + PageLoader.DEFAULT_MAX_CONCURRENT_LOADS);
+    }
+
+    @Test
+    void virtualThreads() {
+        boolean virtual = PageLoader.configure(2, true);
+        assertEquals(virtual, PageLoader.usesVirtualThreads());
+        assertEquals(2, PageLoader.getMaxConcurrentLoads());
+
+        PagedList<Integer> pagedList = new PagedList<>(chunkGetter, 10);
+        for (int i = 0; i < testData.size(); i += 7) {
+            assertEquals(i, pagedList.get(i));
+        }
+        assertEquals(testData.subList(100, 200), pagedList.subList(100, 200));
+    }
+}
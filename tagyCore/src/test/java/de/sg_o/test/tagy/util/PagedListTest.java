@@ -27,7 +27,10 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -398,6 +401,159 @@ public class PagedListTest {
         }
     }
 
+    @Test
+    void concurrentReaders() throws InterruptedException {
+        List<Thread> readers = new ArrayList<>();
+        List<Throwable> errors = new CopyOnWriteArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int start = t * 25;
+            PagedList<String> pagedList = t % 2 == 0 ? pagedList1 : pagedList6;
+            Thread reader = new Thread(() -> {
+                try {
+                    for (int i = 0; i < testData.size(); i++) {
+                        int index = (start + i) % testData.size();
+                        assertEquals(testData.get(index), pagedList.get(index));
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            });
+            readers.add(reader);
+            reader.start();
+        }
+        for (Thread reader : readers) {
+            reader.join(10000);
+            assertFalse(reader.isAlive());
+        }
+        assertTrue(errors.isEmpty(), errors.toString());
+    }
+
+    @Test
+    void cacheAndPrefetch() {
+        assertEquals(PagedList.DEFAULT_CACHE_SIZE, pagedList0.getCacheSize());
+        assertEquals(PagedList.DEFAULT_PREFETCH_LIMIT, pagedList0.getPrefetchLimit());
+
+        pagedList0.preparePages(0);
+        for (int i = 0; i < 8; i++) {
+            assertEquals(testData.get(i), pagedList0.get(i));
+        }
+        assertEquals(4, pagedList0.getCacheMisses());
+        pagedList0.preparePages(20);
+        pagedList0.resetCacheStatistics();
+
+        // Jumping back reuses the pages loaded before
+        pagedList0.preparePages(0);
+        assertEquals(4, pagedList0.getCacheHits());
+        assertEquals(0, pagedList0.getCacheMisses());
+        assertEquals(0, pagedList0.getPrefetchedPages());
+        assertEquals(testData.get(0), pagedList0.get(0));
+
+        // Sustained sequential moves read ahead further each time
+        pagedList0.setCacheSize(30);
+        pagedList0.preparePages(2);
+        assertEquals(0, pagedList0.getPrefetchedPages());
+        pagedList0.preparePages(4);
+        assertEquals(1, pagedList0.getPrefetchedPages());
+        pagedList0.preparePages(6);
+        assertEquals(3, pagedList0.getPrefetchedPages());
+        for (int i = 4; i < 14; i++) {
+            assertEquals(testData.get(i), pagedList0.get(i));
+        }
+
+        // Pages of the window and the pages read ahead of it are never evicted
+        pagedList0.setCacheSize(5);
+        assertEquals(5, pagedList0.getCacheSize());
+        assertEquals(7, pagedList0.getCachedPages());
+        pagedList0.setCacheSize(1);
+        assertEquals(5, pagedList0.getCacheSize());
+
+        pagedList0.setPrefetchLimit(-1);
+        assertEquals(0, pagedList0.getPrefetchLimit());
+        pagedList0.resetCacheStatistics();
+        pagedList0.preparePages(8);
+        pagedList0.preparePages(10);
+        assertEquals(0, pagedList0.getPrefetchedPages());
+        assertEquals(testData.get(14), pagedList0.get(14));
+    }
+
+    @Test
+    void cachedSize() {
+        AtomicInteger counted = new AtomicInteger();
+        AtomicLong version = new AtomicLong();
+        ChunkGetter<String> countingGetter = new ChunkGetter<String>() {
+            @Override
+            public List<String> getChunk(int length, int offset) {
+                return testData.subList(offset, Math.min(testData.size(), offset + length));
+            }
+
+            @Override
+            public int getTotal() {
+                counted.incrementAndGet();
+                return testData.size();
+            }
+
+            @Override
+            public long getVersion() {
+                return version.get();
+            }
+        };
+        PagedList<String> pagedList = new PagedList<>(countingGetter, 5);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(100, pagedList.size());
+        }
+        assertFalse(pagedList.isEmpty());
+        assertEquals(1, counted.get());
+
+        testData.add("TestData-100");
+        assertEquals(100, pagedList.size());
+        version.incrementAndGet();
+        assertEquals(101, pagedList.size());
+        assertEquals(2, counted.get());
+
+        testData.add("TestData-101");
+        pagedList.invalidateSize();
+        assertEquals(102, pagedList.size());
+        assertEquals(3, counted.get());
+        testData.add("TestData-102");
+        assertEquals(103, pagedList.refreshSize());
+        assertEquals(103, pagedList.size());
+        assertEquals(4, counted.get());
+    }
+
+    @Test
+    void stalePages() {
+        List<String> data = new ArrayList<>(testData);
+        AtomicLong version = new AtomicLong();
+        ChunkGetter<String> versionedGetter = new ChunkGetter<String>() {
+            @Override
+            public List<String> getChunk(int length, int offset) {
+                return new ArrayList<>(data.subList(offset, Math.min(data.size(), offset + length)));
+            }
+
+            @Override
+            public int getTotal() {
+                return data.size();
+            }
+
+            @Override
+            public long getVersion() {
+                return version.get();
+            }
+        };
+        PagedList<String> pagedList = new PagedList<>(versionedGetter, 5);
+        assertEquals(testData.get(0), pagedList.get(0));
+        assertEquals(testData.get(42), pagedList.get(42));
+        assertEquals(testData.get(1), pagedList.get(1));
+
+        data.set(1, "Changed-1");
+        data.set(42, "Changed-42");
+        assertEquals(testData.get(1), pagedList.get(1));
+        version.incrementAndGet();
+        assertEquals("Changed-1", pagedList.get(1));
+        assertEquals("Changed-42", pagedList.get(42));
+        assertEquals(100, pagedList.size());
+    }
+
     @Test
     void notImplemented() {
         assertThrows(UnsupportedOperationException.class, () -> pagedList0.contains("Test"));
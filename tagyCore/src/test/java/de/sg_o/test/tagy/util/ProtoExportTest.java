@@ -0,0 +1,139 @@
+/*
+ *
+ *      Copyright (C) 2023 Joerg Bayer (SG-O)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sg_o.test.tagy.util;
+
+import de.sg_o.lib.tagy.Project;
+import de.sg_o.lib.tagy.data.DataManager;
+import de.sg_o.lib.tagy.data.DataSource;
+import de.sg_o.lib.tagy.data.FileInfo;
+import de.sg_o.lib.tagy.data.MetaData;
+import de.sg_o.lib.tagy.data.TagContainer;
+import de.sg_o.lib.tagy.db.DB;
+import de.sg_o.lib.tagy.def.StructureDefinition;
+import de.sg_o.lib.tagy.def.TagDefinition;
+import de.sg_o.lib.tagy.tag.floating.TagDouble;
+import de.sg_o.lib.tagy.tag.integer.TagLong;
+import de.sg_o.lib.tagy.util.ProtoExport;
+import de.sg_o.lib.tagy.util.ProtoImport;
+import de.sg_o.lib.tagy.values.User;
+import de.sg_o.proto.tagy.TagDefinitionProto;
+import de.sg_o.test.tagy.testDb.TestDb;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProtoExportTest {
+    Project p0;
+
+    StructureDefinition def0;
+
+    DataManager manager0;
+
+    FileInfo file0;
+
+    final ArrayList<TagDefinition> tags0 = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws URISyntaxException {
+        DB.closeDb();
+        new TestDb();
+
+        TagDefinition td0 = new TagDefinition("tag0", TagDefinitionProto.Type.LONG);
+        TagDefinition td1 = new TagDefinition("tag1", TagDefinitionProto.Type.DOUBLE);
+
+        tags0.add(td0);
+        tags0.add(td1);
+
+        p0 = Project.openOrCreate("protoProject0", User.getLocalUser());
+        assertTrue(p0.save());
+
+        def0 = new StructureDefinition(p0);
+        def0.setTagDefinitions(tags0);
+        def0.save();
+
+        URL sampleMediaFolder = this.getClass().getResource("/sampleFiles/media");
+        assertNotNull(sampleMediaFolder);
+        File sampleMediaFile = new File(sampleMediaFolder.toURI());
+
+        DataSource dir = new DataSource(sampleMediaFile, true);
+        dir.setFileExtensions(".jpg, png, .mp4, wmv, .m4a, .mp3");
+        List<DataSource> directories0 = new ArrayList<>();
+        directories0.add(dir);
+
+        manager0 = p0.resolveDataManager();
+        manager0.setDataSources(directories0);
+        manager0.save();
+        assertTrue(manager0.clear());
+
+        assertTrue(manager0.ingest());
+        MetaData.deleteAll(p0);
+
+        file0 = manager0.getNextFile();
+        MetaData metaData0 = new MetaData(file0, p0);
+        metaData0.addTag(new TagLong(td0, 50L));
+        metaData0.addTag(new TagDouble(td1, 50.0));
+        metaData0.save();
+
+        FileInfo file1 = manager0.getNextFile();
+        MetaData metaData1 = new MetaData(file1, p0);
+        metaData1.addTag(new TagLong(td0, 199));
+        metaData1.addTag(new TagDouble(td1, -0.001));
+        metaData1.save();
+    }
+
+    @Test
+    void roundTrip() {
+        byte[] exported = ProtoExport.asBytes(p0, false);
+        assertNotNull(exported);
+        byte[] compressed = ProtoExport.asBytes(p0, true);
+        assertNotNull(compressed);
+        assertTrue(compressed.length < exported.length);
+
+        ProtoImport protoImport = new ProtoImport(new ByteArrayInputStream(compressed));
+        Project imported = protoImport.importProject(User.getLocalUser());
+        assertNotNull(imported);
+        assertEquals(p0.getId(), imported.getId());
+        assertEquals(FileInfo.query(p0, false, 10).size(), protoImport.getImportedFiles());
+        assertEquals(2, protoImport.getImportedAnnotations());
+
+        // Importing replaces the files and annotations, so exporting again yields the same records
+        assertArrayEquals(exported, ProtoExport.asBytes(imported, false));
+        List<TagDefinition> definitions = imported.resolveStructureDefinition().getTagDefinitions();
+        assertEquals(tags0, definitions);
+        TagContainer container = MetaData.openOrCreate(file0, imported).getTagContainers().get(0);
+        assertEquals(50L, container.getLongValue());
+        // Imported tags are bound to the stored definitions instead of copies
+        assertEquals(definitions.get(0).getId(), container.resolveTagDefinition().getId());
+    }
+
+    @Test
+    void invalid() {
+        byte[] exported = ProtoExport.asBytes(p0, false);
+        assertNotNull(exported);
+        exported[0] = 'X';
+        assertNull(new ProtoImport(new ByteArrayInputStream(exported)).importProject(User.getLocalUser()));
+    }
+}
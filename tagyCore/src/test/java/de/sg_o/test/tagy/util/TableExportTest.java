@@ -0,0 +1,147 @@
+/*
+ *
+ *      Copyright (C) 2023 Joerg Bayer (SG-O)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sg_o.test.tagy.util;
+
+import de.sg_o.lib.tagy.Project;
+import de.sg_o.lib.tagy.data.DataManager;
+import de.sg_o.lib.tagy.data.DataSource;
+import de.sg_o.lib.tagy.data.FileInfo;
+import de.sg_o.lib.tagy.data.MetaData;
+import de.sg_o.lib.tagy.db.DB;
+import de.sg_o.lib.tagy.def.StructureDefinition;
+import de.sg_o.lib.tagy.def.TagDefinition;
+import de.sg_o.lib.tagy.tag.floating.TagDouble;
+import de.sg_o.lib.tagy.tag.integer.TagLong;
+import de.sg_o.lib.tagy.tag.list.TagList;
+import de.sg_o.lib.tagy.tag.string.TagString;
+import de.sg_o.lib.tagy.util.TableExport;
+import de.sg_o.lib.tagy.values.User;
+import de.sg_o.proto.tagy.TagDefinitionProto;
+import de.sg_o.test.tagy.testDb.TestDb;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TableExportTest {
+    Project p0;
+
+    FileInfo file0;
+
+    @BeforeEach
+    void setUp() throws URISyntaxException {
+        DB.closeDb();
+        new TestDb();
+
+        TagDefinition td0 = new TagDefinition("count", TagDefinitionProto.Type.LONG);
+        TagDefinition td1 = new TagDefinition("score", TagDefinitionProto.Type.DOUBLE);
+        TagDefinition td2 = new TagDefinition("box", TagDefinitionProto.Type.LIST);
+        TagDefinition tdl2 = new TagDefinition("value", TagDefinitionProto.Type.DOUBLE);
+        td2.setInternal(tdl2);
+        td2.setFixedSize(4);
+        td2.setParameter(TagDefinitionProto.Parameter.RECTANGLE);
+        TagDefinition td3 = new TagDefinition("points", TagDefinitionProto.Type.LIST);
+        TagDefinition tdl3 = new TagDefinition("value", TagDefinitionProto.Type.LONG);
+        td3.setInternal(tdl3);
+        TagDefinition td4 = new TagDefinition("note", TagDefinitionProto.Type.STRING);
+
+        ArrayList<TagDefinition> tags0 = new ArrayList<>();
+        tags0.add(td0);
+        tags0.add(td1);
+        tags0.add(td2);
+        tags0.add(td3);
+        tags0.add(td4);
+
+        p0 = Project.openOrCreate("tableProject0", User.getLocalUser());
+        assertTrue(p0.save());
+
+        StructureDefinition def0 = new StructureDefinition(p0);
+        def0.setTagDefinitions(tags0);
+        def0.save();
+
+        URL sampleMediaFolder = this.getClass().getResource("/sampleFiles/media");
+        assertNotNull(sampleMediaFolder);
+        File sampleMediaFile = new File(sampleMediaFolder.toURI());
+
+        DataSource dir = new DataSource(sampleMediaFile, true);
+        dir.setFileExtensions(".jpg, png, .mp4, wmv, .m4a, .mp3");
+        List<DataSource> directories0 = new ArrayList<>();
+        directories0.add(dir);
+
+        DataManager manager0 = p0.resolveDataManager();
+        manager0.setDataSources(directories0);
+        manager0.save();
+        assertTrue(manager0.clear());
+
+        assertTrue(manager0.ingest());
+        MetaData.deleteAll(p0);
+
+        file0 = manager0.getNextFile();
+        MetaData metaData0 = new MetaData(file0, p0);
+        metaData0.addTag(new TagLong(td0, 5L));
+        metaData0.addTag(new TagDouble(td1, 0.5));
+        TagList box = new TagList(td2);
+        for (int i = 0; i < 4; i++) {
+            box.setValue(new TagDouble(tdl2, i + 1.5), i);
+        }
+        metaData0.addTag(box);
+        TagList points = new TagList(td3);
+        points.addValue(new TagLong(tdl3, 1L));
+        points.addValue(new TagLong(tdl3, 2L));
+        points.addValue(new TagLong(tdl3, 3L));
+        metaData0.addTag(points);
+        metaData0.addTag(new TagString(td4, "a, \"b\""));
+        metaData0.save();
+
+        FileInfo file1 = manager0.getNextFile();
+        MetaData metaData1 = new MetaData(file1, p0);
+        metaData1.addTag(new TagLong(td0, 7L));
+        TagList points1 = new TagList(td3);
+        points1.addValue(new TagLong(tdl3, 9L));
+        metaData1.addTag(points1);
+        metaData1.save();
+    }
+
+    @Test
+    void export() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        TableExport export = new TableExport(baos);
+        assertTrue(export.export(p0));
+
+        List<TableExport.Column> columns = export.getColumns();
+        assertEquals(11, columns.size());
+        assertEquals("box.width", columns.get(5).getName());
+        assertEquals(TableExport.ColumnType.DOUBLE, columns.get(5).getType());
+        assertEquals("points.2", columns.get(9).getName());
+        assertEquals(TableExport.ColumnType.LONG, columns.get(9).getType());
+
+        String[] lines = new String(baos.toByteArray(), StandardCharsets.UTF_8).split("\r\n");
+        assertEquals(3, lines.length);
+        assertEquals("file,count,score,box.x,box.y,box.width,box.height,points.0,points.1,points.2,note", lines[0]);
+        assertEquals(file0.getUrlAsString() + ",5,0.5,1.5,2.5,3.5,4.5,1,2,3,\"a, \"\"b\"\"\"", lines[1]);
+        assertTrue(lines[2].endsWith(",7,,,,,,9,,,"));
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ *
+ *      Copyright (C) 2023 Joerg Bayer (SG-O)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sg_o.app.tagy.server;
+
+import de.sg_o.lib.tagy.Project;
+import de.sg_o.lib.tagy.data.DataManager;
+import de.sg_o.lib.tagy.data.FileInfo;
+import de.sg_o.lib.tagy.data.MetaData;
+import de.sg_o.lib.tagy.query.MetaDataQueryBuilder;
+import de.sg_o.lib.tagy.util.AnnotationUpload;
+import de.sg_o.lib.tagy.util.AnnotationWriter;
+import de.sg_o.proto.tagy.MetaDataProto;
+import de.sg_o.proto.tagy.UserProto;
+import de.sg_o.proto.tagy.service.AnnotationServiceGrpc;
+import de.sg_o.proto.tagy.service.AnnotationServiceProto;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Exposes the projects of the open database to annotators on other machines, so they can share one database.
+ * <p>
+ * Query results are streamed page by page, a page is only read when the client is ready to receive more results.
+ * Results are ordered by the id of the meta data, which is sent along, so a query can be continued after the last
+ * result received.
+ */
+public class AnnotationService extends AnnotationServiceGrpc.AnnotationServiceImplBase {
+    public static final int DEFAULT_PAGE_LENGTH = 100;
+    public static final long DEFAULT_CHECKOUT_TIME = 600000L;
+
+    @Override
+    public void listProjects(AnnotationServiceProto.ListProjectsRequest request,
+                             StreamObserver<AnnotationServiceProto.ListProjectsResponse> responseObserver) {
+        AnnotationServiceProto.ListProjectsResponse.Builder builder = AnnotationServiceProto.ListProjectsResponse.newBuilder();
+        for (Project project : Project.query()) {
+            builder.addProjects(project.getAsProto(request.getIncludeDataManager()));
+        }
+        responseObserver.onNext(builder.build());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void checkOutFiles(AnnotationServiceProto.CheckOutFilesRequest request,
+                              StreamObserver<AnnotationServiceProto.CheckOutFilesResponse> responseObserver) {
+        Project project = open(request.getProjectName(), responseObserver);
+        if (project == null) return;
+        DataManager dataManager = project.resolveDataManager();
+        long checkoutFor = request.getCheckoutFor() > 0 ? request.getCheckoutFor() : DEFAULT_CHECKOUT_TIME;
+        int count = Math.max(request.getCount(), 1);
+        AnnotationServiceProto.CheckOutFilesResponse.Builder builder = AnnotationServiceProto.CheckOutFilesResponse.newBuilder();
+        for (FileInfo fileInfo : dataManager.checkOutFiles(request.getNonAnnotatedOnly(), count, checkoutFor)) {
+            builder.addFiles(fileInfo.getAsProto());
+        }
+        responseObserver.onNext(builder.build());
+        responseObserver.onCompleted();
+    }
+
+    /**
+     * Stores the meta data of a file, replacing its previous meta data. The file is checked in.
+     * If a user is given, it is added to the edit history.
+     */
+    @Override
+    public void submitMetaData(AnnotationServiceProto.SubmitMetaDataRequest request,
+                               StreamObserver<AnnotationServiceProto.SubmitMetaDataResponse> responseObserver) {
+        Project project = open(request.getProjectName(), responseObserver);
+        if (project == null) return;
+        MetaDataProto.MetaData metaData = withUser(request.getMetaData(), request.hasUser() ? request.getUser() : null);
+        AnnotationWriter annotationWriter = new AnnotationWriter(project);
+        annotationWriter.setCheckIn(true);
+        int stored;
+        try {
+            stored = annotationWriter.write(Collections.singletonList(metaData));
+        } catch (RuntimeException ex) {
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(ex.getMessage()).asRuntimeException());
+            return;
+        }
+        if (stored < 1 && FileInfo.openAll(Collections.singleton(metaData.getFileReference()), project).isEmpty()) {
+            responseObserver.onError(Status.NOT_FOUND
+                    .withDescription("Unknown file: " + metaData.getFileReference()).asRuntimeException());
+            return;
+        }
+        responseObserver.onNext(AnnotationServiceProto.SubmitMetaDataResponse.newBuilder().setStored(stored > 0).build());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void query(AnnotationServiceProto.QueryRequest request,
+                      StreamObserver<AnnotationServiceProto.QueryResult> responseObserver) {
+        MetaDataQueryBuilder queryBuilder;
+        try {
+            queryBuilder = new MetaDataQueryBuilder(request.getQuery());
+        } catch (IllegalArgumentException ex) {
+            responseObserver.onError(Status.NOT_FOUND.withDescription(ex.getMessage()).asRuntimeException());
+            return;
+        }
+        int pageLength = request.getPageLength() > 0 ? request.getPageLength() : DEFAULT_PAGE_LENGTH;
+        ServerCallStreamObserver<AnnotationServiceProto.QueryResult> call =
+                (ServerCallStreamObserver<AnnotationServiceProto.QueryResult>) responseObserver;
+        ResultStream results = new ResultStream(queryBuilder, request.getAfterId(), request.getLimit(), pageLength, call);
+        // With a cancel handler, results sent after the client went away are dropped instead of failing
+        call.setOnCancelHandler(() -> {});
+        call.setOnReadyHandler(results::drain);
+        results.drain();
+    }
+
+    /**
+     * Stores a stream of meta data in batches, each batch in a single transaction, see {@link AnnotationUpload}.
+     * The project and the batch size are taken from the first request, a user is added to the edit history of
+     * the meta data it is sent with. If the client fails, the batches stored so far are kept and the incomplete
+     * batch is dropped.
+     */
+    @Override
+    public StreamObserver<AnnotationServiceProto.UploadMetaDataRequest> uploadMetaData(
+            StreamObserver<AnnotationServiceProto.UploadMetaDataResponse> responseObserver) {
+        return new StreamObserver<AnnotationServiceProto.UploadMetaDataRequest>() {
+            private AnnotationUpload upload = null;
+            private boolean failed = false;
+
+            @Override
+            public void onNext(AnnotationServiceProto.UploadMetaDataRequest request) {
+                if (failed) return;
+                if (upload == null) {
+                    Project project = open(request.getProjectName(), responseObserver);
+                    if (project == null) {
+                        failed = true;
+                        return;
+                    }
+                    int batchSize = request.getBatchSize() > 0 ? request.getBatchSize() : AnnotationUpload.DEFAULT_BATCH_SIZE;
+                    upload = new AnnotationUpload(project, batchSize);
+                }
+                try {
+                    upload.add(withUser(request.getMetaData(), request.hasUser() ? request.getUser() : null));
+                } catch (RuntimeException ex) {
+                    failed = true;
+                    responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(ex.getMessage()).asRuntimeException());
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                failed = true;
+            }
+
+            @Override
+            public void onCompleted() {
+                if (failed) return;
+                AnnotationServiceProto.UploadMetaDataResponse.Builder builder = AnnotationServiceProto.UploadMetaDataResponse.newBuilder();
+                if (upload != null) {
+                    try {
+                        upload.flush();
+                    } catch (RuntimeException ex) {
+                        responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(ex.getMessage()).asRuntimeException());
+                        return;
+                    }
+                    for (AnnotationUpload.BatchResult result : upload.getResults()) {
+                        builder.addBatches(AnnotationServiceProto.UploadBatchResult.newBuilder()
+                                .setBatch(result.getBatch())
+                                .setReceived(result.getReceived())
+                                .setStored(result.getStored()));
+                    }
+                    builder.setStored(upload.getStored());
+                }
+                responseObserver.onNext(builder.build());
+                responseObserver.onCompleted();
+            }
+        };
+    }
+
+    /**
+     * @return The meta data with the user added to its edit history, unless the user is the last entry already
+     */
+    private static @NotNull MetaDataProto.MetaData withUser(@NotNull MetaDataProto.MetaData metaData, UserProto.User user) {
+        if (user == null) return metaData;
+        List<UserProto.User> editHistory = metaData.getEditHistoryList();
+        if (!editHistory.isEmpty() && editHistory.get(editHistory.size() - 1).equals(user)) return metaData;
+        return metaData.toBuilder().addEditHistory(user).build();
+    }
+
+    private static Project open(@NotNull String projectName, @NotNull StreamObserver<?> responseObserver) {
+        Project project = Project.open(projectName);
+        if (project == null) {
+            responseObserver.onError(Status.NOT_FOUND.withDescription("Unknown project: " + projectName).asRuntimeException());
+        }
+        return project;
+    }
+
+    /**
+     * Sends query results while the client is ready to receive them and continues when it is ready again.
+     */
+    private static final class ResultStream {
+        private final @NotNull MetaDataQueryBuilder queryBuilder;
+        private final @NotNull ServerCallStreamObserver<AnnotationServiceProto.QueryResult> call;
+        private final int pageLength;
+        private long lastId;
+        private long remaining;
+        private Iterator<MetaData> page = Collections.emptyIterator();
+        private boolean exhausted = false;
+        private boolean done = false;
+
+        ResultStream(@NotNull MetaDataQueryBuilder queryBuilder, long afterId, int limit, int pageLength,
+                     @NotNull ServerCallStreamObserver<AnnotationServiceProto.QueryResult> call) {
+            this.queryBuilder = queryBuilder;
+            this.call = call;
+            this.pageLength = pageLength;
+            this.lastId = Math.max(afterId, 0);
+            this.remaining = limit > 0 ? limit : Long.MAX_VALUE;
+        }
+
+        synchronized void drain() {
+            if (done) return;
+            try {
+                while (call.isReady()) {
+                    if (call.isCancelled()) {
+                        done = true;
+                        return;
+                    }
+                    if (!page.hasNext()) {
+                        if (exhausted || remaining < 1) {
+                            done = true;
+                            call.onCompleted();
+                            return;
+                        }
+                        int length = (int) Math.min(pageLength, remaining);
+                        List<MetaData> read = queryBuilder.queryAfter(lastId, length);
+                        exhausted = read.size() < length;
+                        page = read.iterator();
+                        continue;
+                    }
+                    MetaData metaData = page.next();
+                    lastId = metaData.getId();
+                    remaining--;
+                    call.onNext(AnnotationServiceProto.QueryResult.newBuilder()
+                            .setId(metaData.getId())
+                            .setMetaData(metaData.getAsProto())
+                            .build());
+                }
+            } catch (RuntimeException ex) {
+                done = true;
+                call.onError(Status.INTERNAL.withDescription(ex.getMessage()).asRuntimeException());
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ *
+ *      Copyright (C) 2023 Joerg Bayer (SG-O)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sg_o.app.tagy.server;
+
+import de.sg_o.lib.tagy.Project;
+import de.sg_o.lib.tagy.ProjectManager;
+import de.sg_o.lib.tagy.data.FileInfo;
+import de.sg_o.lib.tagy.db.DB;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Serves the {@link AnnotationService} of a database on a port.
+ * <p>
+ * Usage: {@code TagyServer <database> [port]}
+ */
+public class TagyServer {
+    public static final int DEFAULT_PORT = 50051;
+
+    private final @NotNull Server server;
+
+    public TagyServer(int port) {
+        this(ServerBuilder.forPort(port));
+    }
+
+    /**
+     * @param serverBuilder The builder of the server, allows other transports like the in process transport
+     */
+    public TagyServer(@NotNull ServerBuilder<?> serverBuilder) {
+        this.server = serverBuilder.addService(new AnnotationService()).build();
+    }
+
+    public void start() throws IOException {
+        server.start();
+    }
+
+    public void stop() {
+        server.shutdown();
+    }
+
+    public void awaitTermination() throws InterruptedException {
+        server.awaitTermination();
+    }
+
+    public int getPort() {
+        return server.getPort();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.out.println("Usage: TagyServer <database> [port]");
+            return;
+        }
+        DB.initDb(new File(args[0]), true);
+        // Files stored before the checkout queue existed are only checked out once they are queued
+        for (Project project : new ProjectManager().getAllProjects()) {
+            long queued = FileInfo.rebuildQueue(project);
+            if (queued > 0) System.out.println("Queued " + queued + " files of " + project.getProjectName());
+        }
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+        TagyServer tagyServer = new TagyServer(port);
+        tagyServer.start();
+        System.out.println("Serving " + DB.getName() + " on port " + tagyServer.getPort());
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            tagyServer.stop();
+            DB.closeDb();
+        }));
+        tagyServer.awaitTermination();
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ *
+ *      Copyright (C) 2023 Joerg Bayer (SG-O)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sg_o.test.tagy.server;
+
+import de.sg_o.app.tagy.server.TagyServer;
+import de.sg_o.lib.tagy.Project;
+import de.sg_o.lib.tagy.data.FileInfo;
+import de.sg_o.lib.tagy.data.MetaData;
+import de.sg_o.lib.tagy.data.TagContainer;
+import de.sg_o.lib.tagy.db.DB;
+import de.sg_o.lib.tagy.def.StructureDefinition;
+import de.sg_o.lib.tagy.def.TagDefinition;
+import de.sg_o.lib.tagy.query.MetaDataQueryBuilder;
+import de.sg_o.lib.tagy.query.properties.Equals;
+import de.sg_o.lib.tagy.tag.integer.TagLong;
+import de.sg_o.lib.tagy.tag.string.TagString;
+import de.sg_o.lib.tagy.values.User;
+import de.sg_o.proto.tagy.MetaDataProto;
+import de.sg_o.proto.tagy.ProjectProto;
+import de.sg_o.proto.tagy.TagDefinitionProto;
+import de.sg_o.proto.tagy.service.AnnotationServiceGrpc;
+import de.sg_o.proto.tagy.service.AnnotationServiceProto;
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AnnotationServiceTest {
+    static Path tempDir;
+
+    TagyServer server;
+    ManagedChannel channel;
+    AnnotationServiceGrpc.AnnotationServiceBlockingStub stub;
+
+    Project project;
+    TagDefinition td0;
+    TagDefinition td1;
+    FileInfo file0;
+    FileInfo file1;
+
+    @BeforeAll
+    static void initDb() throws IOException {
+        tempDir = Files.createTempDirectory("tagyServer");
+        DB.initDb(new File(tempDir.toFile(), "test"), true);
+    }
+
+    @AfterAll
+    static void closeDb() {
+        DB.closeDb();
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        String name = InProcessServerBuilder.generateName();
+        server = new TagyServer(InProcessServerBuilder.forName(name));
+        server.start();
+        channel = InProcessChannelBuilder.forName(name).build();
+        stub = AnnotationServiceGrpc.newBlockingStub(channel);
+
+        project = Project.openOrCreate("Test_Server", User.getLocalUser());
+        MetaData.deleteAll(project);
+        FileInfo.deleteAll(project, false);
+        td0 = new TagDefinition("label", TagDefinitionProto.Type.STRING);
+        td1 = new TagDefinition("score", TagDefinitionProto.Type.LONG);
+        StructureDefinition structureDefinition = project.resolveStructureDefinition();
+        ArrayList<TagDefinition> tagDefinitions = new ArrayList<>();
+        tagDefinitions.add(td0);
+        tagDefinitions.add(td1);
+        structureDefinition.setTagDefinitions(tagDefinitions);
+        assertTrue(structureDefinition.save());
+
+        file0 = FileInfo.openOrCreate(Files.createTempFile(tempDir, "file", ".txt").toUri().toURL(), project);
+        file1 = FileInfo.openOrCreate(Files.createTempFile(tempDir, "file", ".txt").toUri().toURL(), project);
+    }
+
+    @AfterEach
+    void tearDown() {
+        channel.shutdownNow();
+        server.stop();
+    }
+
+    MetaDataProto.MetaData annotation(FileInfo fileInfo, String label, long score) {
+        return MetaDataProto.MetaData.newBuilder()
+                .setFileReference(fileInfo.getUrlAsString())
+                .addTagContainers(new TagContainer(new TagString(td0, label)).getAsProto())
+                .addTagContainers(new TagContainer(new TagLong(td1, score)).getAsProto())
+                .build();
+    }
+
+    AnnotationServiceProto.SubmitMetaDataResponse submit(MetaDataProto.MetaData annotation) {
+        return stub.submitMetaData(AnnotationServiceProto.SubmitMetaDataRequest.newBuilder()
+                .setProjectName(project.getProjectName())
+                .setMetaData(annotation)
+                .setUser(User.getLocalUser().getAsProto())
+                .build());
+    }
+
+    List<AnnotationServiceProto.QueryResult> query(MetaDataQueryBuilder queryBuilder, long afterId, int limit, int pageLength) {
+        Iterator<AnnotationServiceProto.QueryResult> results = stub.query(AnnotationServiceProto.QueryRequest.newBuilder()
+                .setQuery(queryBuilder.getAsProto())
+                .setAfterId(afterId)
+                .setLimit(limit)
+                .setPageLength(pageLength)
+                .build());
+        List<AnnotationServiceProto.QueryResult> collected = new ArrayList<>();
+        results.forEachRemaining(collected::add);
+        return collected;
+    }
+
+    AnnotationServiceProto.UploadMetaDataResponse upload(List<AnnotationServiceProto.UploadMetaDataRequest> requests) throws Throwable {
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<AnnotationServiceProto.UploadMetaDataResponse> response = new AtomicReference<>();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        StreamObserver<AnnotationServiceProto.UploadMetaDataRequest> upload = AnnotationServiceGrpc.newStub(channel)
+                .uploadMetaData(new StreamObserver<AnnotationServiceProto.UploadMetaDataResponse>() {
+                    @Override
+                    public void onNext(AnnotationServiceProto.UploadMetaDataResponse value) {
+                        response.set(value);
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        error.set(t);
+                        done.countDown();
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        done.countDown();
+                    }
+                });
+        for (AnnotationServiceProto.UploadMetaDataRequest request : requests) {
+            upload.onNext(request);
+        }
+        upload.onCompleted();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        if (error.get() != null) throw error.get();
+        return response.get();
+    }
+
+    @Test
+    void listProjects() {
+        AnnotationServiceProto.ListProjectsResponse response = stub.listProjects(
+                AnnotationServiceProto.ListProjectsRequest.newBuilder().build());
+        ProjectProto.Project found = null;
+        for (ProjectProto.Project proto : response.getProjectsList()) {
+            if (proto.getProjectName().equals(project.getProjectName())) found = proto;
+        }
+        assertNotNull(found);
+        assertEquals(2, found.getStructureDefinition().getTagDefinitionsCount());
+        assertFalse(found.hasDataManager());
+    }
+
+    @Test
+    void checkOutFiles() {
+        AnnotationServiceProto.CheckOutFilesRequest request = AnnotationServiceProto.CheckOutFilesRequest.newBuilder()
+                .setProjectName(project.getProjectName())
+                .setNonAnnotatedOnly(true)
+                .setCount(10)
+                .setCheckoutFor(60000)
+                .build();
+        assertEquals(2, stub.checkOutFiles(request).getFilesCount());
+        assertEquals(0, stub.checkOutFiles(request).getFilesCount());
+
+        StatusRuntimeException ex = assertThrows(StatusRuntimeException.class, () -> stub.checkOutFiles(
+                request.toBuilder().setProjectName("Unknown_Project").build()));
+        assertEquals(Status.Code.NOT_FOUND, ex.getStatus().getCode());
+    }
+
+    @Test
+    void submitMetaData() {
+        assertTrue(file0.checkOut(new Date(System.currentTimeMillis() + 60000)));
+        assertTrue(file0.save());
+        assertTrue(submit(annotation(file0, "cat", 3)).getStored());
+
+        MetaData stored = MetaData.queryFirst(file0.getUrlAsString(), project);
+        assertNotNull(stored);
+        assertEquals(2, stored.getTagContainers().size());
+        assertEquals("cat", stored.getTagContainers().get(0).getStringValue());
+        assertEquals(td0, stored.getTagContainers().get(0).resolveTagDefinition());
+        assertEquals(1, stored.getEditHistory().size());
+        assertEquals(User.getLocalUser().getAsProto(), stored.getEditHistory().get(0).getAsProto());
+        FileInfo checkedIn = FileInfo.open(file0.getAbsolutePath(), project);
+        assertNotNull(checkedIn);
+        assertTrue(checkedIn.isAnnotated());
+        assertFalse(checkedIn.isCheckedOut());
+
+        // Submitting again replaces the previous meta data
+        MetaDataProto.MetaData again = annotation(file0, "dog", 4).toBuilder()
+                .addEditHistory(User.getLocalUser().getAsProto())
+                .build();
+        assertTrue(submit(again).getStored());
+        assertEquals(1, new MetaDataQueryBuilder(project).count());
+        stored = MetaData.queryFirst(file0.getUrlAsString(), project);
+        assertNotNull(stored);
+        assertEquals("dog", stored.getTagContainers().get(0).getStringValue());
+        assertEquals(1, stored.getEditHistory().size());
+
+        StatusRuntimeException ex = assertThrows(StatusRuntimeException.class, () -> submit(
+                annotation(file0, "cat", 3).toBuilder().setFileReference("file:/unknown").build()));
+        assertEquals(Status.Code.NOT_FOUND, ex.getStatus().getCode());
+    }
+
+    @Test
+    void query() {
+        assertTrue(submit(annotation(file0, "cat", 3)).getStored());
+        assertTrue(submit(annotation(file1, "dog", 5)).getStored());
+
+        MetaDataQueryBuilder queryBuilder = new MetaDataQueryBuilder(project);
+        List<AnnotationServiceProto.QueryResult> results = query(queryBuilder, 0, 0, 0);
+        assertEquals(2, results.size());
+        assertTrue(results.get(0).getId() < results.get(1).getId());
+        assertEquals(file0.getUrlAsString(), results.get(0).getMetaData().getFileReference());
+
+        assertEquals(results, query(queryBuilder, 0, 0, 1));
+        assertEquals(results.subList(0, 1), query(queryBuilder, 0, 1, 0));
+        assertEquals(results.subList(1, 2), query(queryBuilder, results.get(0).getId(), 0, 1));
+        assertEquals(0, query(queryBuilder, results.get(1).getId(), 0, 1).size());
+
+        queryBuilder.addQueryElement(new Equals(td0, "dog"));
+        results = query(queryBuilder, 0, 0, 0);
+        assertEquals(1, results.size());
+        assertEquals(file1.getUrlAsString(), results.get(0).getMetaData().getFileReference());
+
+        StatusRuntimeException ex = assertThrows(StatusRuntimeException.class, () -> query(
+                new MetaDataQueryBuilder(new Project("Unknown_Project", User.getLocalUser())), 0, 0, 0));
+        assertEquals(Status.Code.NOT_FOUND, ex.getStatus().getCode());
+    }
+
+    @Test
+    void uploadMetaData() throws Throwable {
+        List<AnnotationServiceProto.UploadMetaDataRequest> requests = new ArrayList<>();
+        requests.add(AnnotationServiceProto.UploadMetaDataRequest.newBuilder()
+                .setProjectName(project.getProjectName())
+                .setBatchSize(2)
+                .setMetaData(annotation(file0, "cat", 3))
+                .build());
+        requests.add(AnnotationServiceProto.UploadMetaDataRequest.newBuilder()
+                .setMetaData(annotation(file1, "dog", 5))
+                .build());
+        requests.add(AnnotationServiceProto.UploadMetaDataRequest.newBuilder()
+                .setMetaData(annotation(file0, "cat", 3).toBuilder().setFileReference("file:/unknown"))
+                .build());
+        AnnotationServiceProto.UploadMetaDataResponse response = upload(requests);
+        assertEquals(2, response.getStored());
+        assertEquals(2, response.getBatchesCount());
+        assertEquals(0, response.getBatches(0).getBatch());
+        assertEquals(2, response.getBatches(0).getReceived());
+        assertEquals(2, response.getBatches(0).getStored());
+        assertEquals(1, response.getBatches(1).getReceived());
+        assertEquals(0, response.getBatches(1).getStored());
+        assertEquals(2, new MetaDataQueryBuilder(project).count());
+
+        // Uploading again replaces the stored meta data
+        requests.clear();
+        requests.add(AnnotationServiceProto.UploadMetaDataRequest.newBuilder()
+                .setProjectName(project.getProjectName())
+                .setMetaData(annotation(file1, "bird", 7))
+                .setUser(User.getLocalUser().getAsProto())
+                .build());
+        response = upload(requests);
+        assertEquals(1, response.getStored());
+        assertEquals(1, response.getBatchesCount());
+        MetaData stored = MetaData.queryFirst(file1.getUrlAsString(), project);
+        assertNotNull(stored);
+        assertEquals("bird", stored.getTagContainers().get(0).getStringValue());
+        assertEquals(1, stored.getEditHistory().size());
+        assertEquals(2, new MetaDataQueryBuilder(project).count());
+
+        assertEquals(0, upload(new ArrayList<>()).getBatchesCount());
+        requests.set(0, requests.get(0).toBuilder().setProjectName("Unknown_Project").build());
+        StatusRuntimeException ex = assertThrows(StatusRuntimeException.class, () -> upload(requests));
+        assertEquals(Status.Code.NOT_FOUND, ex.getStatus().getCode());
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ *
+ *      Copyright (C) 2023 Joerg Bayer (SG-O)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.sg_o.app.tagy.annotator;
+
+import de.sg_o.app.tagy.customComponents.ImageViewer;
+import de.sg_o.app.tagy.customComponents.TextViewer;
+import de.sg_o.lib.tagy.Project;
+import de.sg_o.lib.tagy.data.DataManager;
+import de.sg_o.lib.tagy.data.FileInfo;
+import de.sg_o.lib.tagy.data.FileType;
+import de.sg_o.lib.tagy.data.MetaData;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prepares the next files to annotate in the background.
+ * <p>
+ * The files are checked out of the project one by one on a single worker thread, so the order of the checkout
+ * queue is kept. For each file the meta data is opened or created, the file type is detected and images and
+ * texts are decoded, so showing the next file only has to hand the prepared content to the viewer.
+ * Media files are streamed by the player and are not buffered.
+ * <p>
+ * The leases of the prepared files and of the taken file are renewed whenever a file is taken and periodically while
+ * it is open, so a file that takes long to annotate is not handed out again. They are ended when the file is
+ * replaced by the next one or when the prefetcher is closed.
+ * <p>
+ * A file that fails to be prepared is skipped.
+ */
+public class FilePrefetcher {
+    public static final int DEFAULT_LOOK_AHEAD = 3;
+    public static final long LEASE_TIME = 600000;
+    public static final long RENEW_INTERVAL = LEASE_TIME / 3;
+    // Consecutive failures after which next() gives up, e.g. if the database is not usable
+    private static final int MAX_FAILURES = 10;
+
+    private final ExecutorService executorService = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "FilePrefetcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ScheduledExecutorService renewalService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "FilePrefetcherRenewal");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private ScheduledFuture<?> renewal = null;
+
+    private final @NotNull Project project;
+    private final @NotNull DataManager dataManager;
+    private final int lookAhead;
+    private final Deque<Future<PreparedFile>> pending = new ArrayDeque<>();
+    private PreparedFile current = null;
+    private boolean closed = false;
+
+    public FilePrefetcher(@NotNull Project project, @NotNull DataManager dataManager, int lookAhead) {
+        this.project = project;
+        this.dataManager = dataManager;
+        this.lookAhead = Math.max(lookAhead, 1);
+    }
+
+    public FilePrefetcher(@NotNull Project project, @NotNull DataManager dataManager) {
+        this(project, dataManager, DEFAULT_LOOK_AHEAD);
+    }
+
+    /**
+     * Starts preparing files without taking one.
+     */
+    public synchronized void start() {
+        fill();
+    }
+
+    /**
+     * Takes the next prepared file. Blocks only if the file is not prepared yet.
+     * The lease of the previously taken file is ended. Files that fail to be prepared are skipped.
+     *
+     * @return The next file or null if there are no files left to annotate or files keep failing to be prepared
+     */
+    public synchronized PreparedFile next() {
+        if (closed) return null;
+        release(current);
+        current = null;
+        int failures = 0;
+        while (current == null) {
+            fill();
+            Future<PreparedFile> head = pending.poll();
+            if (head == null) return null;
+            try {
+                current = head.get();
+                // No file was checked out, the queue is empty
+                if (current == null) return null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException e) {
+                System.out.println("Failed to prepare file: " + e.getCause());
+                failures++;
+                if (failures >= MAX_FAILURES) return null;
+            }
+        }
+        renew();
+        fill();
+        return current;
+    }
+
+    /**
+     * Stops preparing files and ends the leases of all prepared files, including the last taken file.
+     */
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        renewalService.shutdownNow();
+        List<Future<PreparedFile>> remaining = new ArrayList<>(pending);
+        pending.clear();
+        PreparedFile last = current;
+        current = null;
+        // Runs after all queued tasks, so every remaining future is done by then
+        executorService.execute(() -> {
+            List<FileInfo> files = new ArrayList<>();
+            if (last != null) files.add(last.getFileInfo());
+            for (Future<PreparedFile> future : remaining) {
+                PreparedFile preparedFile = completed(future);
+                if (preparedFile != null) files.add(preparedFile.getFileInfo());
+            }
+            dataManager.releaseLeases(files);
+        });
+        executorService.shutdown();
+    }
+
+    private void fill() {
+        while (!closed && pending.size() < lookAhead) {
+            pending.add(executorService.submit(this::prepare));
+        }
+        if (!closed && renewal == null) {
+            renewal = renewalService.scheduleWithFixedDelay(this::renewPeriodically, RENEW_INTERVAL, RENEW_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void renewPeriodically() {
+        if (closed) return;
+        renew();
+    }
+
+    private void release(PreparedFile preparedFile) {
+        if (preparedFile == null) return;
+        executorService.execute(() -> dataManager.releaseLeases(Collections.singletonList(preparedFile.getFileInfo())));
+    }
+
+    private void renew() {
+        List<FileInfo> files = new ArrayList<>();
+        if (current != null) files.add(current.getFileInfo());
+        for (Future<PreparedFile> future : pending) {
+            if (!future.isDone()) continue;
+            PreparedFile preparedFile = completed(future);
+            if (preparedFile != null) files.add(preparedFile.getFileInfo());
+        }
+        if (files.isEmpty()) return;
+        executorService.execute(() -> dataManager.renewLeases(files, LEASE_TIME));
+    }
+
+    private PreparedFile prepare() {
+        List<FileInfo> checkedOut = dataManager.checkOutFiles(true, 1, LEASE_TIME);
+        if (checkedOut.isEmpty()) return null;
+        FileInfo fileInfo = checkedOut.get(0);
+        MetaData metaData;
+        FileType fileType;
+        try {
+            metaData = MetaData.openOrCreate(fileInfo, project);
+            fileType = fileInfo.getFileType();
+        } catch (RuntimeException e) {
+            // The file is skipped, it does not have to wait for its lease to expire
+            dataManager.releaseLeases(Collections.singletonList(fileInfo));
+            throw e;
+        }
+        Object content = null;
+        try {
+            switch (fileType) {
+                case IMAGE:
+                    content = ImageViewer.read(fileInfo);
+                    break;
+                case TEXT:
+                    content = TextViewer.read(fileInfo);
+                    break;
+                default:
+                    break;
+            }
+        } catch (Exception e) {
+            System.out.println("Failed to decode file: " + e.getMessage());
+        }
+        return new PreparedFile(fileInfo, metaData, fileType, content);
+    }
+
+    private static PreparedFile completed(Future<PreparedFile> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ignored) {
+        }
+        return null;
+    }
+
+    /**
+     * A file ready to be shown: its meta data, its type and its decoded content.
+     */
+    public static class PreparedFile {
+        private final @NotNull FileInfo fileInfo;
+        private final @NotNull MetaData metaData;
+        private final @NotNull FileType fileType;
+        private final Object content;
+
+        PreparedFile(@NotNull FileInfo fileInfo, @NotNull MetaData metaData, @NotNull FileType fileType, Object content) {
+            this.fileInfo = fileInfo;
+            this.metaData = metaData;
+            this.fileType = fileType;
+            this.content = content;
+        }
+
+        public @NotNull FileInfo getFileInfo() {
+            return fileInfo;
+        }
+
+        public @NotNull MetaData getMetaData() {
+            return metaData;
+        }
+
+        public @NotNull FileType getFileType() {
+            return fileType;
+        }
+
+        /**
+         * @return The decoded image for images, the text for texts, null for other files
+         * or if the file could not be decoded
+         */
+        public Object getContent() {
+            return content;
+        }
+    }
+}
@@ -80,6 +80,26 @@ public class ImageViewer  extends JComponent {
     }
 
     public void display(FileInfo fileInfo) {
+        display(read(fileInfo));
+    }
+
+    /**
+     * Shows an image decoded by {@link #read(FileInfo)}.
+     *
+     * @param decoded The image, if null the previous image is kept
+     */
+    public void display(BufferedImage decoded) {
+        if (decoded != null) image = decoded;
+        revalidate();
+        repaint();
+    }
+
+    /**
+     * Decodes the first image of a file. This does not depend on the component and can be done off the EDT.
+     *
+     * @return The image or null if the file could not be decoded
+     */
+    public static BufferedImage read(FileInfo fileInfo) {
         try (InputStream fileInput = fileInfo.getInputStream();
                 ImageInputStream input = ImageIO.createImageInputStream(fileInput)) {
             Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
@@ -92,15 +112,13 @@ public class ImageViewer  extends JComponent {
 
             try {
                 reader.setInput(input);
-                BufferedImage tempImage = reader.read(0);
-                if (tempImage != null) image = tempImage;
+                return reader.read(0);
             } finally {
                 reader.dispose();
             }
         } catch (IOException | IllegalStateException ignore) {
         }
-        revalidate();
-        repaint();
+        return null;
     }
 
     public void stop() {
@@ -56,14 +56,37 @@ public class TextViewer extends RTextScrollPane {
     }
 
     public void display(FileInfo fileInfo) {
+        display(read(fileInfo));
+    }
+
+    /**
+     * Shows a text read by {@link #read(FileInfo)}.
+     */
+    public void display(String text) {
+        textArea.setText(text == null ? "" : text);
+        textArea.setCaretPosition(0);
+        textArea.discardAllEdits();
+    }
+
+    /**
+     * Reads the text of a file. This does not depend on the component and can be done off the EDT.
+     *
+     * @return The text or null if the file could not be read
+     */
+    public static String read(FileInfo fileInfo) {
         try (InputStream fileInfoInputStream = fileInfo.getInputStream();
              InputStreamReader fileInfoReader = new InputStreamReader(fileInfoInputStream);
              BufferedReader reader = new BufferedReader(fileInfoReader)) {
-            textArea.read(reader, null);
-            textArea.setCaretPosition(0);
-            textArea.discardAllEdits();
+            // Line endings are normalized like the text area does when reading
+            StringBuilder text = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                text.append(line).append('\n');
+            }
+            return text.toString();
         } catch (IOException ignore) {
         }
+        return null;
     }
 
     public void stop() {
@@ -17,11 +17,13 @@
 
 package de.sg_o.app.tagy.customComponents;
 
+import de.sg_o.app.tagy.annotator.FilePrefetcher;
 import de.sg_o.app.tagy.annotator.Input;
 import de.sg_o.lib.tagy.data.FileInfo;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.image.BufferedImage;
 import java.util.List;
 
 public class Viewer extends JPanel {
@@ -80,6 +82,43 @@ public class Viewer extends JPanel {
         repaint();
     }
 
+    /**
+     * Shows a file prepared by a {@link FilePrefetcher} without reading it again.
+     */
+    public void display(FilePrefetcher.PreparedFile preparedFile) {
+        textViewer.stop();
+        player.stop();
+        imageViewer.stop();
+        Object content = preparedFile.getContent();
+        try {
+            switch (preparedFile.getFileType()) {
+                case TEXT:
+                    textViewer.display((String) content);
+                    layout.show(this, TEXT_VIEWER);
+                    break;
+                case IMAGE:
+                    if (content == null) {
+                        layout.show(this, UNKNOWN);
+                        break;
+                    }
+                    imageViewer.display((BufferedImage) content);
+                    layout.show(this, IMAGE);
+                    break;
+                case MEDIA:
+                    player.display(preparedFile.getFileInfo());
+                    layout.show(this, PLAYER);
+                    break;
+                default:
+                    layout.show(this, UNKNOWN);
+                    break;
+            }
+        } catch (Exception ignored) {
+            layout.show(this, UNKNOWN);
+        }
+        revalidate();
+        repaint();
+    }
+
     public void close() {
         textViewer.close();
         player.close();
@@ -20,13 +20,13 @@ package de.sg_o.app.tagy.ui;
 import com.intellij.uiDesigner.core.GridConstraints;
 import com.intellij.uiDesigner.core.GridLayoutManager;
 import com.intellij.uiDesigner.core.Spacer;
+import de.sg_o.app.tagy.annotator.FilePrefetcher;
 import de.sg_o.app.tagy.annotator.Input;
 import de.sg_o.app.tagy.annotator.InputHolder;
 import de.sg_o.app.tagy.customComponents.Viewer;
 import de.sg_o.app.tagy.customComponents.WrapLayout;
 import de.sg_o.lib.tagy.Project;
 import de.sg_o.lib.tagy.data.DataManager;
-import de.sg_o.lib.tagy.data.FileInfo;
 import de.sg_o.lib.tagy.data.MetaData;
 import de.sg_o.lib.tagy.exceptions.InputException;
 import org.jetbrains.annotations.NotNull;
@@ -56,6 +56,7 @@ public class AnnotateUI extends JFrame {
 
     private final DataManager dataManager;
     private final InputHolder inputHolder;
+    private final FilePrefetcher prefetcher;
     private MetaData metaData;
     private final MetaData toView;
     private Viewer viewer;
@@ -72,6 +73,8 @@ public class AnnotateUI extends JFrame {
 
         dataManager = new DataManager(this.project);
         inputHolder = new InputHolder(this.project);
+        prefetcher = toView == null ? new FilePrefetcher(this.project, dataManager) : null;
+        if (prefetcher != null) prefetcher.start();
 
         doneButton.setMnemonic(KeyEvent.VK_ENTER);
         doneButton.addActionListener(e -> doneAction());
@@ -106,6 +109,7 @@ public class AnnotateUI extends JFrame {
             public void windowClosed(WindowEvent e) {
                 super.windowClosed(e);
                 viewer.close();
+                if (prefetcher != null) prefetcher.close();
                 manager.removeKeyEventPostProcessor(keyEventPostProcessor);
             }
         });
@@ -152,19 +156,21 @@ public class AnnotateUI extends JFrame {
     public void showNext(MetaData toView) {
         if (toView != null) {
             metaData = toView;
+            fileName.setText(metaData.getFileReference());
+            viewer.display(metaData.resolveFileReference());
         } else {
-            FileInfo fileInfo = dataManager.getNextFile();
-            if (fileInfo == null) {
+            FilePrefetcher.PreparedFile next = prefetcher.next();
+            if (next == null) {
                 inputHolder.reset();
                 errorMessage.setText(this.$$$getMessageFromBundle$$$("translations/formText", "message.noMoreFiles"));
                 fileName.setText("");
                 metaData = null;
                 return;
             }
-            metaData = MetaData.openOrCreate(fileInfo, project);
+            metaData = next.getMetaData();
+            fileName.setText(metaData.getFileReference());
+            viewer.display(next);
         }
-        fileName.setText(metaData.getFileReference());
-        viewer.display(metaData.resolveFileReference());
 
         inputHolder.setData(metaData);
 